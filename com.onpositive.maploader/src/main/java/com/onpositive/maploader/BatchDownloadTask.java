@@ -0,0 +1,69 @@
+package com.onpositive.maploader;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import org.openstreetmap.josm.gui.layer.AbstractTileSourceLayer;
+import org.openstreetmap.josm.gui.layer.TilePosition;
+import org.openstreetmap.josm.gui.layer.WMSLayer;
+import org.openstreetmap.josm.tools.Logging;
+
+/**
+ * Downloads images for a batch of spatially close samples. Union of tiles for all the samples is loaded once,
+ * and then all the samples are cropped from already loaded tiles. Tiles are not loaded for WMS layer in direct GetMap
+ * mode, each sample is requested separately then
+ */
+public class BatchDownloadTask implements Callable<Object> {
+
+	/**
+	 * Max tiles count to prefetch for one batch. Prefetched tiles should fit into layer's memory tile cache
+	 * together with tiles of other batches being processed in parallel
+	 */
+	private static final int MAX_PREFETCH_TILES = 64;
+
+	private final AbstractTileSourceLayer<?> sourceLayer;
+
+	private final List<DownloadTask> tasks;
+
+	public BatchDownloadTask(AbstractTileSourceLayer<?> sourceLayer, List<DownloadTask> tasks) {
+		this.sourceLayer = sourceLayer;
+		this.tasks = tasks;
+	}
+
+	@Override
+	public Object call() throws Exception {
+		if (!(sourceLayer instanceof WMSLayer && ((WMSLayer) sourceLayer).isDirectGetMap())) {
+			try {
+				prefetchTiles();
+			} catch (RuntimeException e) {
+				// prefetch is only an optimization, samples load their tiles themselves then
+				Logging.logWithStackTrace(Logging.LEVEL_WARN, e, "Failed to prefetch tiles for batch of {0} samples", tasks.size());
+			}
+		}
+		for (DownloadTask task : tasks) {
+			try {
+				task.call();
+			} catch (Exception e) {
+				Logging.error(e);
+			}
+		}
+		return null;
+	}
+
+	private void prefetchTiles() {
+		Set<TilePosition> tiles = new LinkedHashSet<>();
+		for (DownloadTask task : tasks) {
+			tiles.addAll(sourceLayer.getTilePositions(task.getBoundingBox(), task.getZoom()));
+		}
+		if (tiles.size() <= MAX_PREFETCH_TILES) {
+			if (!sourceLayer.loadTilesBlocking(tiles)) {
+				Logging.debug("Failed to prefetch some of {0} tiles for batch of {1} samples", tiles.size(), tasks.size());
+			}
+		} else {
+			Logging.debug("Batch of {0} samples covers {1} tiles, skipping prefetch", tasks.size(), tiles.size());
+		}
+	}
+
+}
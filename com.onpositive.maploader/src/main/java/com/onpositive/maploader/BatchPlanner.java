@@ -0,0 +1,95 @@
+package com.onpositive.maploader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.openstreetmap.gui.jmapviewer.OsmMercator;
+
+import com.osm2xp.classification.model.WayEntity;
+
+import math.geom2d.Box2D;
+
+/**
+ * Splits ways into spatially local batches, so samples from one batch are covered by the small set of shared tiles.
+ * Ways are ordered by Z-order (Morton) code of the tile containing their bounding box center, and ways from the same
+ * cell of 2^cellShift x 2^cellShift tiles are put into one batch
+ */
+public class BatchPlanner {
+
+	private final int zoom;
+
+	private final int cellShift;
+
+	private final int maxBatchSize;
+
+	/**
+	 * Constructs new BatchPlanner
+	 * @param zoom zoom level tiles would be loaded for
+	 * @param cellShift log2 of the batch cell size in tiles
+	 * @param maxBatchSize max ways count in one batch
+	 */
+	public BatchPlanner(int zoom, int cellShift, int maxBatchSize) {
+		this.zoom = zoom;
+		this.cellShift = cellShift;
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * Split ways into batches
+	 * @param ways ways with already grown bounding boxes
+	 * @return batches as lists of indexes in <code>ways</code> list
+	 */
+	public List<List<Integer>> plan(List<WayEntity> ways) {
+		int count = ways.size();
+		long[] codes = new long[count];
+		Integer[] order = new Integer[count];
+		for (int i = 0; i < count; i++) {
+			codes[i] = getMortonCode(ways.get(i).getBoundingBox());
+			order[i] = i;
+		}
+		Arrays.sort(order, Comparator.comparingLong(idx -> codes[idx]));
+
+		List<List<Integer>> batches = new ArrayList<>();
+		List<Integer> current = new ArrayList<>();
+		long currentCell = -1;
+		for (Integer idx : order) {
+			long cell = codes[idx] >>> (2 * cellShift);
+			if (!current.isEmpty() && (cell != currentCell || current.size() >= maxBatchSize)) {
+				batches.add(current);
+				current = new ArrayList<>();
+			}
+			currentCell = cell;
+			current.add(idx);
+		}
+		if (!current.isEmpty()) {
+			batches.add(current);
+		}
+		return batches;
+	}
+
+	private long getMortonCode(Box2D boundingBox) {
+		double lat = (boundingBox.getMinY() + boundingBox.getMaxY()) / 2;
+		double lon = (boundingBox.getMinX() + boundingBox.getMaxX()) / 2;
+		int x = (int) (OsmMercator.MERCATOR_256.lonToX(lon, zoom) / OsmMercator.DEFAUL_TILE_SIZE);
+		int y = (int) (OsmMercator.MERCATOR_256.latToY(lat, zoom) / OsmMercator.DEFAUL_TILE_SIZE);
+		return interleave(x) | (interleave(y) << 1);
+	}
+
+	/**
+	 * Spreads bits of given value, so there is one zero bit between each pair of source bits
+	 * @param value value to spread
+	 * @return value with spread bits
+	 */
+	private static long interleave(int value) {
+		long x = value & 0xFFFFFFFFL;
+		x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+		x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+		x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+		x = (x | (x << 2)) & 0x3333333333333333L;
+		x = (x | (x << 1)) & 0x5555555555555555L;
+		return x;
+	}
+
+}
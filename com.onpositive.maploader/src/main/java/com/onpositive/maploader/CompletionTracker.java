@@ -0,0 +1,46 @@
+package com.onpositive.maploader;
+
+/**
+ * Counter-based latch tracking pending tasks. Unlike {@link java.util.concurrent.CountDownLatch} count isn't known
+ * in advance - task should be registered with {@link #taskStarted()} before submission and {@link #taskFinished()}
+ * should be called once it reached it's final state, including all retries
+ */
+public class CompletionTracker {
+
+	private long pending;
+
+	/**
+	 * Register new pending task
+	 */
+	public synchronized void taskStarted() {
+		pending++;
+	}
+
+	/**
+	 * Mark one of the registered tasks as finished
+	 */
+	public synchronized void taskFinished() {
+		pending--;
+		if (pending <= 0) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * @return count of registered tasks, which are not finished yet
+	 */
+	public synchronized long getPendingCount() {
+		return pending;
+	}
+
+	/**
+	 * Wait until all registered tasks are finished
+	 * @throws InterruptedException if waiting thread was interrupted
+	 */
+	public synchronized void awaitCompletion() throws InterruptedException {
+		while (pending > 0) {
+			wait();
+		}
+	}
+
+}
@@ -1,63 +1,115 @@
 package com.onpositive.maploader;
 
 import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-
-import javax.imageio.ImageIO;
 
 import org.openstreetmap.josm.gui.layer.AbstractTileSourceLayer;
 import org.openstreetmap.josm.tools.Logging;
 
 import com.osm2xp.classification.model.WayEntity;
 
+import math.geom2d.Box2D;
+
 
 public class DownloadTask implements Callable<Object> {
 	
-	private AbstractTileSourceLayer<?> sourceLayer;
-	private WayEntity wayEntity;
+	protected AbstractTileSourceLayer<?> sourceLayer;
+	protected WayEntity wayEntity;
 	
-	private volatile int retryCnt = 5;
-	private ExecutorService service;
-	private File outFile;
-	private double growFactor;
-	private int scale;
-
-	public DownloadTask(File outFile, AbstractTileSourceLayer<?> sourceLayer, 
-			WayEntity wayEntity, ExecutorService service, double growFactor, int scale) {
-				this.outFile = outFile;
+	private volatile int attempt = 0;
+	private RetryScheduler retryScheduler;
+	private String sampleName;
+	private ISampleOutput output;
+	protected double growFactor;
+	protected int scale;
+	private IDownloadListener listener;
+	private EncodingStage encodingStage;
+
+	public DownloadTask(String sampleName, ISampleOutput output, AbstractTileSourceLayer<?> sourceLayer, 
+			WayEntity wayEntity, RetryScheduler retryScheduler, EncodingStage encodingStage, double growFactor, int scale, 
+			IDownloadListener listener) {
+				this.sampleName = sampleName;
+				this.output = output;
+				this.encodingStage = encodingStage;
 				this.sourceLayer = sourceLayer;
 				this.wayEntity = wayEntity;
-				this.service = service;
+				this.retryScheduler = retryScheduler;
 				this.growFactor = growFactor;
 				this.scale = scale;
+				this.listener = listener;
 	}
 
 	@Override
 	public Object call() throws Exception {
 		try {
-			BufferedImage img = sourceLayer.paintImageFor(wayEntity.getBoundingBox(), scale ,true, growFactor);
+			BufferedImage img = paintImage();
 			if (img != null) {
-				saveImage(img);
-				Logging.info("Saved " + outFile.getAbsolutePath());
+				encodingStage.submit(img, output, sampleName).whenComplete((name, e) -> {
+					if (e == null) {
+						Logging.info("Saved " + output.getLocation(sampleName));
+					} else {
+						Logging.error("Exception occured while saving image for " + wayEntity.getId());
+						Logging.error(e);
+					}
+					notifyFinished(e == null);
+				});
+				return null;
 			} else {
 				Logging.error("Failed to load all tiles for way " + wayEntity.getId());
-				if (retryCnt > 0) {
-					retryCnt--;
-					return service.submit(this);
+				if (retryScheduler.scheduleRetry(this, getHostKey(), attempt++)) {
+					return null;
 				}
 			}
 		} catch (Exception e) {
 			Logging.error("Exception occured while saving image for " + wayEntity.getId());
 			Logging.error(e);
 		}
+		notifyFinished(false);
 		return null;
 	}
 
-	protected void saveImage(BufferedImage img) throws IOException {
-		ImageIO.write(img,"png", outFile);
+	private void notifyFinished(boolean success) {
+		if (listener != null) {
+			listener.downloadFinished(sampleName, success);
+		}
+	}
+
+	/**
+	 * @return sample image or <code>null</code> if some of the tiles failed to load
+	 */
+	protected BufferedImage paintImage() {
+		return sourceLayer.paintImageFor(wayEntity.getBoundingBox(), scale ,true, growFactor);
+	}
+
+	/**
+	 * @return zoom level tiles for this sample are loaded with
+	 */
+	public int getZoom() {
+		return scale;
+	}
+
+	/**
+	 * @return bounding box of the sample
+	 */
+	public Box2D getBoundingBox() {
+		return wayEntity.getBoundingBox();
+	}
+
+	/**
+	 * @return host name of the imagery server, used for retry budget accounting. Layer name is used if url can't be parsed 
+	 */
+	protected String getHostKey() {
+		String url = sourceLayer.getInfo().getUrl();
+		if (url != null) {
+			try {
+				return new URL(url).getHost();
+			} catch (MalformedURLException e) {
+				Logging.trace(e);
+			}
+		}
+		return sourceLayer.getInfo().getName();
 	}
 
 }
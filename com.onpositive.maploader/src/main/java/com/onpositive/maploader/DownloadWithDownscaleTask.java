@@ -1,46 +1,30 @@
 package com.onpositive.maploader;
 
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.IOException;
-import java.util.concurrent.ExecutorService;
 
 import org.openstreetmap.josm.gui.layer.AbstractTileSourceLayer;
 
 import com.osm2xp.classification.model.WayEntity;
 
+/**
+ * Download task producing images not larger than given max size. Zoom level is chosen for each sample by {@link ZoomChooser},
+ * and image is downscaled by the layer while tiles are composed, so full resolution image is never created  
+ */
 public class DownloadWithDownscaleTask extends DownloadTask {
 
 	private int maxSize;
 
-	public DownloadWithDownscaleTask(File outFile, AbstractTileSourceLayer<?> sourceLayer, WayEntity wayEntity,
-			ExecutorService service, double growFactor, int scale, int maxSize) {
-		super(outFile, sourceLayer, wayEntity, service, growFactor, scale);
+	public DownloadWithDownscaleTask(String sampleName, ISampleOutput output, AbstractTileSourceLayer<?> sourceLayer, WayEntity wayEntity,
+			RetryScheduler retryScheduler, EncodingStage encodingStage, double growFactor, ZoomChooser zoomChooser, int maxSize, 
+			IDownloadListener listener) {
+		super(sampleName, output, sourceLayer, wayEntity, retryScheduler, encodingStage, growFactor, 
+				zoomChooser.chooseZoom(sourceLayer, wayEntity.getBoundingBox()), listener);
 		this.maxSize = maxSize;
 	}
 	
 	@Override
-	protected void saveImage(BufferedImage img) throws IOException {
-		int width = img.getWidth();
-		int height = img.getHeight();
-		int imgMaxSize = Math.max(width, height);
-		if (imgMaxSize <= maxSize) {
-			super.saveImage(img);
-		} else {
-			double ratio = imgMaxSize *  1.0 / maxSize;
-			int newWidth = (int) (width >= height ? maxSize : Math.round(width / ratio));
-			int newHeight = (int) (width >= height ? Math.round(height / ratio): maxSize);
-			BufferedImage resized = new BufferedImage(newWidth, newHeight, img.getType());
-			Graphics2D g = resized.createGraphics();
-			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
-			    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-			g.drawImage(img, 0, 0, newWidth, newHeight, 0, 0, img.getWidth(),
-			    img.getHeight(), null);
-			g.dispose();
-			super.saveImage(resized);
-		}
+	protected BufferedImage paintImage() {
+		return sourceLayer.paintImageFor(wayEntity.getBoundingBox(), scale, true, growFactor, maxSize);
 	}
 
 }
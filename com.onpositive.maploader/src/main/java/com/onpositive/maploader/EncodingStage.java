@@ -0,0 +1,74 @@
+package com.onpositive.maploader;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * Encodes and writes sample images on it's own pool of threads, decoupled from download workers. 
+ * Pool is sized to CPU cores count, since encoding is CPU-bound. Queue is bounded - if encoders can't keep up,
+ * download worker submitting the image encodes it itself, which slows downloading down
+ */
+public class EncodingStage {
+	
+	private static final int QUEUE_SIZE_PER_THREAD = 4;
+	
+	private final IImageEncoder encoder;
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Constructs new EncodingStage with threads count equal to available processors count
+	 * @param encoder encoder to use
+	 */
+	public EncodingStage(IImageEncoder encoder) {
+		this(encoder, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Constructs new EncodingStage
+	 * @param encoder encoder to use
+	 * @param threads encoding threads count
+	 */
+	public EncodingStage(IImageEncoder encoder, int threads) {
+		this.encoder = encoder;
+		executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, 
+				new ArrayBlockingQueue<>(threads * QUEUE_SIZE_PER_THREAD), 
+				Utils.newThreadFactory("Image-encoder-%d", Thread.NORM_PRIORITY),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.allowCoreThreadTimeOut(true);
+	}
+	
+	/**
+	 * @return extension of the files written by this stage
+	 */
+	public String getExtension() {
+		return encoder.getExtension();
+	}
+	
+	/**
+	 * Submit image for encoding
+	 * @param img image to encode
+	 * @param output output to write encoded image into
+	 * @param name sample name
+	 * @return future completed once image is written
+	 */
+	public CompletableFuture<String> submit(BufferedImage img, ISampleOutput output, String name) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				ByteArrayOutputStream out = new ByteArrayOutputStream(img.getWidth() * img.getHeight());
+				encoder.encode(img, out);
+				output.write(name, out.toByteArray());
+				return name;
+			} catch (IOException e) {
+				throw new RuntimeException("Unable to write " + name, e);
+			}
+		}, executor);
+	}
+
+}
@@ -0,0 +1,76 @@
+package com.onpositive.maploader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Writes each sample into separate file in output folder. Existing files are listed once on creation,
+ * so checking whether sample was already written doesn't touch file system
+ * <p>
+ * Sample is written into temporary file first and then renamed, so interrupted run never leaves partially written sample
+ */
+public class FolderSampleOutput implements ISampleOutput {
+	
+	private static final String TMP_SUFFIX = ".tmp";
+	
+	protected final File folder;
+	
+	private final Set<String> existing = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Constructs new FolderSampleOutput
+	 * @param folder output folder
+	 * @throws IOException if folder can't be listed
+	 */
+	public FolderSampleOutput(File folder) throws IOException {
+		this.folder = folder;
+		folder.mkdirs();
+		Path root = folder.toPath();
+		try (Stream<Path> files = Files.walk(root, getDepth())) {
+			files.filter(Files::isRegularFile)
+				.map(path -> root.relativize(path).toString().replace(File.separatorChar, '/'))
+				.filter(location -> !location.endsWith(TMP_SUFFIX))
+				.forEach(existing::add);
+		}
+	}
+	
+	/**
+	 * @return depth of folder tree samples are stored in
+	 */
+	protected int getDepth() {
+		return 1;
+	}
+
+	@Override
+	public String getLocation(String name) {
+		return name;
+	}
+
+	@Override
+	public boolean contains(String name) {
+		return existing.contains(getLocation(name));
+	}
+
+	@Override
+	public void write(String name, byte[] data) throws IOException {
+		String location = getLocation(name);
+		File outFile = new File(folder, location);
+		outFile.getParentFile().mkdirs();
+		File tmpFile = new File(outFile.getParentFile(), outFile.getName() + TMP_SUFFIX);
+		Files.write(tmpFile.toPath(), data);
+		Files.move(tmpFile.toPath(), outFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		existing.add(location);
+	}
+
+	@Override
+	public void close() throws IOException {
+		// Nothing to close
+	}
+
+}
@@ -0,0 +1,26 @@
+package com.onpositive.maploader;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Spreads sample files over 256 subfolders by name hash, so no single folder contains hundreds of thousands of files
+ */
+public class HashedFolderSampleOutput extends FolderSampleOutput {
+
+	public HashedFolderSampleOutput(File folder) throws IOException {
+		super(folder);
+	}
+	
+	@Override
+	protected int getDepth() {
+		return 2;
+	}
+	
+	@Override
+	public String getLocation(String name) {
+		String bucket = Integer.toHexString((name.hashCode() & 0xFF) | 0x100).substring(1);
+		return bucket + "/" + name;
+	}
+
+}
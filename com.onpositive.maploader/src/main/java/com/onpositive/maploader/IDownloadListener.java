@@ -0,0 +1,8 @@
+package com.onpositive.maploader;
+
+/**
+ * Listener notified once sample image download task has reached it's final state - image was saved or all attempts failed
+ */
+public interface IDownloadListener {
+	void downloadFinished(String sampleName, boolean success);
+}
@@ -0,0 +1,25 @@
+package com.onpositive.maploader;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encoder writing sample images in some output format. Implementations should be thread-safe, since encoding 
+ * is performed by several threads in parallel
+ */
+public interface IImageEncoder {
+	
+	/**
+	 * @return file extension for this format, without leading dot
+	 */
+	String getExtension();
+	
+	/**
+	 * Encode image to given stream. Stream isn't closed by this method
+	 * @param img image to encode
+	 * @param out stream to write to
+	 * @throws IOException if writing failed
+	 */
+	void encode(BufferedImage img, OutputStream out) throws IOException;
+}
@@ -0,0 +1,31 @@
+package com.onpositive.maploader;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Storage for encoded sample images. Implementations should be thread-safe, since samples are written 
+ * by several encoding threads in parallel
+ */
+public interface ISampleOutput extends Closeable {
+	
+	/**
+	 * @param name sample name
+	 * @return sample location to be stored in dataset, relative to output folder
+	 */
+	String getLocation(String name);
+	
+	/**
+	 * @param name sample name
+	 * @return <code>true</code> if sample with given name was already written, during this or some previous run
+	 */
+	boolean contains(String name);
+	
+	/**
+	 * Write sample
+	 * @param name sample name
+	 * @param data encoded sample image
+	 * @throws IOException if writing failed
+	 */
+	void write(String name, byte[] data) throws IOException;
+}
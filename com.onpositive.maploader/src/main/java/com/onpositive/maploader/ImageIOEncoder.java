@@ -0,0 +1,95 @@
+package com.onpositive.maploader;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Encoder using ImageIO writers. Each thread reuses it's own {@link ImageWriter} instance, 
+ * instead of looking up and creating new writer for each image as {@link ImageIO#write} does
+ */
+public class ImageIOEncoder implements IImageEncoder {
+	
+	private final String formatName;
+	private final String extension;
+	private final Float compressionQuality;
+	private final ThreadLocal<ImageWriter> writers;
+
+	/**
+	 * Constructs new ImageIOEncoder
+	 * @param formatName ImageIO format name
+	 * @param extension file extension
+	 * @param compressionQuality compression quality in 0..1 range, see {@link ImageWriteParam#setCompressionQuality(float)}.
+	 *  <code>null</code> means writer's default. Ignored if writer doesn't support compression settings
+	 */
+	public ImageIOEncoder(String formatName, String extension, Float compressionQuality) {
+		this.formatName = formatName;
+		this.extension = extension;
+		this.compressionQuality = compressionQuality;
+		Iterator<ImageWriter> iterator = ImageIO.getImageWritersByFormatName(formatName);
+		if (!iterator.hasNext()) {
+			throw new IllegalArgumentException("No ImageIO writer for format " + formatName);
+		}
+		writers = ThreadLocal.withInitial(() -> ImageIO.getImageWritersByFormatName(formatName).next());
+	}
+	
+	/**
+	 * @return PNG encoder with default compression
+	 */
+	public static ImageIOEncoder png() {
+		return new ImageIOEncoder("png", "png", null);
+	}
+	
+	/**
+	 * PNG encoder with given compression. Lower quality means stronger and slower deflate compression, 
+	 * PNG is lossless anyway. Supported by JDK PNG writer starting from Java 9 
+	 * @param compressionQuality compression quality in 0..1 range
+	 * @return PNG encoder
+	 */
+	public static ImageIOEncoder png(float compressionQuality) {
+		return new ImageIOEncoder("png", "png", compressionQuality);
+	}
+	
+	/**
+	 * @param quality JPEG quality in 0..1 range
+	 * @return JPEG encoder
+	 */
+	public static ImageIOEncoder jpeg(float quality) {
+		return new ImageIOEncoder("jpeg", "jpg", quality);
+	}
+
+	@Override
+	public String getExtension() {
+		return extension;
+	}
+
+	@Override
+	public void encode(BufferedImage img, OutputStream out) throws IOException {
+		ImageWriter writer = writers.get();
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		if (compressionQuality != null && param.canWriteCompressed()) {
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(compressionQuality);
+		}
+		try (ImageOutputStream stream = new MemoryCacheImageOutputStream(out)) {
+			writer.setOutput(stream);
+			writer.write(null, new IIOImage(img, null, null), param);
+		} finally {
+			writer.reset();
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return formatName + (compressionQuality != null ? " (" + compressionQuality + ")" : "");
+	}
+
+}
@@ -0,0 +1,62 @@
+package com.onpositive.maploader;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes images as uncompressed NumPy <code>.npy</code> arrays of <code>uint8</code> with <code>(height, width, 3)</code> shape, 
+ * RGB channel order. Such arrays could be loaded with <code>numpy.load</code> or memory-mapped without any decoding 
+ */
+public class NpyEncoder implements IImageEncoder {
+	
+	private static final byte[] MAGIC = {(byte) 0x93, 'N', 'U', 'M', 'P', 'Y', 1, 0};
+	
+	/**
+	 * Total header length should be divisible by this value
+	 */
+	private static final int HEADER_ALIGNMENT = 64;
+
+	@Override
+	public String getExtension() {
+		return "npy";
+	}
+
+	@Override
+	public void encode(BufferedImage img, OutputStream out) throws IOException {
+		int width = img.getWidth();
+		int height = img.getHeight();
+		out.write(createHeader(width, height));
+		int[] row = new int[width];
+		byte[] bytes = new byte[width * 3];
+		for (int y = 0; y < height; y++) {
+			img.getRGB(0, y, width, 1, row, 0, width);
+			for (int x = 0; x < width; x++) {
+				int rgb = row[x];
+				bytes[x * 3] = (byte) (rgb >> 16);
+				bytes[x * 3 + 1] = (byte) (rgb >> 8);
+				bytes[x * 3 + 2] = (byte) rgb;
+			}
+			out.write(bytes);
+		}
+	}
+
+	private static byte[] createHeader(int width, int height) {
+		StringBuilder dict = new StringBuilder("{'descr': '|u1', 'fortran_order': False, 'shape': (")
+				.append(height).append(", ").append(width).append(", 3), }");
+		int prefixLength = MAGIC.length + 2; // magic, version and header length
+		while ((prefixLength + dict.length() + 1) % HEADER_ALIGNMENT != 0) {
+			dict.append(' ');
+		}
+		dict.append('\n');
+		byte[] dictBytes = dict.toString().getBytes(StandardCharsets.US_ASCII);
+		byte[] header = new byte[prefixLength + dictBytes.length];
+		System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+		header[MAGIC.length] = (byte) (dictBytes.length & 0xFF); // little-endian uint16
+		header[MAGIC.length + 1] = (byte) (dictBytes.length >> 8);
+		System.arraycopy(dictBytes, 0, header, prefixLength, dictBytes.length);
+		return header;
+	}
+
+}
@@ -0,0 +1,46 @@
+package com.onpositive.maploader;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Layout of the sample images in output folder
+ */
+public enum OutputLayout {
+	/**
+	 * Separate file for each sample, all in the output folder itself
+	 */
+	FOLDER {
+		@Override
+		public ISampleOutput open(File folder, String datasetID) throws IOException {
+			return new FolderSampleOutput(folder);
+		}
+	},
+	/**
+	 * Separate file for each sample, spread over 256 subfolders
+	 */
+	HASHED_FOLDER {
+		@Override
+		public ISampleOutput open(File folder, String datasetID) throws IOException {
+			return new HashedFolderSampleOutput(folder);
+		}
+	},
+	/**
+	 * Samples packed into large tar shards with index
+	 */
+	SHARDS {
+		@Override
+		public ISampleOutput open(File folder, String datasetID) throws IOException {
+			return new ShardedSampleOutput(folder, datasetID, ShardedSampleOutput.DEFAULT_SHARD_SIZE);
+		}
+	};
+	
+	/**
+	 * Open sample output of this layout
+	 * @param folder output folder
+	 * @param datasetID dataset ID
+	 * @return sample output
+	 * @throws IOException if output can't be opened
+	 */
+	public abstract ISampleOutput open(File folder, String datasetID) throws IOException;
+}
@@ -0,0 +1,96 @@
+package com.onpositive.maploader;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openstreetmap.josm.tools.Logging;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Schedules failed download tasks for re-execution with exponential backoff and random jitter.
+ * Delayed tasks don't occupy worker threads while waiting - they are kept by separate timer thread and
+ * submitted to worker pool once delay expires.
+ * <p>
+ * Each host has it's own retry budget, so unavailable server can't make us retry forever - once budget is spent,
+ * failed tasks for this host are not retried anymore
+ */
+public class RetryScheduler {
+
+	private static final long BASE_DELAY_MS = 1000;
+
+	private static final long MAX_DELAY_MS = TimeUnit.MINUTES.toMillis(1);
+
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Retry-scheduler-%d").build());
+
+	private final Map<String, AtomicInteger> hostBudgets = new ConcurrentHashMap<>();
+
+	private final ExecutorService service;
+
+	private final int maxAttempts;
+
+	private final int hostRetryBudget;
+
+	/**
+	 * Constructs new RetryScheduler
+	 * @param service executor to submit retried tasks to
+	 * @param maxAttempts max retry count for single task
+	 * @param hostRetryBudget max total retry count for all tasks targeting same host
+	 */
+	public RetryScheduler(ExecutorService service, int maxAttempts, int hostRetryBudget) {
+		this.service = service;
+		this.maxAttempts = maxAttempts;
+		this.hostRetryBudget = hostRetryBudget;
+	}
+
+	/**
+	 * Submit task for the first execution, without delay
+	 * @param task task to submit
+	 */
+	public void submit(Callable<?> task) {
+		service.submit(task);
+	}
+
+	/**
+	 * Schedule task for retry
+	 * @param task task to retry
+	 * @param host host task is downloading from, used to check retry budget
+	 * @param attempt number of retry attempt, starting from 0
+	 * @return <code>true</code> if retry was scheduled, <code>false</code> if task ran out of attempts or host budget is spent
+	 */
+	public boolean scheduleRetry(Callable<?> task, String host, int attempt) {
+		if (attempt >= maxAttempts) {
+			return false;
+		}
+		AtomicInteger budget = hostBudgets.computeIfAbsent(host, key -> new AtomicInteger(hostRetryBudget));
+		if (budget.getAndDecrement() <= 0) {
+			Logging.warn("Retry budget for host {0} is spent, not retrying", host);
+			return false;
+		}
+		long delay = getDelay(attempt);
+		Logging.debug("Retrying download from {0} in {1} ms", host, delay);
+		timer.schedule(() -> service.submit(task), delay, TimeUnit.MILLISECONDS);
+		return true;
+	}
+
+	/**
+	 * Exponential backoff with "equal jitter" - random delay between half of exponential delay and exponential delay itself.
+	 * Randomization avoids retrying lots of simultaneously failed tasks at the same moment, and the fixed half of the delay
+	 * keeps retries from being sent right away
+	 * @param attempt retry attempt number
+	 * @return delay in milliseconds
+	 */
+	protected long getDelay(int attempt) {
+		long delay = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << Math.min(attempt, 16));
+		return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+	}
+
+}
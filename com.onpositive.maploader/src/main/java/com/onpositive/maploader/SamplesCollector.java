@@ -3,12 +3,14 @@ package com.onpositive.maploader;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import org.apache.commons.jcs.access.AbstractCacheAccess;
@@ -16,17 +18,25 @@ import org.apache.commons.jcs.access.behavior.ICacheAccess;
 import org.apache.commons.jcs.engine.control.CompositeCache;
 import org.openstreetmap.gui.jmapviewer.interfaces.CachedTileLoader;
 import org.openstreetmap.josm.data.cache.BufferedImageCacheEntry;
+import org.openstreetmap.josm.data.cache.ExecutionMode;
 import org.openstreetmap.josm.data.imagery.ImageryLayerInfo;
+import org.openstreetmap.josm.data.imagery.TileArchive;
+import org.openstreetmap.josm.data.imagery.TileArchiveLoader;
 import org.openstreetmap.josm.data.preferences.JosmBaseDirectories;
 import org.openstreetmap.josm.data.preferences.JosmUrls;
 import org.openstreetmap.josm.data.preferences.Preferences;
 import org.openstreetmap.josm.gui.layer.AbstractTileSourceLayer;
 import org.openstreetmap.josm.gui.layer.ImageryLayer;
+import org.openstreetmap.josm.gui.layer.TilePosition;
+import org.openstreetmap.josm.gui.layer.WMSLayer;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
 import org.openstreetmap.josm.spi.preferences.Config;
 import org.openstreetmap.josm.tools.GeomUtils;
+import org.openstreetmap.josm.tools.Logging;
+
+import math.geom2d.Box2D;
 
 import com.bbn.openmap.util.FileUtils;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.osm2xp.classification.model.WayEntity;
 import com.osm2xp.classification.output.CSVWriter;
 import com.osm2xp.classification.parsing.LearningDataParser;
@@ -36,10 +46,48 @@ import com.osm2xp.generation.paths.PathsService;
 public abstract class SamplesCollector<T extends IHasId> {
 	
 	private static final int MAX_IMG_SIZE = 768;
+	
+	/**
+	 * Max count of samples submitted for download and not finished yet. Limits memory used for pending ways and images
+	 */
+	private static final int MAX_PENDING_SAMPLES = 100;
+	
+	private static final int MAX_RETRY_ATTEMPTS = 5;
+	
+	/**
+	 * Collector threads count for platform execution mode. In virtual mode each task gets it's own virtual thread
+	 * and concurrency is limited by {@link #MAX_PENDING_SAMPLES} and per-host download limits 
+	 */
+	private static final int COLLECTOR_THREADS = 10;
+	
+	/**
+	 * Samples from the cell of 2^BATCH_CELL_SHIFT x 2^BATCH_CELL_SHIFT tiles are downloaded as one batch 
+	 */
+	private static final int BATCH_CELL_SHIFT = 2;
+	
+	private static final int MAX_BATCH_SIZE = 32;
+	
+	/**
+	 * Max total retry count for one imagery host. Avoids retrying all the samples when host is unavailable
+	 */
+	private static final int HOST_RETRY_BUDGET = 1000;
+	
+	/**
+	 * Interval of prefetch progress reporting, in seconds
+	 */
+	private static final int PREFETCH_PROGRESS_INTERVAL = 30;
 
-	private ExecutorService service = Executors.newFixedThreadPool(10, new ThreadFactoryBuilder().setDaemon(true).build());
+	private ExecutorService service = ExecutionMode.getDefault().newExecutor("Samples-collector-%d", COLLECTOR_THREADS);
 	private List<ImageryLayer> layers;
-	private List<Future<?>> futureList = new ArrayList<Future<?>>();
+	private final RetryScheduler retryScheduler = new RetryScheduler(service, MAX_RETRY_ATTEMPTS, HOST_RETRY_BUDGET);
+	private final Semaphore pendingSamples = new Semaphore(MAX_PENDING_SAMPLES);
+	private final CompletionTracker completionTracker = new CompletionTracker();
+	private final ZoomChooser zoomChooser = new ZoomChooser(MAX_IMG_SIZE);
+	private EncodingStage encodingStage = new EncodingStage(ImageIOEncoder.png());
+
+	private OutputLayout outputLayout = OutputLayout.FOLDER;
+	
+	private boolean prefetch;
 
 	private double growFactor = 0;
 
@@ -49,6 +97,8 @@ public abstract class SamplesCollector<T extends IHasId> {
 	 * Constructs new SamplesCollector
 	 * @param basicFolder Folder to store additional info (preferences, caches...) into
 	 * @param growFactor - grow factor, image bounds will be taken this percent larger, than original entity bounds. E.g. 0.4 means bounding box will grow 1.4 x
+	 * @param scale - zoom level used to group spatially close samples into download batches. Zoom level for each sample image 
+	 * is chosen by {@link ZoomChooser} 
 	 */
 	
 	public SamplesCollector(File basicFolder, double growFactor, int scale) {
@@ -67,6 +117,68 @@ public abstract class SamplesCollector<T extends IHasId> {
 		layers = ImageryLayerInfo.instance.getLayers().stream().map(info -> ImageryLayer.create(info)).collect(Collectors.toList());
 	}
 
+	/**
+	 * Set encoder for sample images, PNG with default compression is used by default. Should be called before collection is started
+	 * @param encoder image encoder, e.g. {@link ImageIOEncoder#jpeg(float)} or {@link NpyEncoder}
+	 */
+	public void setImageEncoder(IImageEncoder encoder) {
+		encodingStage = new EncodingStage(encoder);
+	}
+
+	/**
+	 * Set layout of the sample images in output folder, {@link OutputLayout#FOLDER} is used by default. 
+	 * Should be called before collection is started
+	 * @param outputLayout output layout
+	 */
+	public void setOutputLayout(OutputLayout outputLayout) {
+		this.outputLayout = outputLayout;
+	}
+
+	/**
+	 * Enable bulk tile prefetch. If enabled, all the tiles needed for the samples of each input file are downloaded into
+	 * the disk cache before sample images are composed, see {@link #prefetchTiles(List, List, ISampleOutput)}. 
+	 * Should be called before collection is started
+	 * @param prefetch <code>true</code> to prefetch tiles, <code>false</code> by default
+	 */
+	public void setPrefetch(boolean prefetch) {
+		this.prefetch = prefetch;
+	}
+
+	/**
+	 * Enable direct WMS GetMap mode. If enabled, image for each sample of WMS layer is loaded with single GetMap request
+	 * for it's exact bounding box and image size, instead of composing it from tiles, see {@link WMSLayer#setDirectGetMap(boolean)}.
+	 * Tiles are not prefetched for such layers. Should be called before collection is started
+	 * @param wmsGetMap <code>true</code> to load WMS samples with GetMap requests, <code>false</code> by default
+	 */
+	public void setWmsGetMap(boolean wmsGetMap) {
+		for (ImageryLayer layer : layers) {
+			if (layer instanceof WMSLayer) {
+				((WMSLayer) layer).setDirectGetMap(wmsGetMap);
+			}
+		}
+	}
+
+	/**
+	 * Load imagery from local tile archives instead of downloading it. Archive for each layer is looked up in given folder
+	 * by {@link TileArchive#getFileName(String)}, e.g. exported with {@link TileArchiveExporter}. Layers without archive
+	 * keep loading tiles online. Should be called before collection is started
+	 * @param folder folder containing tile archives
+	 * @throws IOException if some archive can't be opened
+	 */
+	public void setTileArchiveFolder(File folder) throws IOException {
+		for (ImageryLayer layer : layers) {
+			if (layer instanceof AbstractTileSourceLayer) {
+				File file = new File(folder, TileArchive.getFileName(layer.getInfo().getName()));
+				if (file.isFile()) {
+					AbstractTileSourceLayer<?> sourceLayer = (AbstractTileSourceLayer<?>) layer;
+					sourceLayer.setTileLoader(new TileArchiveLoader(sourceLayer, new TileArchive(file)));
+				} else {
+					Logging.info("No tile archive for layer {0}, tiles would be downloaded", layer.getInfo().getName());
+				}
+			}
+		}
+	}
+
 	/**
 	 * Collect samples as image files and create .csv dataset file for them
 	 * @param datasetID ID to use for dataset
@@ -102,43 +214,13 @@ public abstract class SamplesCollector<T extends IHasId> {
 			throw new IllegalArgumentException("Input File object should be either .osm.pbf file or directory");
 		}
     	
-    	List<T> data = new ArrayList<>();
-    	for (File curInput : inputs) {
-			data.addAll(collectData(curInput, outFolder));
-		}
-
-    	synchronized (futureList) {
-    		List<Future<?>> curList = futureList;
-    		while (!curList.isEmpty()) {
-    			try {
-					List<Future<?>> addedList = new ArrayList<Future<?>>();
-					for (Future<?> future : curList) {
-						Object result = future.get();
-						if (result instanceof Future<?>) {
-							addedList.add((Future<?>) result);
-						}
-					}
-					curList = addedList;
-				} catch (InterruptedException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				} catch (ExecutionException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-			}
-    		
-		}
-    	
-    	for (Iterator<T> iterator = data.iterator(); iterator.hasNext();) {
-			T current = iterator.next();
-			if (!new File(outFolder, current.getId()).exists()) {
-				iterator.remove();
-			}
-		}
-    	
-    	try (CSVWriter<T> csvWriter = new CSVWriter<T>(new File(outFolder, datasetID + ".csv"), datasetID)) {
-    		csvWriter.write(data);
+    	outFolder.mkdirs();
+    	try (ISampleOutput output = outputLayout.open(outFolder, datasetID);
+    			CSVWriter<T> csvWriter = new CSVWriter<T>(new File(outFolder, datasetID + ".csv"), datasetID)) {
+    		for (File curInput : inputs) {
+    			collectData(curInput, output, csvWriter);
+    		}
+    		waitForPendingSamples();
     	} catch (IOException e1) {
     		// TODO Auto-generated catch block
     		e1.printStackTrace();
@@ -157,39 +239,141 @@ public abstract class SamplesCollector<T extends IHasId> {
 		}
 	}
 
-	protected List<T> collectData(File inputFile, File outFolder) {
+	/**
+	 * Parse given input file and pass found ways through download pipeline. Ways are grouped into spatially local batches
+	 * by {@link BatchPlanner}, tiles for each batch are loaded once and shared by all it's samples. 
+	 * At most {@link #MAX_PENDING_SAMPLES} samples could be waiting for download at the same time, so submission is 
+	 * blocked until some of the pending samples finish. Dataset row for the sample is appended right after it's image was saved 
+	 * @param inputFile input .osm/.pbf file
+	 * @param output output to write sample images to
+	 * @param csvWriter writer for dataset rows
+	 */
+	protected void collectData(File inputFile, ISampleOutput output, CSVWriter<T> csvWriter) {
 		System.out.println("Processing " + inputFile.getAbsolutePath());
 		LearningDataParser parser = new LearningDataParser(inputFile, list -> isGoodSample(list));
-		List<T> data = new ArrayList<>();    	
-    	
     	List<WayEntity> ways = parser.getCollectedWays(true);
     	for (WayEntity wayEntity : ways) {
 			wayEntity.setBoundingBox(GeomUtils.checkMinSizeAndGrow(wayEntity.getBoundingBox(), getMinBoundingBoxMeters(), growFactor));
 		}
     	
-//    	File folder = new File(outFolder, getDirName(inputFile));
-    	outFolder.mkdirs();
-    	int layerIdx = 0;
+    	List<AbstractTileSourceLayer<?>> sourceLayers = new ArrayList<>();
     	for (ImageryLayer layer : layers) {
-			if (layer instanceof AbstractTileSourceLayer && !layer.getInfo().getName().startsWith("OpenStreetMap")) { //XXX ugly hack here to avoid downloading OSM map 
-				AbstractTileSourceLayer<?> sourceLayer = (AbstractTileSourceLayer<?>) layer;
-				int idx = 0;
-				for (WayEntity entity : ways) {
-					long key = entity.getId() > 0 ? entity.getId() : idx;
-					String fileName = key + "_" + layerIdx + ".png";
-					File outFile = new File(outFolder, fileName);
-					if (!outFile.exists()) {
-						saveImgForWay(outFile, sourceLayer, idx, entity);
-					}
-//					data.add(new AirfieldSurface(fileName, isHardSurface(TagUtil.getValue("surface", entity.getTags()))));
-					data.add(convert(fileName, entity));
-					idx++;
+    		if (layer instanceof AbstractTileSourceLayer && !layer.getInfo().getName().startsWith("OpenStreetMap")) { //XXX ugly hack here to avoid downloading OSM map
+    			sourceLayers.add((AbstractTileSourceLayer<?>) layer);
+    		}
+    	}
+    	
+    	if (prefetch) {
+    		prefetchTiles(ways, sourceLayers, output);
+    	}
+    	
+    	BatchPlanner planner = new BatchPlanner(scale, BATCH_CELL_SHIFT, MAX_BATCH_SIZE);
+    	for (List<Integer> batch : planner.plan(ways)) {
+    		for (int layerIdx = 0; layerIdx < sourceLayers.size(); layerIdx++) {
+    			AbstractTileSourceLayer<?> sourceLayer = sourceLayers.get(layerIdx);
+    			List<DownloadTask> tasks = new ArrayList<>();
+    			for (int idx : batch) {
+    				WayEntity entity = ways.get(idx);
+    				String name = getSampleName(entity, idx, layerIdx);
+    				T sample = convert(output.getLocation(name), entity);
+    				if (sample == null) {
+    					continue;
+    				}
+    				if (output.contains(name)) {
+    					appendSample(csvWriter, sample);
+    				} else {
+    					tasks.add(createDownloadTask(name, output, sourceLayer, entity, 
+    							(sampleName, success) -> {
+    								if (success) {
+    									appendSample(csvWriter, sample);
+    								}
+    							}));
+    				}
+    			}
+    			submitBatch(sourceLayer, tasks);
+    		}
+    	}
+	}
+	
+	/**
+	 * Downloads all the tiles needed for the samples, which are not in the output yet, into the disk cache. 
+	 * Tile set of each layer is deduplicated and requested in Z-order, so spatially close tiles are requested together.
+	 * Layers are downloaded in parallel, each by it's own executor, limited by per host connection limit. Tiles already 
+	 * cached are skipped, so interrupted prefetch is resumed by the next run
+	 * @param ways ways to collect samples for
+	 * @param sourceLayers layers to collect samples from
+	 * @param output sample output, used to skip already collected samples
+	 */
+	protected void prefetchTiles(List<WayEntity> ways, List<AbstractTileSourceLayer<?>> sourceLayers, ISampleOutput output) {
+		List<AbstractTileSourceLayer<?>.PrecacheTask> tasks = new ArrayList<>();
+		for (int layerIdx = 0; layerIdx < sourceLayers.size(); layerIdx++) {
+			AbstractTileSourceLayer<?> sourceLayer = sourceLayers.get(layerIdx);
+			if (!(sourceLayer.getTileLoader() instanceof CachedTileLoader)) {
+				// e.g. tiles are loaded from local archive
+				continue;
+			}
+			if (sourceLayer instanceof WMSLayer && ((WMSLayer) sourceLayer).isDirectGetMap()) {
+				// samples are loaded with GetMap requests, not from tiles
+				continue;
+			}
+			Set<TilePosition> tiles = new HashSet<>();
+			for (int idx = 0; idx < ways.size(); idx++) {
+				WayEntity entity = ways.get(idx);
+				String name = getSampleName(entity, idx, layerIdx);
+				if (output.contains(name) || convert(output.getLocation(name), entity) == null) {
+					continue;
 				}
-				layerIdx++;
+				Box2D boundingBox = entity.getBoundingBox();
+				int zoom = sourceLayer.getSufficientZoom(boundingBox, zoomChooser.chooseZoom(sourceLayer, boundingBox), MAX_IMG_SIZE);
+				tiles.addAll(sourceLayer.getTilePositions(boundingBox, zoom));
+			}
+			List<TilePosition> ordered = tiles.stream()
+					.sorted(Comparator.comparingLong(p -> TileArchive.getTileId(p.getZoom(), p.getX(), p.getY())))
+					.collect(Collectors.toList());
+			Logging.info("Prefetching {0} tiles for layer {1}", ordered.size(), sourceLayer.getInfo().getName());
+			AbstractTileSourceLayer<?>.PrecacheTask task = sourceLayer.getDownloadTilesToCacheTask(NullProgressMonitor.INSTANCE, ordered);
+			task.run();
+			tasks.add(task);
+		}
+		try {
+			for (int i = 0; i < tasks.size(); i++) {
+				AbstractTileSourceLayer<?>.PrecacheTask task = tasks.get(i);
+				while (!task.awaitCompletion(PREFETCH_PROGRESS_INTERVAL, TimeUnit.SECONDS)) {
+					Logging.info("Prefetch progress: {0} of {1} tiles", task.getProcessedCount(), task.getTotalCount());
+				}
+				Logging.info("Prefetch finished: {0} tiles, {1} already cached, {2} failed", 
+						task.getTotalCount(), task.getSkippedCount(), task.getFailedCount());
+			}
+		} catch (InterruptedException e) {
+			Logging.warn("Interrupted while prefetching tiles");
+			tasks.forEach(AbstractTileSourceLayer.PrecacheTask::cancel);
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private String getSampleName(WayEntity entity, int idx, int layerIdx) {
+		long key = entity.getId() > 0 ? entity.getId() : idx;
+		return key + "_" + layerIdx + "." + encodingStage.getExtension();
+	}
+	
+	private void appendSample(CSVWriter<T> csvWriter, T sample) {
+		synchronized (csvWriter) {
+			try {
+				csvWriter.write(Collections.singletonList(sample));
+			} catch (IOException e) {
+				Logging.error("Failed to write dataset row for " + sample.getId());
+				Logging.error(e);
 			}
-			
 		}
-    	return data;
+	}
+	
+	private void waitForPendingSamples() {
+		try {
+			completionTracker.awaitCompletion();
+		} catch (InterruptedException e) {
+			Logging.warn("Interrupted while waiting for {0} pending samples", completionTracker.getPendingCount());
+			Thread.currentThread().interrupt();
+		}
 	}
 	
 	protected abstract int getMinBoundingBoxMeters();
@@ -198,11 +382,28 @@ public abstract class SamplesCollector<T extends IHasId> {
 	
 	protected abstract boolean isGoodSample(List<Tag> tags);
 
-	protected void saveImgForWay(File outFile, AbstractTileSourceLayer<?> sourceLayer, int idx,
-			WayEntity wayEntity) {
-		synchronized (futureList) {
-			futureList.add(service.submit(new DownloadWithDownscaleTask(outFile,sourceLayer,wayEntity,service, growFactor, scale, MAX_IMG_SIZE)));
+	protected DownloadTask createDownloadTask(String sampleName, ISampleOutput output, AbstractTileSourceLayer<?> sourceLayer, 
+			WayEntity wayEntity, IDownloadListener listener) {
+		return new DownloadWithDownscaleTask(sampleName, output, sourceLayer,wayEntity,retryScheduler, encodingStage, growFactor, zoomChooser, MAX_IMG_SIZE, 
+				(name, success) -> {
+					try {
+						listener.downloadFinished(name, success);
+					} finally {
+						pendingSamples.release();
+						completionTracker.taskFinished();
+					}
+				});
+	}
+	
+	protected void submitBatch(AbstractTileSourceLayer<?> sourceLayer, List<DownloadTask> tasks) {
+		if (tasks.isEmpty()) {
+			return;
+		}
+		pendingSamples.acquireUninterruptibly(tasks.size());
+		for (int i = 0; i < tasks.size(); i++) {
+			completionTracker.taskStarted();
 		}
+		retryScheduler.submit(new BatchDownloadTask(sourceLayer, tasks));
 	}
 	
 }
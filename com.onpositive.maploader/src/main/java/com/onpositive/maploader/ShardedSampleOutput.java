@@ -0,0 +1,246 @@
+package com.onpositive.maploader;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+/**
+ * Packs samples into large sequentially written tar shards instead of separate files. Shard is closed and next one is started
+ * once it reaches max shard size. 
+ * <p>
+ * Index file <code>&lt;prefix&gt;.index.csv</code> contains <code>name,shard,offset,size</code> row for each sample, 
+ * where offset is the position of sample data in shard file, so samples could be read without scanning the archive.
+ * Index row is written only after sample data is flushed and synced to disk, so samples from interrupted runs are either 
+ * indexed and complete, or would be downloaded again. Shard is synced once per several samples, on shard roll and on close,
+ * and index rows of the samples written since previous sync are buffered until then. Rows pointing past the end of their shard are dropped when existing
+ * index is opened. Later runs append new shards and rows to existing ones 
+ */
+public class ShardedSampleOutput implements ISampleOutput {
+	
+	/**
+	 * Default max shard size - 1 Gb
+	 */
+	public static final long DEFAULT_SHARD_SIZE = 1L << 30;
+	
+	/**
+	 * Default number of samples written between shard syncs
+	 */
+	public static final int DEFAULT_SYNC_INTERVAL = 64;
+	
+	private static final String INDEX_HEADER = "name,shard,offset,size";
+	
+	/**
+	 * Tar record size. Block is set to one record, so closed entry is never kept partially buffered inside tar stream
+	 */
+	private static final int RECORD_SIZE = 512;
+	
+	private final File folder;
+	private final String prefix;
+	private final long maxShardSize;
+	private final int syncInterval;
+	private final Set<String> indexed = ConcurrentHashMap.newKeySet();
+	private final Writer indexWriter;
+	
+	private int shardIdx;
+	private String shardName;
+	private FileOutputStream shardFileOut;
+	private BufferedOutputStream shardBufferOut;
+	private TarArchiveOutputStream shardOut;
+	/**
+	 * Index rows of samples written to current shard since last sync
+	 */
+	private final List<String> pendingRows = new ArrayList<>();
+
+	/**
+	 * Constructs new ShardedSampleOutput, syncing shard every {@link #DEFAULT_SYNC_INTERVAL} samples
+	 * @param folder output folder
+	 * @param prefix shard and index file name prefix
+	 * @param maxShardSize max size of one shard, in bytes
+	 * @throws IOException if existing index can't be read or new index can't be created
+	 */
+	public ShardedSampleOutput(File folder, String prefix, long maxShardSize) throws IOException {
+		this(folder, prefix, maxShardSize, DEFAULT_SYNC_INTERVAL);
+	}
+
+	/**
+	 * Constructs new ShardedSampleOutput
+	 * @param folder output folder
+	 * @param prefix shard and index file name prefix
+	 * @param maxShardSize max size of one shard, in bytes
+	 * @param syncInterval number of samples written between shard syncs. Up to this number of samples is not indexed
+	 * and would be downloaded again, if process is killed
+	 * @throws IOException if existing index can't be read or new index can't be created
+	 */
+	public ShardedSampleOutput(File folder, String prefix, long maxShardSize, int syncInterval) throws IOException {
+		this.folder = folder;
+		this.prefix = prefix;
+		this.maxShardSize = maxShardSize;
+		this.syncInterval = Math.max(1, syncInterval);
+		folder.mkdirs();
+		File indexFile = new File(folder, prefix + ".index.csv");
+		boolean newIndex = !indexFile.exists();
+		if (!newIndex) {
+			readIndex(indexFile);
+		}
+		while (new File(folder, getShardName(shardIdx)).exists()) {
+			shardIdx++;
+		}
+		indexWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(indexFile, true), StandardCharsets.UTF_8));
+		if (newIndex) {
+			indexWriter.write(INDEX_HEADER + "\n");
+			indexWriter.flush();
+		}
+	}
+
+	/**
+	 * Reads existing index and rewrites it leaving only rows, which point to data actually present in shard files.
+	 * Rows could point past shard end or be truncated if previous run was killed before data or row was written completely
+	 * @param indexFile index file
+	 * @throws IOException if index can't be read or rewritten
+	 */
+	private void readIndex(File indexFile) throws IOException {
+		List<String> rows = new ArrayList<>();
+		Map<String, Long> shardSizes = new HashMap<>();
+		boolean dropped = false;
+		try (BufferedReader reader = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.equals(INDEX_HEADER)) {
+					continue;
+				}
+				String name = getValidName(line, shardSizes);
+				if (name != null) {
+					indexed.add(name);
+					rows.add(line);
+				} else {
+					dropped = true;
+				}
+			}
+		}
+		if (dropped) {
+			File tmpFile = new File(folder, indexFile.getName() + ".tmp");
+			try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), StandardCharsets.UTF_8))) {
+				writer.write(INDEX_HEADER + "\n");
+				for (String row : rows) {
+					writer.write(row + "\n");
+				}
+			}
+			Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * @param line index row
+	 * @param shardSizes cache of already checked shard file sizes
+	 * @return sample name, if row is well-formed and its data lies completely inside existing shard; <code>null</code> otherwise
+	 */
+	private String getValidName(String line, Map<String, Long> shardSizes) {
+		String[] parts = line.split(",");
+		if (parts.length != 4 || parts[0].isEmpty()) {
+			return null;
+		}
+		try {
+			long offset = Long.parseLong(parts[2]);
+			long size = Long.parseLong(parts[3]);
+			long shardSize = shardSizes.computeIfAbsent(parts[1], shard -> new File(folder, shard).length());
+			return offset >= 0 && size >= 0 && offset + size <= shardSize ? parts[0] : null;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private String getShardName(int idx) {
+		return String.format(Locale.ENGLISH, "%s-%05d.tar", prefix, idx);
+	}
+
+	@Override
+	public String getLocation(String name) {
+		return name;
+	}
+
+	@Override
+	public boolean contains(String name) {
+		return indexed.contains(name);
+	}
+
+	@Override
+	public synchronized void write(String name, byte[] data) throws IOException {
+		if (shardOut == null || shardOut.getBytesWritten() + data.length > maxShardSize) {
+			closeShard();
+			shardName = getShardName(shardIdx++);
+			shardFileOut = new FileOutputStream(new File(folder, shardName));
+			shardBufferOut = new BufferedOutputStream(shardFileOut);
+			shardOut = new TarArchiveOutputStream(shardBufferOut, RECORD_SIZE);
+			shardOut.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+		}
+		TarArchiveEntry entry = new TarArchiveEntry(name);
+		entry.setSize(data.length);
+		shardOut.putArchiveEntry(entry);
+		long offset = shardOut.getBytesWritten();
+		shardOut.write(data);
+		shardOut.closeArchiveEntry();
+		pendingRows.add(name + "," + shardName + "," + offset + "," + data.length);
+		indexed.add(name);
+		if (pendingRows.size() >= syncInterval) {
+			syncShard();
+		}
+	}
+
+	/**
+	 * Flushes and syncs current shard, and writes index rows of the samples written since last sync
+	 * @throws IOException if writing failed
+	 */
+	private void syncShard() throws IOException {
+		if (pendingRows.isEmpty()) {
+			return;
+		}
+		shardOut.flush();
+		// Tar stream doesn't necessarily pass flush() down, so buffer is flushed explicitly
+		shardBufferOut.flush();
+		shardFileOut.getChannel().force(false);
+		for (String row : pendingRows) {
+			indexWriter.write(row + "\n");
+		}
+		indexWriter.flush();
+		pendingRows.clear();
+	}
+
+	private void closeShard() throws IOException {
+		if (shardOut != null) {
+			syncShard();
+			shardOut.finish();
+			shardOut.close();
+			shardOut = null;
+			shardBufferOut = null;
+			shardFileOut = null;
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			closeShard();
+		} finally {
+			indexWriter.close();
+		}
+	}
+
+}
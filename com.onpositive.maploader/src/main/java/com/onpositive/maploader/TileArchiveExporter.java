@@ -0,0 +1,129 @@
+package com.onpositive.maploader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.openstreetmap.gui.jmapviewer.TileRange;
+import org.openstreetmap.josm.data.imagery.TileArchive;
+import org.openstreetmap.josm.data.imagery.TileArchiveWriter;
+import org.openstreetmap.josm.gui.layer.AbstractTileSourceLayer;
+import org.openstreetmap.josm.gui.layer.TilePosition;
+import org.openstreetmap.josm.tools.Logging;
+
+/**
+ * Exports tiles of the layer from it's tile cache into single file {@link TileArchive}, which could be served later by
+ * {@link org.openstreetmap.josm.data.imagery.TileArchiveLoader} without network access
+ */
+public class TileArchiveExporter {
+
+	/**
+	 * Tiles missing in cache are loaded by chunks of this size
+	 */
+	private static final int LOAD_CHUNK_SIZE = 64;
+
+	private final AbstractTileSourceLayer<?> layer;
+
+	private boolean loadMissing = true;
+
+	/**
+	 * Constructs new TileArchiveExporter
+	 * @param layer layer to export tiles of
+	 */
+	public TileArchiveExporter(AbstractTileSourceLayer<?> layer) {
+		this.layer = layer;
+	}
+
+	/**
+	 * @param loadMissing <code>true</code> to load tiles missing in cache before exporting, <code>false</code> to skip them.
+	 * <code>true</code> by default
+	 */
+	public void setLoadMissing(boolean loadMissing) {
+		this.loadMissing = loadMissing;
+	}
+
+	/**
+	 * @param folder folder to store archive into
+	 * @return archive file for the layer in given folder, see {@link TileArchive#getFileName(String)}
+	 */
+	public File getArchiveFile(File folder) {
+		return new File(folder, TileArchive.getFileName(layer.getInfo().getName()));
+	}
+
+	/**
+	 * Export tiles from given range
+	 * @param range tile range to export
+	 * @param target archive file
+	 * @return number of exported tiles
+	 * @throws IOException if archive can't be written
+	 */
+	public int export(TileRange range, File target) throws IOException {
+		return export(Collections.singletonList(range), target);
+	}
+
+	/**
+	 * Export tiles from given ranges, e.g. the same area on several zoom levels
+	 * @param ranges tile ranges to export
+	 * @param target archive file
+	 * @return number of exported tiles
+	 * @throws IOException if archive can't be written
+	 */
+	public int export(Collection<TileRange> ranges, File target) throws IOException {
+		List<TilePosition> positions = getPositions(ranges);
+		int missing = 0;
+		TileArchiveWriter writer = new TileArchiveWriter(target);
+		try {
+			for (int i = 0; i < positions.size(); i += LOAD_CHUNK_SIZE) {
+				List<TilePosition> chunk = positions.subList(i, Math.min(positions.size(), i + LOAD_CHUNK_SIZE));
+				if (loadMissing) {
+					List<TilePosition> notCached = chunk.stream().filter(p -> !layer.isTileCached(p))
+							.collect(Collectors.toList());
+					if (!notCached.isEmpty()) {
+						layer.loadTilesBlocking(notCached);
+					}
+				}
+				for (TilePosition position : chunk) {
+					byte[] content = layer.getCachedTileContent(position);
+					if (content == null) {
+						missing++;
+					} else {
+						writer.addTile(position.getZoom(), position.getX(), position.getY(), content);
+					}
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			writer.abort();
+			throw e;
+		}
+		writer.close();
+		if (missing > 0) {
+			Logging.warn("{0} of {1} tiles are not available and weren''t exported to {2}", missing, positions.size(), target);
+		}
+		Logging.info("Exported {0} tiles ({1} unique) to {2}", writer.getTileCount(), writer.getUniqueTileCount(), target);
+		return writer.getTileCount();
+	}
+
+	/**
+	 * @param ranges tile ranges
+	 * @return distinct tile positions of all the ranges, in archive order
+	 */
+	private static List<TilePosition> getPositions(Collection<TileRange> ranges) {
+		List<TilePosition> positions = new ArrayList<>();
+		for (TileRange range : ranges) {
+			for (int x = Math.max(0, range.getMinX()); x <= range.getMaxX(); x++) {
+				for (int y = Math.max(0, range.getMinY()); y <= range.getMaxY(); y++) {
+					positions.add(new TilePosition(x, y, range.getZoom()));
+				}
+			}
+		}
+		return positions.stream()
+				.distinct()
+				.sorted(Comparator.comparingLong(p -> TileArchive.getTileId(p.getZoom(), p.getX(), p.getY())))
+				.collect(Collectors.toList());
+	}
+}
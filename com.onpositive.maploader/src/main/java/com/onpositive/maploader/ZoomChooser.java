@@ -0,0 +1,49 @@
+package com.onpositive.maploader;
+
+import org.openstreetmap.gui.jmapviewer.Coordinate;
+import org.openstreetmap.gui.jmapviewer.TileXY;
+import org.openstreetmap.gui.jmapviewer.tilesources.AbstractTMSTileSource;
+import org.openstreetmap.josm.gui.layer.AbstractTileSourceLayer;
+
+import math.geom2d.Box2D;
+
+/**
+ * Chooses zoom level for each sample separately, based on required image resolution. Minimal zoom level giving at least 
+ * target size pixels across the sample bounding box is used, so large features don't need hundreds of high zoom tiles,
+ * and small ones get the best resolution imagery source provides
+ */
+public class ZoomChooser {
+	
+	private final int targetSize;
+
+	/**
+	 * Constructs new ZoomChooser
+	 * @param targetSize required size of the larger image side, in pixels
+	 */
+	public ZoomChooser(int targetSize) {
+		this.targetSize = targetSize;
+	}
+	
+	/**
+	 * Choose zoom level for given sample
+	 * @param sourceLayer layer to get imagery from
+	 * @param boundingBox sample bounding box, in degrees
+	 * @return minimal zoom level giving at least target size pixels for given bounding box, 
+	 * or max zoom level supported by layer's tile source, if even it's not enough
+	 */
+	public int chooseZoom(AbstractTileSourceLayer<?> sourceLayer, Box2D boundingBox) {
+		AbstractTMSTileSource tileSource = sourceLayer.getTileSource();
+		int maxZoom = tileSource.getMaxZoom();
+		int minZoom = Math.max(AbstractTileSourceLayer.MIN_ZOOM, tileSource.getMinZoom());
+		TileXY t1 = tileSource.latLonToTileXY(new Coordinate(boundingBox.getMinY(), boundingBox.getMinX()), maxZoom);
+		TileXY t2 = tileSource.latLonToTileXY(new Coordinate(boundingBox.getMaxY(), boundingBox.getMaxX()), maxZoom);
+		double size = Math.max(Math.abs(t2.getX() - t1.getX()), Math.abs(t2.getY() - t1.getY())) * tileSource.getTileSize();
+		if (size <= targetSize) {
+			return maxZoom;
+		}
+		// each zoom level lower halves image size
+		int levelsDown = (int) Math.floor(Math.log(size / targetSize) / Math.log(2));
+		return Math.max(minZoom, maxZoom - levelsDown);
+	}
+
+}
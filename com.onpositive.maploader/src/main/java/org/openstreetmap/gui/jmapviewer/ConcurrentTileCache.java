@@ -0,0 +1,312 @@
+// License: GPL. For details, see Readme.txt file.
+package org.openstreetmap.gui.jmapviewer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openstreetmap.gui.jmapviewer.interfaces.TileCache;
+import org.openstreetmap.gui.jmapviewer.interfaces.TileSource;
+
+/**
+ * {@link TileCache} implementation for many concurrent readers and writers, limited by memory used by tile images
+ * instead of tile count.
+ * <p>
+ * Tiles are spread over independent segments by key hash. Lookups are lock-free - they only read from
+ * {@link ConcurrentHashMap} and update last access time of the entry. Each segment keeps it's own byte budget, and once
+ * it's exceeded, least recently used entries of this segment are evicted under segment lock, so writers to other
+ * segments are never blocked.
+ * <p>
+ * Tile size is estimated from it's image raster. Tiles without image yet (being loaded) are counted as
+ * {@code defaultTileBytes}, and size is corrected once the tile is accessed after loading.
+ */
+public class ConcurrentTileCache implements TileCache {
+
+    /**
+     * Default segment count, should be a power of two
+     */
+    public static final int DEFAULT_SEGMENTS = 16;
+
+    /**
+     * Evicting down to this part of the segment budget, so eviction is not started again on each next insert
+     */
+    private static final double EVICTION_WATERMARK = 0.9;
+
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final int defaultTileBytes;
+    private volatile long maxBytes;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder evictedBytes = new LongAdder();
+
+    /**
+     * Constructs a new {@code ConcurrentTileCache} with {@link #DEFAULT_SEGMENTS} segments.
+     * @param maxBytes max memory used by cached tile images, in bytes
+     * @param defaultTileBytes size to account for tiles, which are not loaded yet
+     */
+    public ConcurrentTileCache(long maxBytes, int defaultTileBytes) {
+        this(maxBytes, defaultTileBytes, DEFAULT_SEGMENTS);
+    }
+
+    /**
+     * Constructs a new {@code ConcurrentTileCache}.
+     * @param maxBytes max memory used by cached tile images, in bytes
+     * @param defaultTileBytes size to account for tiles, which are not loaded yet
+     * @param segmentCount segment count, rounded up to a power of two
+     */
+    public ConcurrentTileCache(long maxBytes, int defaultTileBytes, int segmentCount) {
+        int count = segmentCount <= 1 ? 1 : Integer.highestOneBit(segmentCount - 1) << 1;
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment();
+        }
+        this.segmentMask = count - 1;
+        this.defaultTileBytes = defaultTileBytes;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public Tile getTile(TileSource source, int x, int y, int z) {
+        TileKey key = TileKey.of(source, x, y, z);
+        Segment segment = segmentFor(key);
+        CacheEntry entry = segment.map.get(key);
+        if (entry == null) {
+            missCount.increment();
+            return null;
+        }
+        hitCount.increment();
+        entry.lastAccess = System.nanoTime();
+        if (segment.updateWeight(entry)) {
+            segment.evictIfNeeded();
+        }
+        return entry.tile;
+    }
+
+    @Override
+    public void addTile(Tile tile) {
+        TileKey key = tile.getTileKey();
+        Segment segment = segmentFor(key);
+        CacheEntry entry = new CacheEntry(tile, estimateSize(tile));
+        segment.bytes.addAndGet(entry.weight);
+        CacheEntry old = segment.map.put(key, entry);
+        if (old != null) {
+            segment.release(old);
+        }
+        segment.evictIfNeeded();
+    }
+
+    @Override
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.lock.lock();
+            try {
+                for (CacheEntry entry : segment.map.values()) {
+                    segment.remove(entry);
+                }
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public int getTileCount() {
+        int count = 0;
+        for (Segment segment : segments) {
+            count += segment.map.size();
+        }
+        return count;
+    }
+
+    /**
+     * Size of the cache, estimated from the memory limit and {@code defaultTileBytes}.
+     * @return approximate maximum number of tiles in cache
+     */
+    @Override
+    public int getCacheSize() {
+        return (int) Math.min(Integer.MAX_VALUE, maxBytes / Math.max(1, defaultTileBytes));
+    }
+
+    /**
+     * @return estimated memory used by cached tile images, in bytes
+     */
+    public long getUsedBytes() {
+        long used = 0;
+        for (Segment segment : segments) {
+            used += segment.bytes.get();
+        }
+        return used;
+    }
+
+    /**
+     * @return max memory used by cached tile images, in bytes
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Changes memory limit of the cache. Least recently used tiles are evicted if new limit is lower than current usage.
+     * @param maxBytes new max memory used by cached tile images, in bytes
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        for (Segment segment : segments) {
+            segment.evictIfNeeded();
+        }
+    }
+
+    /**
+     * @return number of successful lookups since cache creation
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * @return number of failed lookups since cache creation
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * @return number of tiles evicted because of memory limit since cache creation
+     */
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * @return estimated size of tiles evicted because of memory limit since cache creation, in bytes
+     */
+    public long getEvictedBytes() {
+        return evictedBytes.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "ConcurrentTileCache [tiles=" + getTileCount() + ", usedBytes=" + getUsedBytes() + ", maxBytes=" + maxBytes
+                + ", hits=" + getHitCount() + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount()
+                + ", evictedBytes=" + getEvictedBytes() + ']';
+    }
+
+    private Segment segmentFor(TileKey key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return segments[h & segmentMask];
+    }
+
+    private long getSegmentBudget() {
+        return maxBytes / segments.length;
+    }
+
+    private long estimateSize(Tile tile) {
+        BufferedImage image = tile.getImage();
+        if (image == null) {
+            return defaultTileBytes;
+        }
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    private final class Segment {
+        private final ConcurrentHashMap<TileKey, CacheEntry> map = new ConcurrentHashMap<>();
+        private final AtomicLong bytes = new AtomicLong();
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /**
+         * Re-estimate entry size, tile image could be loaded or replaced since entry was added
+         * @param entry cache entry
+         * @return {@code true} if entry got larger
+         */
+        boolean updateWeight(CacheEntry entry) {
+            long weight = estimateSize(entry.tile);
+            if (weight == entry.weight) {
+                return false;
+            }
+            synchronized (entry) {
+                long old = entry.weight;
+                if (entry.removed || weight == old) {
+                    return false;
+                }
+                entry.weight = weight;
+                bytes.addAndGet(weight - old);
+                return weight > old;
+            }
+        }
+
+        void remove(CacheEntry entry) {
+            if (map.remove(entry.tile.getTileKey(), entry)) {
+                release(entry);
+            }
+        }
+
+        long release(CacheEntry entry) {
+            synchronized (entry) {
+                entry.removed = true;
+                bytes.addAndGet(-entry.weight);
+                return entry.weight;
+            }
+        }
+
+        void evictIfNeeded() {
+            long budget = getSegmentBudget();
+            if (bytes.get() <= budget || !lock.tryLock()) {
+                // some other thread is already evicting from this segment
+                return;
+            }
+            try {
+                long target = (long) (budget * EVICTION_WATERMARK);
+                if (bytes.get() <= budget) {
+                    return;
+                }
+                List<CacheEntry> entries = new ArrayList<>(map.values());
+                // access time is updated concurrently, so sort by it's snapshot
+                for (CacheEntry entry : entries) {
+                    entry.evictionOrder = entry.lastAccess;
+                }
+                entries.sort(Comparator.comparingLong(entry -> entry.evictionOrder));
+                for (CacheEntry entry : entries) {
+                    if (bytes.get() <= target) {
+                        break;
+                    }
+                    if (map.remove(entry.tile.getTileKey(), entry)) {
+                        evictionCount.increment();
+                        evictedBytes.add(release(entry));
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static final class CacheEntry {
+        private final Tile tile;
+        private volatile long lastAccess = System.nanoTime();
+        /** guarded by segment lock */
+        private long evictionOrder;
+        /** guarded by entry monitor, volatile for the lock-free size check */
+        private volatile long weight;
+        private boolean removed;
+
+        CacheEntry(Tile tile, long weight) {
+            this.tile = tile;
+            this.weight = weight;
+        }
+
+        @Override
+        public String toString() {
+            return tile.toString();
+        }
+    }
+}
@@ -24,7 +24,7 @@ public class MemoryTileCache implements TileCache {
      */
     protected int cacheSize;
 
-    protected final Map<String, CacheEntry> hash;
+    protected final Map<TileKey, CacheEntry> hash;
 
     /**
      * List of all tiles in their last recently used order
@@ -51,7 +51,7 @@ public class MemoryTileCache implements TileCache {
     @Override
     public synchronized void addTile(Tile tile) {
         CacheEntry entry = createCacheEntry(tile);
-        if (hash.put(tile.getKey(), entry) == null) {
+        if (hash.put(tile.getTileKey(), entry) == null) {
             // only if hash hadn't had the element, add it to LRU
             lruTiles.addFirst(entry);
             if (hash.size() > cacheSize || lruTiles.getElementCount() > cacheSize) {
@@ -62,7 +62,7 @@ public class MemoryTileCache implements TileCache {
 
     @Override
     public synchronized Tile getTile(TileSource source, int x, int y, int z) {
-        CacheEntry entry = hash.get(Tile.getTileKey(source, x, y, z));
+        CacheEntry entry = hash.get(TileKey.of(source, x, y, z));
         if (entry == null)
             return null;
         lruTiles.moveElementToFirstPos(entry);
@@ -83,7 +83,7 @@ public class MemoryTileCache implements TileCache {
     }
 
     protected synchronized void removeEntry(CacheEntry entry) {
-        hash.remove(entry.tile.getKey());
+        hash.remove(entry.tile.getTileKey());
         lruTiles.removeEntry(entry);
     }
 
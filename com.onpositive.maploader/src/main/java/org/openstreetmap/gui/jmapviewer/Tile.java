@@ -46,6 +46,7 @@ public class Tile {
     protected int zoom;
     protected BufferedImage image;
     protected String key;
+    private final TileKey tileKey;
     protected volatile boolean loaded; // field accessed by multiple threads without any monitors, needs to be volatile
     protected volatile boolean loading;
     protected volatile boolean error;
@@ -81,7 +82,7 @@ public class Tile {
         this.ytile = ytile;
         this.zoom = zoom;
         this.image = image;
-        this.key = getTileKey(source, xtile, ytile, zoom);
+        this.tileKey = TileKey.of(source, xtile, ytile, zoom);
     }
 
     private static BufferedImage loadImage(String path) {
@@ -256,9 +257,19 @@ public class Tile {
      * @return key that identifies a tile
      */
     public String getKey() {
+        if (key == null) {
+            key = getTileKey(source, xtile, ytile, zoom);
+        }
         return key;
     }
 
+    /**
+     * @return compact key that identifies a tile, use it for in-memory maps instead of {@link #getKey()}
+     */
+    public TileKey getTileKey() {
+        return tileKey;
+    }
+
     public boolean isLoaded() {
         return loaded;
     }
@@ -307,7 +318,7 @@ public class Tile {
 
     @Override
     public String toString() {
-        StringBuilder sb = new StringBuilder(35).append("Tile ").append(key);
+        StringBuilder sb = new StringBuilder(35).append("Tile ").append(getKey());
         if (loading) {
             sb.append(" [LOADING...]");
         }
@@ -0,0 +1,118 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.gui.jmapviewer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openstreetmap.gui.jmapviewer.interfaces.TileSource;
+
+/**
+ * Compact tile identity: numeric id of the tile source plus zoom, x and y packed into single long.
+ * <p>
+ * Used as a key of in-memory maps instead of {@link Tile#getTileKey(TileSource, int, int, int)} strings, so lookups
+ * don't build and hash new strings. Tile sources are identified by name, the same way string keys do, so two keys are
+ * equal if and only if their string keys are equal.
+ */
+public final class TileKey {
+
+    private static final ConcurrentMap<String, Integer> SOURCE_IDS = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_SOURCE_ID = new AtomicInteger();
+
+    private static final int ZOOM_SHIFT = 58;
+    private static final int X_SHIFT = 29;
+    private static final long COORD_MASK = (1L << 29) - 1;
+
+    private final int sourceId;
+    private final long position;
+
+    private TileKey(int sourceId, long position) {
+        this.sourceId = sourceId;
+        this.position = position;
+    }
+
+    /**
+     * Returns key for the tile
+     * @param source tile source
+     * @param xtile tile x, should be less than 2^29
+     * @param ytile tile y, should be less than 2^29
+     * @param zoom zoom level, should be less than 32
+     * @return tile key
+     */
+    public static TileKey of(TileSource source, int xtile, int ytile, int zoom) {
+        return new TileKey(getSourceId(source), pack(xtile, ytile, zoom));
+    }
+
+    /**
+     * Returns numeric id of the tile source. Ids are assigned on first use and stay the same while application runs
+     * @param source tile source
+     * @return id of the tile source
+     */
+    public static int getSourceId(TileSource source) {
+        String name = source.getName();
+        Integer id = SOURCE_IDS.get(name == null ? "" : name);
+        if (id == null) {
+            id = SOURCE_IDS.computeIfAbsent(name == null ? "" : name, k -> NEXT_SOURCE_ID.getAndIncrement());
+        }
+        return id;
+    }
+
+    /**
+     * @param xtile tile x
+     * @param ytile tile y
+     * @param zoom zoom level
+     * @return zoom, x and y packed into single long
+     */
+    public static long pack(int xtile, int ytile, int zoom) {
+        return ((long) zoom << ZOOM_SHIFT) | ((xtile & COORD_MASK) << X_SHIFT) | (ytile & COORD_MASK);
+    }
+
+    /**
+     * @return id of the tile source, see {@link #getSourceId(TileSource)}
+     */
+    public int getSourceId() {
+        return sourceId;
+    }
+
+    /**
+     * @return zoom level
+     */
+    public int getZoom() {
+        return (int) (position >>> ZOOM_SHIFT);
+    }
+
+    /**
+     * @return tile x
+     */
+    public int getXtile() {
+        return (int) ((position >>> X_SHIFT) & COORD_MASK);
+    }
+
+    /**
+     * @return tile y
+     */
+    public int getYtile() {
+        return (int) (position & COORD_MASK);
+    }
+
+    @Override
+    public int hashCode() {
+        long h = position * 0x9E3779B97F4A7C15L + sourceId;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof TileKey))
+            return false;
+        TileKey other = (TileKey) obj;
+        return position == other.position && sourceId == other.sourceId;
+    }
+
+    @Override
+    public String toString() {
+        return getZoom() + "/" + getXtile() + "/" + getYtile() + "#" + sourceId;
+    }
+}
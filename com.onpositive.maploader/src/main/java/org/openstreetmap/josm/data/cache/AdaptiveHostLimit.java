@@ -0,0 +1,154 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.cache;
+
+import java.net.HttpURLConnection;
+import java.util.Locale;
+
+/**
+ * Concurrency limit of single host, adjusted with additive-increase/multiplicative-decrease (AIMD) rule.
+ * <p>
+ * Each finished request gives feedback:
+ * <ul>
+ * <li>throttling responses (429, 503) and timeouts halve the limit, and {@code Retry-After} pauses the host</li>
+ * <li>response latency growing well above the lowest latency seen (server starts queueing requests) decreases the
+ * limit by 10%</li>
+ * <li>other responses increase the limit by {@code 1/limit}, so it grows by one permit per window of requests - but
+ * only if the limit was fully used, so it doesn't grow on hosts which don't get enough requests</li>
+ * </ul>
+ * Decreases are applied at most once per congestion event - responses to requests started before last decrease are
+ * ignored, as these were sent with the old limit.
+ * <p>
+ * Not thread safe, access is guarded by {@link HostLimitQueue} lock.
+ */
+final class AdaptiveHostLimit {
+
+    private static final double BACKOFF_RATIO = 0.5;
+    private static final double LATENCY_BACKOFF_RATIO = 0.9;
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double LATENCY_SMOOTHING = 0.2;
+    // how fast the lowest latency follows current latency, so baseline is not stuck after a single lucky response
+    private static final double BASELINE_DRIFT = 1.0 / 256;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private double limit;
+    private double latency;
+    private double baseline;
+    private long lastDecrease;
+    private long pausedUntil;
+    private boolean paused;
+    private long requests;
+    private long throttled;
+
+    /**
+     * @param initialLimit starting limit
+     * @param minLimit lowest limit
+     * @param maxLimit highest limit
+     */
+    AdaptiveHostLimit(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.lastDecrease = System.nanoTime();
+    }
+
+    /**
+     * @return number of requests, that may run concurrently
+     */
+    int getPermits() {
+        return (int) limit;
+    }
+
+    /**
+     * @param now current {@link System#nanoTime()}
+     * @return <code>true</code> if host asked not to send requests until some time after <code>now</code>
+     */
+    boolean isPaused(long now) {
+        if (paused && pausedUntil - now <= 0) {
+            paused = false;
+        }
+        return paused;
+    }
+
+    /**
+     * @param now current {@link System#nanoTime()}
+     * @return nanoseconds until pause ends, 0 if host is not paused
+     */
+    long getPauseRemaining(long now) {
+        return isPaused(now) ? pausedUntil - now : 0;
+    }
+
+    /**
+     * Adjusts the limit after the request has finished
+     * @param responseCode HTTP response code, ignored if request has timed out
+     * @param timedOut <code>true</code> if request has timed out without response
+     * @param start {@link System#nanoTime()} when request was sent
+     * @param latencyNanos time until response headers were received
+     * @param retryAfterNanos delay requested by server with {@code Retry-After} header, 0 if none
+     * @param running number of running requests of the host, including the finished one
+     */
+    void onResponse(int responseCode, boolean timedOut, long start, long latencyNanos, long retryAfterNanos, int running) {
+        long now = System.nanoTime();
+        requests++;
+        if (timedOut || isThrottling(responseCode)) {
+            throttled++;
+            if (retryAfterNanos > 0 && (!paused || now + retryAfterNanos - pausedUntil > 0)) {
+                paused = true;
+                pausedUntil = now + retryAfterNanos;
+            }
+            decrease(BACKOFF_RATIO, start, now);
+            return;
+        }
+        if (latencyNanos > 0) {
+            latency = latency == 0 ? latencyNanos : latency + (latencyNanos - latency) * LATENCY_SMOOTHING;
+            baseline = baseline == 0 ? latencyNanos : Math.min(latencyNanos, baseline + (latencyNanos - baseline) * BASELINE_DRIFT);
+            if (latency > baseline * LATENCY_TOLERANCE) {
+                decrease(LATENCY_BACKOFF_RATIO, start, now);
+                return;
+            }
+        }
+        if (running >= getPermits()) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    private void decrease(double ratio, long start, long now) {
+        if (start - lastDecrease > 0) {
+            limit = Math.max(minLimit, limit * ratio);
+            lastDecrease = now;
+            // start over measuring latency with the new limit
+            latency = 0;
+        }
+    }
+
+    private static boolean isThrottling(int responseCode) {
+        return responseCode == JCSCachedTileLoaderJob.HTTP_TOO_MANY_REQUESTS || responseCode == HttpURLConnection.HTTP_UNAVAILABLE;
+    }
+
+    /**
+     * @return number of requests reported
+     */
+    long getRequestCount() {
+        return requests;
+    }
+
+    /**
+     * @return number of throttled or timed out requests reported
+     */
+    long getThrottledCount() {
+        return throttled;
+    }
+
+    /**
+     * @return smoothed response latency in milliseconds
+     */
+    double getLatencyMillis() {
+        return latency / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "limit=%.2f [%d..%d], latency=%.0fms, requests=%d, throttled=%d%s",
+                limit, minLimit, maxLimit, getLatencyMillis(), requests, throttled, paused ? ", paused" : "");
+    }
+}
@@ -2,8 +2,10 @@
 package org.openstreetmap.josm.data.cache;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import javax.imageio.ImageIO;
 
@@ -29,6 +31,27 @@ public class BufferedImageCacheEntry extends CacheEntry {
         super(content);
     }
 
+    private BufferedImageCacheEntry(byte[] content, boolean copy) {
+        super(content, copy);
+    }
+
+    /**
+     * Creates entry, which uses given array as it's content without copying it. Array should not be modified afterwards
+     * @param content byte array containing image
+     * @return cache entry
+     */
+    public static BufferedImageCacheEntry wrap(byte[] content) {
+        return new BufferedImageCacheEntry(content, false);
+    }
+
+    /**
+     *
+     * @param content buffer containing image, all remaining bytes are used
+     */
+    public BufferedImageCacheEntry(ByteBuffer content) {
+        super(content);
+    }
+
     /**
      * Returns BufferedImage from for the content. Subsequent calls will return the same instance,
      * to reduce overhead of ImageIO
@@ -42,15 +65,29 @@ public class BufferedImageCacheEntry extends CacheEntry {
         synchronized (this) {
             if (imageLoaded)
                 return img;
-            byte[] content = getContent();
-            if (content.length > 0) {
-                img = ImageIO.read(new ByteArrayInputStream(content));
+            byte[] data = content;
+            if (data != null && data.length > 0) {
+                img = ImageIO.read(new ByteArrayInputStream(data));
                 imageLoaded = true;
             }
         }
         return img;
     }
 
+    /**
+     * @return estimated memory retained by this entry - content and decoded image, if it was already decoded
+     */
+    @Override
+    public long getEstimatedSize() {
+        long size = super.getEstimatedSize();
+        BufferedImage image = img;
+        if (image != null) {
+            DataBuffer buffer = image.getRaster().getDataBuffer();
+            size += (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+        }
+        return size;
+    }
+
     private void writeObject(java.io.ObjectOutputStream out) throws IOException {
         /*
          * This method below will be needed, if Apache Commons JCS (or any other caching system), will update
@@ -0,0 +1,297 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.cache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.jcs.engine.CacheConstants;
+import org.apache.commons.jcs.engine.CompositeCacheAttributes;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.ICompositeCacheAttributes;
+import org.apache.commons.jcs.engine.control.CompositeCache;
+import org.apache.commons.jcs.engine.memory.AbstractMemoryCache;
+import org.apache.commons.jcs.engine.memory.util.MemoryElementDescriptor;
+import org.apache.commons.jcs.engine.stats.StatElement;
+import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
+import org.apache.commons.jcs.engine.stats.behavior.IStats;
+import org.openstreetmap.josm.tools.Logging;
+
+/**
+ * JCS memory cache limited by estimated memory retained by cached values instead of element count.
+ * <p>
+ * Size of {@link CacheEntry} values is taken from {@link CacheEntry#getEstimatedSize()}, so decoded images of
+ * {@link BufferedImageCacheEntry} are accounted too. As image could be decoded after the entry was put, size is
+ * re-estimated on each access. Least recently used elements are spooled to disk cache once byte budget from
+ * {@link Attributes} is exceeded. Element count limit from cache attributes is respected too.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class ByteBudgetMemoryCache<K, V> extends AbstractMemoryCache<K, V> {
+
+    /**
+     * Estimated overhead of the single cache element - key, element attributes and map entry
+     */
+    private static final long ELEMENT_OVERHEAD = 128;
+
+    private long maxBytes = Long.MAX_VALUE;
+    // guarded by lock
+    private long usedBytes;
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong evictedBytes = new AtomicLong();
+
+    /**
+     * Cache attributes holding memory limit for {@link ByteBudgetMemoryCache}
+     */
+    public static class Attributes extends CompositeCacheAttributes {
+        private static final long serialVersionUID = 1L;
+        private long maxMemoryBytes;
+
+        /**
+         * @return max memory retained by cached values, in bytes
+         */
+        public long getMaxMemoryBytes() {
+            return maxMemoryBytes;
+        }
+
+        /**
+         * @param maxMemoryBytes max memory retained by cached values, in bytes
+         */
+        public void setMaxMemoryBytes(long maxMemoryBytes) {
+            this.maxMemoryBytes = maxMemoryBytes;
+        }
+    }
+
+    private static class SizedElementDescriptor<K, V> extends MemoryElementDescriptor<K, V> {
+        private static final long serialVersionUID = 1L;
+        private long size;
+
+        SizedElementDescriptor(ICacheElement<K, V> ce, long size) {
+            super(ce);
+            this.size = size;
+        }
+    }
+
+    @Override
+    public void initialize(CompositeCache<K, V> hub) {
+        super.initialize(hub);
+        ICompositeCacheAttributes attributes = getCacheAttributes();
+        if (attributes instanceof Attributes) {
+            maxBytes = ((Attributes) attributes).getMaxMemoryBytes();
+        }
+    }
+
+    @Override
+    public Map<K, MemoryElementDescriptor<K, V>> createMap() {
+        // insertion ordered, elements are moved to the end on access, so that getQuiet() doesn't change the order
+        return new LinkedHashMap<>();
+    }
+
+    @Override
+    public void update(ICacheElement<K, V> ce) throws IOException {
+        putCnt.incrementAndGet();
+        SizedElementDescriptor<K, V> descriptor = new SizedElementDescriptor<>(ce, estimateSize(ce));
+        List<SizedElementDescriptor<K, V>> evicted;
+        lock.lock();
+        try {
+            SizedElementDescriptor<K, V> old = (SizedElementDescriptor<K, V>) map.remove(ce.getKey());
+            if (old != null) {
+                usedBytes -= old.size;
+            }
+            map.put(ce.getKey(), descriptor);
+            usedBytes += descriptor.size;
+            evicted = evictIfNeeded(0);
+        } finally {
+            lock.unlock();
+        }
+        spool(evicted);
+    }
+
+    @Override
+    public ICacheElement<K, V> get(K key) throws IOException {
+        List<SizedElementDescriptor<K, V>> evicted;
+        ICacheElement<K, V> ce = null;
+        lock.lock();
+        try {
+            SizedElementDescriptor<K, V> descriptor = (SizedElementDescriptor<K, V>) map.remove(key);
+            if (descriptor != null) {
+                map.put(key, descriptor);
+                ce = descriptor.getCacheElement();
+                long size = estimateSize(ce);
+                usedBytes += size - descriptor.size;
+                descriptor.size = size;
+            }
+            evicted = evictIfNeeded(0);
+        } finally {
+            lock.unlock();
+        }
+        spool(evicted);
+        if (ce == null) {
+            missCnt.incrementAndGet();
+        } else {
+            hitCnt.incrementAndGet();
+        }
+        return ce;
+    }
+
+    @Override
+    public ICacheElement<K, V> getQuiet(K key) throws IOException {
+        lock.lock();
+        try {
+            MemoryElementDescriptor<K, V> descriptor = map.get(key);
+            return descriptor != null ? descriptor.getCacheElement() : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(K key) throws IOException {
+        boolean removed = false;
+        lock.lock();
+        try {
+            if (key instanceof String && ((String) key).endsWith(CacheConstants.NAME_COMPONENT_DELIMITER)) {
+                // remove all keys of the same name hierarchy
+                for (Iterator<Map.Entry<K, MemoryElementDescriptor<K, V>>> it = map.entrySet().iterator(); it.hasNext();) {
+                    Map.Entry<K, MemoryElementDescriptor<K, V>> entry = it.next();
+                    if (entry.getKey() instanceof String && ((String) entry.getKey()).startsWith((String) key)) {
+                        usedBytes -= ((SizedElementDescriptor<K, V>) entry.getValue()).size;
+                        it.remove();
+                        removed = true;
+                    }
+                }
+            } else {
+                SizedElementDescriptor<K, V> descriptor = (SizedElementDescriptor<K, V>) map.remove(key);
+                if (descriptor != null) {
+                    usedBytes -= descriptor.size;
+                    removed = true;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return removed;
+    }
+
+    @Override
+    public void removeAll() throws IOException {
+        lock.lock();
+        try {
+            map.clear();
+            usedBytes = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int freeElements(int numberToFree) throws IOException {
+        List<SizedElementDescriptor<K, V>> evicted;
+        lock.lock();
+        try {
+            evicted = evictIfNeeded(numberToFree);
+        } finally {
+            lock.unlock();
+        }
+        spool(evicted);
+        return evicted.size();
+    }
+
+    @Override
+    public Set<K> getKeySet() {
+        lock.lock();
+        try {
+            return new LinkedHashSet<>(map.keySet());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public IStats getStatistics() {
+        IStats stats = super.getStatistics();
+        stats.setTypeName("Byte Budget Memory Cache");
+        List<IStatElement<?>> elems = stats.getStatElements();
+        elems.add(new StatElement<>("Used Bytes", Long.valueOf(getUsedBytes())));
+        elems.add(new StatElement<>("Max Bytes", Long.valueOf(maxBytes)));
+        elems.add(new StatElement<>("Evicted Count", Long.valueOf(getEvictedCount())));
+        elems.add(new StatElement<>("Evicted Bytes", Long.valueOf(getEvictedBytes())));
+        return stats;
+    }
+
+    /**
+     * @return estimated memory retained by cached values, in bytes
+     */
+    public long getUsedBytes() {
+        lock.lock();
+        try {
+            return usedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of elements evicted from memory since cache creation
+     */
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    /**
+     * @return estimated size of elements evicted from memory since cache creation, in bytes
+     */
+    public long getEvictedBytes() {
+        return evictedBytes.get();
+    }
+
+    /**
+     * Removes least recently used elements over the limits. Should be called under the lock
+     * @param minCount minimal number of elements to remove
+     * @return removed elements
+     */
+    private List<SizedElementDescriptor<K, V>> evictIfNeeded(int minCount) {
+        List<SizedElementDescriptor<K, V>> evicted = new ArrayList<>();
+        int maxObjects = getCacheAttributes().getMaxObjects();
+        Iterator<MemoryElementDescriptor<K, V>> it = map.values().iterator();
+        while (it.hasNext() && (evicted.size() < minCount || usedBytes > maxBytes || map.size() > maxObjects)) {
+            SizedElementDescriptor<K, V> descriptor = (SizedElementDescriptor<K, V>) it.next();
+            it.remove();
+            usedBytes -= descriptor.size;
+            evicted.add(descriptor);
+        }
+        return evicted;
+    }
+
+    /**
+     * Passes evicted elements to auxiliary caches, outside of the lock
+     * @param evicted evicted elements
+     */
+    private void spool(List<SizedElementDescriptor<K, V>> evicted) {
+        for (SizedElementDescriptor<K, V> descriptor : evicted) {
+            evictedCount.incrementAndGet();
+            evictedBytes.addAndGet(descriptor.size);
+            try {
+                waterfal(descriptor.getCacheElement());
+            } catch (RuntimeException e) {
+                Logging.log(Logging.LEVEL_WARN, "Failed to spool cache element", e);
+            }
+        }
+    }
+
+    private static long estimateSize(ICacheElement<?, ?> ce) {
+        Object value = ce.getVal();
+        long size = ELEMENT_OVERHEAD;
+        if (value instanceof CacheEntry) {
+            size += ((CacheEntry) value).getEstimatedSize();
+        }
+        return size;
+    }
+}
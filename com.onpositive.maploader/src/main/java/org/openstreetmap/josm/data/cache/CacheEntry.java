@@ -2,6 +2,7 @@
 package org.openstreetmap.josm.data.cache;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -17,7 +18,23 @@ public class CacheEntry implements Serializable {
      * @param content of the cache entry
      */
     public CacheEntry(byte[] content) {
-        this.content = Arrays.copyOf(content, content.length);
+        this(content, true);
+    }
+
+    /**
+     * @param content of the cache entry
+     * @param copy {@code false} to use given array as the content, so it should not be modified afterwards
+     */
+    protected CacheEntry(byte[] content, boolean copy) {
+        this.content = copy ? Arrays.copyOf(content, content.length) : content;
+    }
+
+    /**
+     * @param content buffer with content of the cache entry, all remaining bytes are copied
+     */
+    public CacheEntry(ByteBuffer content) {
+        this.content = new byte[content.remaining()];
+        content.get(this.content);
     }
 
     /**
@@ -29,4 +46,28 @@ public class CacheEntry implements Serializable {
         }
         return Arrays.copyOf(content, content.length);
     }
+
+    /**
+     * @return length of the cache entry content, without copying it
+     */
+    public int getContentLength() {
+        byte[] data = content;
+        return data != null ? data.length : 0;
+    }
+
+    /**
+     * @return read-only view of the content, for writing it out without copying
+     */
+    ByteBuffer getContentBuffer() {
+        byte[] data = content;
+        return data != null ? ByteBuffer.wrap(data).asReadOnlyBuffer() : ByteBuffer.allocate(0);
+    }
+
+    /**
+     * @return estimated memory retained by this entry, in bytes
+     */
+    public long getEstimatedSize() {
+        byte[] data = content;
+        return data != null ? data.length : 0;
+    }
 }
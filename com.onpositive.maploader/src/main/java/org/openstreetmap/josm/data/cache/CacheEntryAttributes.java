@@ -52,6 +52,15 @@ public class CacheEntryAttributes extends ElementAttributes {
         attrs.put(HTTP_RESPONSE_CODE, "200");
     }
 
+    /**
+     * Constructs {@code CacheEntryAttributes} with all the attributes restored from given map
+     * @param attrs attributes, including reserved ones, as returned by {@link #getMetadata()}
+     */
+    CacheEntryAttributes(Map<String, String> attrs) {
+        this();
+        this.attrs.putAll(attrs);
+    }
+
     /**
      * @return if the entry is marked as "no tile at this zoom level"
      */
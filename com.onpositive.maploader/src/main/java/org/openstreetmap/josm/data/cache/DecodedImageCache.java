@@ -0,0 +1,136 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.cache;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Process-wide cache of decoded tile images, shared by all the layers and {@link org.openstreetmap.gui.jmapviewer.Tile}
+ * instances, so the same tile content is decoded at most once while it's image is still reachable.
+ * <p>
+ * Images are held by soft references, so they are kept while some tile uses them and are reclaimed by GC under memory
+ * pressure otherwise. Each image is stored together with the hash of content it was decoded from, so refreshed
+ * tile content is decoded again instead of returning stale image.
+ */
+public final class DecodedImageCache {
+
+    private static final DecodedImageCache INSTANCE = new DecodedImageCache();
+
+    private final ConcurrentMap<String, Holder> images = new ConcurrentHashMap<>();
+    private final ReferenceQueue<BufferedImage> clearedImages = new ReferenceQueue<>();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder decodeCount = new LongAdder();
+
+    private DecodedImageCache() {
+        // Hide default constructor
+    }
+
+    /**
+     * @return shared instance
+     */
+    public static DecodedImageCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns decoded image for given content, decoding it only if there is no image decoded from the same content
+     * under this key yet. Concurrent requests for the same key wait for single decoding.
+     * @param key tile cache key, e.g. {@link ICachedLoaderJob#getCacheKey()}
+     * @param content encoded image
+     * @return decoded image, or <code>null</code> if content could not be decoded
+     * @throws IOException if an error occurs during reading
+     */
+    public BufferedImage getImage(String key, byte[] content) throws IOException {
+        expungeClearedImages();
+        int contentHash = Arrays.hashCode(content);
+        Holder holder = images.computeIfAbsent(key, Holder::new);
+        synchronized (holder) {
+            ImageReference ref = holder.image;
+            BufferedImage image = ref != null && ref.contentHash == contentHash ? ref.get() : null;
+            if (image != null) {
+                hitCount.increment();
+                return image;
+            }
+            image = ImageIO.read(new ByteArrayInputStream(content));
+            decodeCount.increment();
+            holder.image = image != null ? new ImageReference(holder, image, contentHash, clearedImages) : null;
+            if (image == null) {
+                images.remove(key, holder);
+            }
+            return image;
+        }
+    }
+
+    /**
+     * Removes decoded image for given key
+     * @param key tile cache key
+     */
+    public void remove(String key) {
+        images.remove(key);
+    }
+
+    /**
+     * @return number of requests served without decoding
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * @return number of decoded images
+     */
+    public long getDecodeCount() {
+        return decodeCount.sum();
+    }
+
+    /**
+     * @return number of keys with images, which may be still reachable
+     */
+    public int size() {
+        return images.size();
+    }
+
+    private void expungeClearedImages() {
+        Reference<? extends BufferedImage> ref;
+        while ((ref = clearedImages.poll()) != null) {
+            Holder holder = ((ImageReference) ref).holder;
+            synchronized (holder) {
+                if (holder.image == ref) {
+                    holder.image = null;
+                    images.remove(holder.key, holder);
+                }
+            }
+        }
+    }
+
+    private static final class Holder {
+        private final String key;
+        // guarded by this
+        private ImageReference image;
+
+        Holder(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final class ImageReference extends SoftReference<BufferedImage> {
+        private final Holder holder;
+        private final int contentHash;
+
+        ImageReference(Holder holder, BufferedImage image, int contentHash, ReferenceQueue<BufferedImage> queue) {
+            super(image, queue);
+            this.holder = holder;
+            this.contentHash = contentHash;
+        }
+    }
+}
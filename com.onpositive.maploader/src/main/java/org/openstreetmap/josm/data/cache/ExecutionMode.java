@@ -0,0 +1,166 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.cache;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.openstreetmap.josm.tools.Logging;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * Defines which threads are used to run blocking download and compose tasks.
+ * <p>
+ * {@link #PLATFORM} uses fixed size pools of platform threads, so concurrency is limited by pool sizes. <br>
+ * {@link #VIRTUAL} uses virtual threads (Java 21+), so threads blocked on HTTP or disk I/O don't occupy carrier threads.
+ * Pool sizes are not a limit anymore in this mode - concurrency is governed by per-host permits of {@link HostLimitQueue}
+ * and by the callers' own back-pressure.
+ * <p>
+ * Project is compiled for Java 8, so virtual threads are resolved via reflection. If running JVM doesn't support them,
+ * {@link #VIRTUAL} falls back to platform threads.
+ * <p>
+ * Default mode is read from {@value #PROPERTY} system property ({@code platform} or {@code virtual}).
+ * It is read once, before download executors are created, so it should be set on JVM start.
+ */
+public enum ExecutionMode {
+    /**
+     * Fixed pools of platform threads
+     */
+    PLATFORM,
+    /**
+     * Virtual threads, concurrency is limited by per-host permits only
+     */
+    VIRTUAL;
+
+    /**
+     * System property used to select default execution mode
+     */
+    public static final String PROPERTY = "maploader.execution.mode";
+
+    /**
+     * Count of virtual worker threads kept by host limited executor. These threads mostly sit parked on
+     * {@link HostLimitQueue}, so they are cheap, and the number only needs to be above the sum of host limits
+     */
+    private static final int VIRTUAL_WORKERS = 1024;
+
+    private static final ExecutionMode DEFAULT = readDefault();
+
+    /**
+     * @return execution mode selected with {@value #PROPERTY} system property, {@link #PLATFORM} if not set
+     */
+    public static ExecutionMode getDefault() {
+        return DEFAULT;
+    }
+
+    private static ExecutionMode readDefault() {
+        String value = System.getProperty(PROPERTY);
+        if (value == null || value.trim().isEmpty()) {
+            return PLATFORM;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            Logging.warn("Unknown execution mode {0}, using {1}", value, PLATFORM);
+            return PLATFORM;
+        }
+    }
+
+    /**
+     * @return {@code true} if this mode is {@link #VIRTUAL} and running JVM supports virtual threads
+     */
+    public boolean usesVirtualThreads() {
+        return this == VIRTUAL && VirtualThreads.SUPPORTED;
+    }
+
+    /**
+     * @param nameFormat see {@link Utils#newThreadFactory(String, int)}
+     * @param threadPriority priority for platform threads, ignored for virtual ones
+     * @return thread factory creating threads of this mode
+     */
+    public ThreadFactory newThreadFactory(String nameFormat, int threadPriority) {
+        if (usesVirtualThreads()) {
+            return VirtualThreads.newFactory(nameFormat);
+        }
+        return Utils.newThreadFactory(nameFormat, threadPriority);
+    }
+
+    /**
+     * Creates executor for blocking tasks.
+     * @param nameFormat see {@link Utils#newThreadFactory(String, int)}
+     * @param platformThreads thread count for {@link #PLATFORM} mode
+     * @return fixed thread pool in {@link #PLATFORM} mode, or executor starting new virtual thread for each task
+     */
+    public ExecutorService newExecutor(String nameFormat, int platformThreads) {
+        ThreadFactory threadFactory = newThreadFactory(nameFormat, Thread.NORM_PRIORITY);
+        if (usesVirtualThreads()) {
+            return Executors.newCachedThreadPool(threadFactory);
+        }
+        return Executors.newFixedThreadPool(platformThreads, threadFactory);
+    }
+
+    /**
+     * Creates download executor that will use a {@link HostLimitQueue} based queue.
+     * <p>
+     * In virtual mode all the core threads are prestarted, so every task goes through the queue and acquires host permit
+     * before running (otherwise tasks given directly to new threads, while pool is growing, bypass the limit).
+     * @param nameFormat see {@link Utils#newThreadFactory(String, int)}
+     * @param platformWorkers number of worker threads to keep in {@link #PLATFORM} mode
+     * @param hostLimit number of concurrent downloads per host allowed
+     * @return new ThreadPoolExecutor
+     */
+    public ThreadPoolExecutor newHostLimitedExecutor(String nameFormat, int platformWorkers, int hostLimit) {
+        return newHostLimitedExecutor(nameFormat, platformWorkers, hostLimit, hostLimit);
+    }
+
+    /**
+     * Creates download executor that will use a {@link HostLimitQueue} based queue, with host limits adjusted to
+     * server responses.
+     * @param nameFormat see {@link Utils#newThreadFactory(String, int)}
+     * @param platformWorkers number of worker threads to keep in {@link #PLATFORM} mode
+     * @param hostLimit number of concurrent downloads per host allowed initially
+     * @param maxHostLimit up to how many concurrent downloads per host the limit may grow
+     * @return new ThreadPoolExecutor
+     * @see #newHostLimitedExecutor(String, int, int)
+     */
+    public ThreadPoolExecutor newHostLimitedExecutor(String nameFormat, int platformWorkers, int hostLimit, int maxHostLimit) {
+        int workers = usesVirtualThreads() ? VIRTUAL_WORKERS : platformWorkers;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                workers, // keep core pool the same size as max, as we use unbounded queue so there will
+                workers, // be never more threads than corePoolSize
+                300, // keep alive for thread
+                TimeUnit.SECONDS,
+                new HostLimitQueue(hostLimit, maxHostLimit, Integer.MAX_VALUE),
+                newThreadFactory(nameFormat, Thread.NORM_PRIORITY)
+                );
+        if (usesVirtualThreads()) {
+            executor.prestartAllCoreThreads();
+        }
+        return executor;
+    }
+
+    /**
+     * Reflective access to virtual threads API, not available at compile time
+     */
+    private static final class VirtualThreads {
+        private static final boolean SUPPORTED = newFactory("probe-") != null;
+
+        private VirtualThreads() {
+            // Hide default constructor
+        }
+
+        static ThreadFactory newFactory(String nameFormat) {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, nameFormat.replace("%d", ""), 0L);
+                return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                Logging.trace(e);
+                return null;
+            }
+        }
+    }
+}
@@ -2,43 +2,87 @@
 package org.openstreetmap.josm.data.cache;
 
 import java.io.IOException;
-import java.net.URL;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.Semaphore;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.openstreetmap.josm.tools.Logging;
 
 /**
- * Queue for ThreadPoolExecutor that implements per-host limit. It will acquire a semaphore for each task
- * and it will set a runnable task with semaphore release, when job has finished.
+ * Queue for ThreadPoolExecutor that implements per-host limit. It counts running tasks of each host
+ * and it will set a runnable task, that releases the host, when job has finished.
  * <p>
- * This implementation doesn't guarantee to have at most hostLimit connections per host[1], and it doesn't
- * guarantee that all threads will be busy, when there is work for them[2]. <br>
+ * Tasks are kept in per-host FIFO sub-queues. Hosts, which have queued tasks and are below the limit, are kept in
+ * a ready-host ring, so taking a task doesn't scan the queue - it's the head task of the first ready host, and the
+ * host is moved to the end of the ring, so hosts are served round-robin. Task removal only scans the sub-queue of
+ * the task's host. Tasks that are not loader jobs are not limited.
+ * <p>
+ * Limit of each host is adjusted by {@link AdaptiveHostLimit} from the responses of finished jobs, between 1 and
+ * maximum host limit: it grows while host responds quickly, and drops when host throttles (429, 503), times out or
+ * slows down. Host which sent {@code Retry-After} gets no tasks until the given time. Current limits are available
+ * with {@link #getHostLimits()} and {@link #getStats()}.
+ * <p>
+ * This implementation doesn't guarantee to have at most hostLimit connections per host[1]. <br>
  * [1] More connection per host may happen, when ThreadPoolExecutor is growing its pool, and thus
- *     tasks do not go through the Queue <br>
- * [2] If we have a queue, and for all hosts in queue we will fail to acquire semaphore, the thread
- *     take the first available job and wait for semaphore. It might be the case, that semaphore was released
- *     for some task further in queue, but this implementation doesn't try to detect such situation
+ *     tasks do not go through the Queue
  *
  * @author Wiktor Niesiobędzki
  */
-public class HostLimitQueue extends LinkedBlockingDeque<Runnable> {
-    private static final long serialVersionUID = 1L;
+public class HostLimitQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    /**
+     * Tasks of one host
+     */
+    private static final class HostQueue {
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private final AdaptiveHostLimit limit; // null for tasks that are not limited
+        private int running;
+        private boolean inRing;
+        private boolean inPaused;
+
+        HostQueue(AdaptiveHostLimit limit) {
+            this.limit = limit;
+        }
+
+        boolean isReady(long now) {
+            return !tasks.isEmpty() && (limit == null || (running < limit.getPermits() && !limit.isPaused(now)));
+        }
+
+        boolean isPaused(long now) {
+            return limit != null && limit.isPaused(now);
+        }
+    }
 
-    private final Map<String, Semaphore> hostSemaphores = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition taskReady = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Map<String, HostQueue> hosts = new LinkedHashMap<>();
+    private final HostQueue unlimited = new HostQueue(null);
+    private final ArrayDeque<HostQueue> readyHosts = new ArrayDeque<>();
+    // hosts with queued tasks, which asked to wait with Retry-After header
+    private final List<HostQueue> pausedHosts = new ArrayList<>();
     private final int hostLimit;
+    private final int maxHostLimit;
+    private final int capacity;
+    private int count;
 
     /**
      * Creates an unbounded queue
      * @param hostLimit how many parallel calls to host to allow
      */
     public HostLimitQueue(int hostLimit) {
-        super(); // create unbounded queue
-        this.hostLimit = hostLimit;
+        this(hostLimit, Integer.MAX_VALUE);
     }
 
     /**
@@ -47,137 +91,444 @@ public class HostLimitQueue extends LinkedBlockingDeque<Runnable> {
      * @param queueLimit how deep the queue should be
      */
     public HostLimitQueue(int hostLimit, int queueLimit) {
-        super(queueLimit); // create bounded queue
+        this(hostLimit, hostLimit, queueLimit);
+    }
+
+    /**
+     * Creates bounded queue
+     * @param hostLimit how many parallel calls to host to allow initially
+     * @param maxHostLimit up to how many parallel calls to host the limit may grow
+     * @param queueLimit how deep the queue should be
+     */
+    public HostLimitQueue(int hostLimit, int maxHostLimit, int queueLimit) {
+        if (queueLimit <= 0) {
+            throw new IllegalArgumentException("Queue limit should be positive: " + queueLimit);
+        }
         this.hostLimit = hostLimit;
+        this.maxHostLimit = Math.max(hostLimit, maxHostLimit);
+        this.capacity = queueLimit;
     }
 
-    private JCSCachedTileLoaderJob<?, ?> findJob() {
-        for (Iterator<Runnable> it = iterator(); it.hasNext();) {
-            Runnable r = it.next();
-            if (r instanceof JCSCachedTileLoaderJob) {
-                JCSCachedTileLoaderJob<?, ?> job = (JCSCachedTileLoaderJob<?, ?>) r;
-                if (tryAcquireSemaphore(job)) {
-                    if (remove(job)) {
-                        return job;
-                    } else {
-                        // we have acquired the semaphore, but we didn't manage to remove job, as someone else did
-                        // release the semaphore and look for another candidate
-                        releaseSemaphore(job);
-                    }
-                } else {
-                    URL url = null;
-                    try {
-                        url = job.getUrl();
-                    } catch (IOException e) {
-                        Logging.debug(e);
-                    }
-                    Logging.debug("TMS - Skipping job {0} because host limit reached", url);
-                }
+    /**
+     * @param task queued task
+     * @return host of the task or {@code null} if task is not a loader job
+     */
+    private static String getHost(Runnable task) {
+        JCSCachedTileLoaderJob<?, ?> job = JCSCachedTileLoaderJob.getJob(task);
+        if (job == null) {
+            return null;
+        }
+        try {
+            return job.getHost();
+        } catch (IOException e) {
+            // do not pass me illegal URL's
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private HostQueue getHostQueue(String host) {
+        return host == null ? unlimited : hosts.computeIfAbsent(host,
+                k -> new HostQueue(new AdaptiveHostLimit(hostLimit, 1, maxHostLimit)));
+    }
+
+    private void enqueue(Runnable task, String host) {
+        HostQueue queue = getHostQueue(host);
+        queue.tasks.addLast(task);
+        count++;
+        updateReady(queue);
+    }
+
+    /**
+     * Puts host into the ready ring, if it has tasks which could be run, or into paused hosts, if it has tasks, but asked
+     * to wait
+     * @param queue host queue
+     */
+    private void updateReady(HostQueue queue) {
+        long now = System.nanoTime();
+        if (!queue.inRing && queue.isReady(now)) {
+            queue.inRing = true;
+            readyHosts.addLast(queue);
+            taskReady.signal();
+        } else if (!queue.inPaused && !queue.tasks.isEmpty() && queue.isPaused(now)) {
+            queue.inPaused = true;
+            pausedHosts.add(queue);
+            // wake up a waiting thread, so it waits with timeout until the pause ends
+            taskReady.signal();
+        }
+    }
+
+    /**
+     * Moves hosts, whose pause has ended, to the ready ring
+     * @return nanoseconds until the next pause ends, or {@link Long#MAX_VALUE} if no host is paused
+     */
+    private long resumePausedHosts() {
+        if (pausedHosts.isEmpty()) {
+            return Long.MAX_VALUE;
+        }
+        long now = System.nanoTime();
+        long next = Long.MAX_VALUE;
+        for (Iterator<HostQueue> it = pausedHosts.iterator(); it.hasNext();) {
+            HostQueue queue = it.next();
+            long remaining = queue.limit.getPauseRemaining(now);
+            if (remaining > 0 && !queue.tasks.isEmpty()) {
+                next = Math.min(next, remaining);
+            } else {
+                it.remove();
+                queue.inPaused = false;
+                updateReady(queue);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Takes head task of the first ready host
+     * @return task or {@code null} if no host is ready
+     */
+    private Runnable dequeue() {
+        resumePausedHosts();
+        HostQueue queue;
+        while ((queue = readyHosts.pollFirst()) != null) {
+            queue.inRing = false;
+            if (!queue.isReady(System.nanoTime())) {
+                // tasks were removed or host got paused since the host got ready
+                updateReady(queue);
+                continue;
+            }
+            Runnable task = queue.tasks.pollFirst();
+            count--;
+            JCSCachedTileLoaderJob<?, ?> job = JCSCachedTileLoaderJob.getJob(task);
+            if (job != null && queue != unlimited) {
+                queue.running++;
+                final HostQueue host = queue;
+                job.setFinishedTask(() -> release(host, job));
             }
+            updateReady(queue);
+            notFull.signal();
+            return task;
         }
         return null;
     }
 
+    /**
+     * Waits for the task to become ready, but not longer than until the end of the first host pause
+     * @param nanos maximum time to wait
+     * @return remaining wait time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private long awaitTask(long nanos) throws InterruptedException {
+        long pause = resumePausedHosts();
+        if (pause >= nanos) {
+            return taskReady.awaitNanos(nanos);
+        }
+        return nanos - (pause - taskReady.awaitNanos(pause));
+    }
+
+    private void release(HostQueue queue, JCSCachedTileLoaderJob<?, ?> job) {
+        lock.lock();
+        try {
+            int responseCode = job.getRequestResponseCode();
+            boolean timedOut = job.isRequestTimedOut();
+            if (responseCode != 0 || timedOut) {
+                queue.limit.onResponse(responseCode, timedOut, job.getRequestStart(), job.getRequestLatency(), job.getRetryAfter(),
+                        queue.running);
+            }
+            queue.running--;
+            if (queue.running < 0) {
+                Logging.warn("More permits than it should be");
+                queue.running = 0;
+            }
+            updateReady(queue);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable task) {
+        String host = getHost(task);
+        lock.lock();
+        try {
+            if (count >= capacity) {
+                return false;
+            }
+            enqueue(task, host);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable task) throws InterruptedException {
+        String host = getHost(task);
+        lock.lockInterruptibly();
+        try {
+            while (count >= capacity) {
+                notFull.await();
+            }
+            enqueue(task, host);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable task, long timeout, TimeUnit unit) throws InterruptedException {
+        String host = getHost(task);
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count >= capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(task, host);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Override
     public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
-        Runnable job = findJob();
-        if (job != null) {
-            return job;
-        }
-        job = pollFirst(timeout, unit);
-        if (job != null) {
-            try {
-                boolean gotLock = tryAcquireSemaphore(job, timeout, unit);
-                return gotLock ? job : null;
-            } catch (InterruptedException e) {
-                // acquire my got interrupted, first offer back what was taken
-                if (!offer(job)) {
-                    Logging.warn("Unable to offer back " + job);
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            Runnable task;
+            while ((task = dequeue()) == null) {
+                if (nanos <= 0) {
+                    return null;
                 }
-                throw e;
+                nanos = awaitTask(nanos);
             }
+            return task;
+        } finally {
+            lock.unlock();
         }
-        return job;
     }
 
     @Override
     public Runnable take() throws InterruptedException {
-        Runnable job = findJob();
-        if (job != null) {
-            return job;
-        }
-        job = takeFirst();
+        lock.lockInterruptibly();
         try {
-            acquireSemaphore(job);
-        } catch (InterruptedException e) {
-            // acquire my got interrupted, first offer back what was taken
-            if (!offer(job)) {
-                Logging.warn("Unable to offer back " + job);
+            Runnable task;
+            while ((task = dequeue()) == null) {
+                long pause = resumePausedHosts();
+                if (pause == Long.MAX_VALUE) {
+                    taskReady.await();
+                } else {
+                    taskReady.awaitNanos(pause);
+                }
             }
-            throw e;
+            return task;
+        } finally {
+            lock.unlock();
         }
-        return job;
     }
 
-    private Semaphore getSemaphore(JCSCachedTileLoaderJob<?, ?> job) {
-        String host;
+    /**
+     * @return head task of the first ready host, which would be returned by {@link #poll()}
+     */
+    @Override
+    public Runnable peek() {
+        lock.lock();
         try {
-            host = job.getUrl().getHost();
-        } catch (IOException e) {
-            // do not pass me illegal URL's
-            throw new IllegalArgumentException(e);
+            long now = System.nanoTime();
+            for (HostQueue queue : readyHosts) {
+                if (queue.isReady(now)) {
+                    return queue.tasks.peekFirst();
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof Runnable)) {
+            return false;
         }
-        Semaphore limit = hostSemaphores.get(host);
-        if (limit == null) {
-            synchronized (hostSemaphores) {
-                limit = hostSemaphores.computeIfAbsent(host, k -> new Semaphore(hostLimit));
+        String host = getHost((Runnable) o);
+        lock.lock();
+        try {
+            HostQueue queue = host == null ? unlimited : hosts.get(host);
+            if (queue != null && queue.tasks.removeFirstOccurrence(o)) {
+                count--;
+                notFull.signal();
+                return true;
             }
+            return false;
+        } finally {
+            lock.unlock();
         }
-        return limit;
     }
 
-    private void acquireSemaphore(Runnable job) throws InterruptedException {
-        if (job instanceof JCSCachedTileLoaderJob) {
-            final JCSCachedTileLoaderJob<?, ?> jcsJob = (JCSCachedTileLoaderJob<?, ?>) job;
-            getSemaphore(jcsJob).acquire();
-            jcsJob.setFinishedTask(() -> releaseSemaphore(jcsJob));
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all the queued tasks, regardless of host limits
+     */
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Removes queued tasks, regardless of host limits
+     */
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        lock.lock();
+        try {
+            int n = 0;
+            for (HostQueue queue : getQueues()) {
+                while (n < maxElements && !queue.tasks.isEmpty()) {
+                    c.add(queue.tasks.pollFirst());
+                    count--;
+                    n++;
+                }
+            }
+            if (n > 0) {
+                notFull.signalAll();
+            }
+            return n;
+        } finally {
+            lock.unlock();
         }
     }
 
-    private boolean tryAcquireSemaphore(final JCSCachedTileLoaderJob<?, ?> job) {
-        boolean ret = true;
-        Semaphore limit = getSemaphore(job);
-        if (limit != null) {
-            ret = limit.tryAcquire();
-            if (ret) {
-                job.setFinishedTask(() -> releaseSemaphore(job));
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            for (HostQueue queue : getQueues()) {
+                queue.tasks.clear();
             }
+            count = 0;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
         }
-        return ret;
     }
 
-    private boolean tryAcquireSemaphore(Runnable job, long timeout, TimeUnit unit) throws InterruptedException {
-        boolean ret = true;
-        if (job instanceof JCSCachedTileLoaderJob) {
-            final JCSCachedTileLoaderJob<?, ?> jcsJob = (JCSCachedTileLoaderJob<?, ?>) job;
-            Semaphore limit = getSemaphore(jcsJob);
-            if (limit != null) {
-                ret = limit.tryAcquire(timeout, unit);
-                if (ret) {
-                    jcsJob.setFinishedTask(() -> releaseSemaphore(jcsJob));
+    /**
+     * Returns iterator over the snapshot of queued tasks, grouped by host
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        List<Runnable> snapshot = new ArrayList<>();
+        lock.lock();
+        try {
+            for (HostQueue queue : getQueues()) {
+                snapshot.addAll(queue.tasks);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return new Iterator<Runnable>() {
+            private int next;
+            private Runnable last;
+
+            @Override
+            public boolean hasNext() {
+                return next < snapshot.size();
+            }
+
+            @Override
+            public Runnable next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                last = snapshot.get(next++);
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if (last == null) {
+                    throw new IllegalStateException();
                 }
+                HostLimitQueue.this.remove(last);
+                last = null;
             }
+        };
+    }
+
+    /**
+     * @return current concurrency limit of each host, that had tasks queued
+     */
+    public Map<String, Integer> getHostLimits() {
+        lock.lock();
+        try {
+            Map<String, Integer> ret = new LinkedHashMap<>();
+            for (Map.Entry<String, HostQueue> e : hosts.entrySet()) {
+                ret.put(e.getKey(), e.getValue().limit.getPermits());
+            }
+            return Collections.unmodifiableMap(ret);
+        } finally {
+            lock.unlock();
         }
-        return ret;
     }
 
-    private void releaseSemaphore(JCSCachedTileLoaderJob<?, ?> job) {
-        Semaphore limit = getSemaphore(job);
-        if (limit != null) {
-            limit.release();
-            if (limit.availablePermits() > hostLimit) {
-                Logging.warn("More permits than it should be");
+    /**
+     * @return limits, running and queued task counts and response statistics of each host as string, one host per line
+     */
+    public String getStats() {
+        lock.lock();
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, HostQueue> e : hosts.entrySet()) {
+                HostQueue queue = e.getValue();
+                sb.append(e.getKey()).append(": running=").append(queue.running)
+                  .append(", queued=").append(queue.tasks.size())
+                  .append(", ").append(queue.limit).append('\n');
             }
+            return sb.toString();
+        } finally {
+            lock.unlock();
         }
     }
+
+    private List<HostQueue> getQueues() {
+        List<HostQueue> ret = new ArrayList<>(hosts.size() + 1);
+        ret.add(unlimited);
+        ret.addAll(hosts.values());
+        return ret;
+    }
 }
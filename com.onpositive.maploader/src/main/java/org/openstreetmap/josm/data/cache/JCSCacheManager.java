@@ -7,7 +7,9 @@ import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
@@ -21,12 +23,14 @@ import org.apache.commons.jcs.auxiliary.disk.behavior.IDiskCacheAttributes;
 import org.apache.commons.jcs.auxiliary.disk.block.BlockDiskCacheAttributes;
 import org.apache.commons.jcs.auxiliary.disk.block.BlockDiskCacheFactory;
 import org.apache.commons.jcs.auxiliary.disk.indexed.IndexedDiskCacheAttributes;
-import org.apache.commons.jcs.engine.CompositeCacheAttributes;
 import org.apache.commons.jcs.engine.behavior.ICompositeCacheAttributes.DiskUsagePattern;
 import org.apache.commons.jcs.engine.control.CompositeCache;
 import org.apache.commons.jcs.engine.control.CompositeCacheManager;
 import org.apache.commons.jcs.utils.serialization.StandardSerializer;
 import org.openstreetmap.josm.tools.Logging;
+import org.openstreetmap.josm.tools.MemoryManager;
+import org.openstreetmap.josm.tools.MemoryManager.MemoryHandle;
+import org.openstreetmap.josm.tools.MemoryManager.NotEnoughMemoryException;
 import org.openstreetmap.josm.tools.Utils;
 
 import com.osm2xp.generation.paths.PathsService;
@@ -39,12 +43,29 @@ import com.osm2xp.generation.paths.PathsService;
  * @since 8168
  */
 public final class JCSCacheManager {
-    private static final int MAX_OBJ_IN_MEMORY = 1000;
+    /**
+     * default memory retained by JCS memory cache (per region), in bytes
+     */
+    private static final long DEFAULT_MAX_BYTES_IN_MEMORY = 64L * 1024 * 1024;
+    /**
+     * memory cache of the region is not used at all, if less memory than this is available
+     */
+    private static final long MIN_BYTES_IN_MEMORY = 4L * 1024 * 1024;
+    private static final Map<String, MemoryHandle<Long>> memoryHandles = new ConcurrentHashMap<>();
 	private static volatile CompositeCacheManager cacheManager;
     private static final long maxObjectTTL = -1;
     private static final String PREFERENCE_PREFIX = "jcs.cache";
 
-    private static final AuxiliaryCacheFactory DISK_CACHE_FACTORY = new BlockDiskCacheFactory();
+    /**
+     * System property selecting disk cache implementation: {@code block} for JCS block disk cache (default),
+     * {@code mapped} for {@link MappedDiskCache}, or {@code shared} for {@link MappedDiskCache} which could be used
+     * by several processes at once
+     */
+    public static final String DISK_CACHE_PROPERTY = "maploader.cache.disk";
+    private static final boolean USE_SHARED_CACHE = "shared".equalsIgnoreCase(System.getProperty(DISK_CACHE_PROPERTY));
+    private static final boolean USE_MAPPED_CACHE = USE_SHARED_CACHE || "mapped".equalsIgnoreCase(System.getProperty(DISK_CACHE_PROPERTY));
+
+    private static final AuxiliaryCacheFactory DISK_CACHE_FACTORY = USE_MAPPED_CACHE ? new MappedDiskCacheFactory() : new BlockDiskCacheFactory();
     		
 //            useBlockCache ? new BlockDiskCacheFactory() : new IndexedDiskCacheFactory();
     private static FileLock cacheDirLock;
@@ -115,7 +136,13 @@ public final class JCSCacheManager {
                     if (!cacheDirLockPath.exists() && !cacheDirLockPath.createNewFile()) {
                         Logging.warn("Cannot create cache dir lock file");
                     }
-                    cacheDirLock = FileChannel.open(cacheDirLockPath.toPath(), StandardOpenOption.WRITE).tryLock();
+                    if (USE_SHARED_CACHE) {
+                        // processes sharing the cache hold shared lock, so they still exclude processes using other cache modes
+                        cacheDirLock = FileChannel.open(cacheDirLockPath.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)
+                                .tryLock(0, Long.MAX_VALUE, true);
+                    } else {
+                        cacheDirLock = FileChannel.open(cacheDirLockPath.toPath(), StandardOpenOption.WRITE).tryLock();
+                    }
 
                     if (cacheDirLock == null)
                         Logging.warn("Cannot lock cache directory. Will not use disk cache");
@@ -133,8 +160,10 @@ public final class JCSCacheManager {
         // these are default common to all cache regions
         // use of auxiliary cache and sizing of the caches is done with giving proper getCache(...) params
         // CHECKSTYLE.OFF: SingleSpaceSeparator
-        props.setProperty("jcs.default.cacheattributes",                      CompositeCacheAttributes.class.getCanonicalName());
-        props.setProperty("jcs.default.cacheattributes.MaxObjects",           MAX_OBJ_IN_MEMORY + "");
+        props.setProperty("jcs.default.cacheattributes",                      ByteBudgetMemoryCache.Attributes.class.getName());
+        props.setProperty("jcs.default.cacheattributes.MaxObjects",           Integer.toString(Integer.MAX_VALUE));
+        props.setProperty("jcs.default.cacheattributes.MaxMemoryBytes",       Long.toString(DEFAULT_MAX_BYTES_IN_MEMORY));
+        props.setProperty("jcs.default.cacheattributes.MemoryCacheName",      ByteBudgetMemoryCache.class.getName());
         props.setProperty("jcs.default.cacheattributes.UseMemoryShrinker",    "true");
         props.setProperty("jcs.default.cacheattributes.DiskUsagePatternName", "UPDATE"); // store elements on disk on put
         props.setProperty("jcs.default.elementattributes",                    CacheEntryAttributes.class.getCanonicalName());
@@ -160,33 +189,34 @@ public final class JCSCacheManager {
      * @return cache access object
      */
     public static <K, V> CacheAccess<K, V> getCache(String cacheName) {
-        return getCache(cacheName, MAX_OBJ_IN_MEMORY , 0, null);
+        return getCache(cacheName, DEFAULT_MAX_BYTES_IN_MEMORY, 0, null);
     }
 
     /**
-     * Returns configured cache object with defined limits of memory cache and disk cache
+     * Returns configured cache object with defined limits of memory cache and disk cache.
+     * Memory for memory cache is allocated from {@link MemoryManager}, so less than requested could be used
      * @param <K> key type
      * @param <V> value type
      * @param cacheName         region name
-     * @param maxMemoryObjects  number of objects to keep in memory
+     * @param maxMemoryBytes    max memory retained by objects kept in memory, in bytes
      * @param maxDiskObjects    maximum size of the objects stored on disk in kB
      * @param cachePath         path to disk cache. if null, no disk cache will be created
      * @return cache access object
      */
-    public static <K, V> CacheAccess<K, V> getCache(String cacheName, int maxMemoryObjects, int maxDiskObjects, String cachePath) {
+    public static <K, V> CacheAccess<K, V> getCache(String cacheName, long maxMemoryBytes, int maxDiskObjects, String cachePath) {
         if (cacheManager != null)
-            return getCacheInner(cacheName, maxMemoryObjects, maxDiskObjects, cachePath);
+            return getCacheInner(cacheName, maxMemoryBytes, maxDiskObjects, cachePath);
 
         synchronized (JCSCacheManager.class) {
             if (cacheManager == null)
                 initialize();
-            return cacheManager != null ? getCacheInner(cacheName, maxMemoryObjects, maxDiskObjects, cachePath) : null;
+            return cacheManager != null ? getCacheInner(cacheName, maxMemoryBytes, maxDiskObjects, cachePath) : null;
         }
     }
 
     @SuppressWarnings("unchecked")
-    private static <K, V> CacheAccess<K, V> getCacheInner(String cacheName, int maxMemoryObjects, int maxDiskObjects, String cachePath) {
-        CompositeCache<K, V> cc = cacheManager.getCache(cacheName, getCacheAttributes(maxMemoryObjects));
+    private static <K, V> CacheAccess<K, V> getCacheInner(String cacheName, long maxMemoryBytes, int maxDiskObjects, String cachePath) {
+        CompositeCache<K, V> cc = cacheManager.getCache(cacheName, getCacheAttributes(reserveMemory(cacheName, maxMemoryBytes)));
 
         if (cachePath != null && cacheDirLock != null) {
             IDiskCacheAttributes diskAttributes = getDiskCacheAttributes(maxDiskObjects, cachePath, cacheName);
@@ -213,15 +243,46 @@ public final class JCSCacheManager {
         if (localCacheManager != null) {
             localCacheManager.shutDown();
         }
+        memoryHandles.values().forEach(MemoryHandle::free);
+        memoryHandles.clear();
+    }
+
+    /**
+     * Allocates memory for memory cache of the region. Memory is allocated once per region, as JCS keeps the
+     * attributes region was created with
+     * @param cacheName region name
+     * @param maxMemoryBytes desired memory cache size, in bytes
+     * @return memory cache size actually allocated, 0 if memory cache should not be used
+     */
+    private static long reserveMemory(String cacheName, long maxMemoryBytes) {
+        if (maxMemoryBytes <= 0) {
+            return 0;
+        }
+        MemoryHandle<Long> handle = memoryHandles.computeIfAbsent(cacheName, name -> {
+            try {
+                return MemoryManager.getInstance().allocateMemory("JCS cache " + name, maxMemoryBytes, MIN_BYTES_IN_MEMORY, Long::valueOf);
+            } catch (NotEnoughMemoryException e) {
+                Logging.log(Logging.LEVEL_WARN, "Will not use memory cache for " + name, e);
+                return null;
+            }
+        });
+        return handle != null ? handle.get() : 0;
     }
 
     private static IDiskCacheAttributes getDiskCacheAttributes(int maxDiskObjects, String cachePath, String cacheName) {
         IDiskCacheAttributes ret;
         boolean useBlockCache = true;
-        removeStaleFiles(cachePath + File.separator + cacheName, useBlockCache ? "_INDEX_v2" : "_BLOCK_v2");
-        String newCacheName = cacheName + (useBlockCache ? "_BLOCK_v2" : "_INDEX_v2");
-
-        if (useBlockCache) {
+        String newCacheName;
+        if (USE_MAPPED_CACHE) {
+            // block cache files are kept, so switching back doesn't lose cached tiles
+            newCacheName = cacheName + "_MAPPED_v1";
+            MappedDiskCacheAttributes mappedAttr = new MappedDiskCacheAttributes();
+            mappedAttr.setMaxSizeKB(maxDiskObjects);
+            mappedAttr.setShared(USE_SHARED_CACHE);
+            ret = mappedAttr;
+        } else if (useBlockCache) {
+            removeStaleFiles(cachePath + File.separator + cacheName, "_INDEX_v2");
+            newCacheName = cacheName + "_BLOCK_v2";
             BlockDiskCacheAttributes blockAttr = new BlockDiskCacheAttributes();
             /*
              * BlockDiskCache never optimizes the file, so when file size is reduced, it will never be truncated to desired size.
@@ -238,6 +299,8 @@ public final class JCSCacheManager {
             blockAttr.setBlockSizeBytes(4096); // use 4k blocks
             ret = blockAttr;
         } else {
+            removeStaleFiles(cachePath + File.separator + cacheName, "_BLOCK_v2");
+            newCacheName = cacheName + "_INDEX_v2";
             IndexedDiskCacheAttributes indexAttr = new IndexedDiskCacheAttributes();
             indexAttr.setMaxKeySize(maxDiskObjects);
             ret = indexAttr;
@@ -263,9 +326,12 @@ public final class JCSCacheManager {
         Utils.deleteFileIfExists(new File(basePathPart + ".data"));
     }
 
-    private static CompositeCacheAttributes getCacheAttributes(int maxMemoryElements) {
-        CompositeCacheAttributes ret = new CompositeCacheAttributes();
-        ret.setMaxObjects(maxMemoryElements);
+    private static ByteBudgetMemoryCache.Attributes getCacheAttributes(long maxMemoryBytes) {
+        ByteBudgetMemoryCache.Attributes ret = new ByteBudgetMemoryCache.Attributes();
+        // memory cache is disabled completely by zero object count, otherwise it's limited by bytes only
+        ret.setMaxObjects(maxMemoryBytes > 0 ? Integer.MAX_VALUE : 0);
+        ret.setMaxMemoryBytes(maxMemoryBytes);
+        ret.setMemoryCacheName(ByteBudgetMemoryCache.class.getName());
         ret.setDiskUsagePattern(DiskUsagePattern.UPDATE);
         return ret;
     }
@@ -4,16 +4,22 @@ package org.openstreetmap.josm.data.cache;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
 import java.net.URL;
-import java.security.SecureRandom;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
@@ -66,17 +72,40 @@ public abstract class JCSCachedTileLoaderJob<K, V extends CacheEntry> implements
      * and performance (we do want to have something to offer to worker threads before tasks will be resubmitted by class consumer)
      */
 
-    private static final ThreadPoolExecutor DEFAULT_DOWNLOAD_JOB_DISPATCHER = new ThreadPoolExecutor(
-            1, // we have a small queue, so threads will be quickly started (threads are started only, when queue is full)
-            10, // do not this number of threads
-            30, // keepalive for thread
-            TimeUnit.SECONDS,
-            // make queue of LIFO type - so recently requested tiles will be loaded first (assuming that these are which user is waiting to see)
-            new LinkedBlockingDeque<Runnable>(),
-            Utils.newThreadFactory("JCS-downloader-%d", Thread.NORM_PRIORITY)
-            );
+    /**
+     * Limit of concurrent downloads per host for default dispatcher in virtual execution mode
+     */
+    private static final int DEFAULT_HOST_LIMIT = 6;
+
+    /**
+     * HTTP status code 429 - Too Many Requests, not defined in {@link HttpURLConnection}
+     */
+    static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /*
+     * Requests throttled by the server (429, 503) are retried up to MAX_THROTTLE_RETRIES times. Delay is taken from
+     * Retry-After header, or grows exponentially from THROTTLE_DELAY, with random jitter
+     */
+    private static final int MAX_THROTTLE_RETRIES = 5;
+    private static final long THROTTLE_DELAY = TimeUnit.SECONDS.toMillis(5);
+    private static final long MAX_THROTTLE_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+    /*
+     * Throttled jobs wait for retry here, without occupying worker thread nor host permit. Once delay expires, job is
+     * submitted to its download executor again
+     */
+    private static final ScheduledExecutorService RETRY_SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+            Utils.newThreadFactory("JCS-retry-scheduler-%d", Thread.NORM_PRIORITY));
+    private static final Set<JCSCachedTileLoaderJob<?, ?>> waitingForRetry = ConcurrentHashMap.newKeySet();
+
+    private static final ThreadPoolExecutor DEFAULT_DOWNLOAD_JOB_DISPATCHER = getDefaultDownloadJobDispatcher();
 
-    private static final ConcurrentMap<String, Set<ICachedLoaderListener>> inProgress = new ConcurrentHashMap<>();
+    /*
+     * Jobs in progress by deduplication key. Jobs requesting the same resource attach their listeners to the future of
+     * the first job, which is completed, once this job has finished. No global lock is taken - map entry is created by
+     * computeIfAbsent, and listeners are notified by future completion
+     */
+    private static final ConcurrentMap<Object, CompletableFuture<LoadedEntry>> inProgress = new ConcurrentHashMap<>();
     private static final ConcurrentMap<String, Boolean> useHead = new ConcurrentHashMap<>();
 
     protected final long now; // when the job started
@@ -90,10 +119,56 @@ public abstract class JCSCachedTileLoaderJob<K, V extends CacheEntry> implements
     private final int connectTimeout;
     private final int readTimeout;
     private final Map<String, String> headers;
+    private final boolean http2;
     private final ThreadPoolExecutor downloadJobExecutor;
     private Runnable finishTask;
     private boolean force;
     private long minimumExpiryTime;
+    // computed once per job, these are looked up several times during job lifecycle
+    private volatile Object deduplicationKey;
+    private volatile String host;
+    private final CompletableFuture<LoadedEntry> ownLoading = new CompletableFuture<>();
+    private volatile CompletableFuture<LoadedEntry> loading;
+    // outcome of the last request sent to the server, used by HostLimitQueue to adjust the host limit
+    private volatile int requestResponseCode;
+    private volatile boolean requestTimedOut;
+    private volatile long requestStart;
+    private volatile long requestLatency;
+    private volatile long retryAfter;
+    private int throttleRetries;
+    private long retryDelay = -1; // delay of the retry to schedule, once run has finished, -1 if none
+    private volatile ScheduledFuture<?> scheduledRetry;
+
+    /**
+     * Result of the job, passed to all the listeners waiting for the same resource
+     */
+    private static final class LoadedEntry {
+        private final CacheEntry data;
+        private final CacheEntryAttributes attributes;
+        private final LoadResult result;
+
+        LoadedEntry(CacheEntry data, CacheEntryAttributes attributes, LoadResult result) {
+            this.data = data;
+            this.attributes = attributes;
+            this.result = result;
+        }
+    }
+
+    private static ThreadPoolExecutor getDefaultDownloadJobDispatcher() {
+        ExecutionMode mode = ExecutionMode.getDefault();
+        if (mode.usesVirtualThreads()) {
+            return mode.newHostLimitedExecutor("JCS-downloader-%d", 10, DEFAULT_HOST_LIMIT);
+        }
+        return new ThreadPoolExecutor(
+            1, // we have a small queue, so threads will be quickly started (threads are started only, when queue is full)
+            10, // do not this number of threads
+            30, // keepalive for thread
+            TimeUnit.SECONDS,
+            // make queue of LIFO type - so recently requested tiles will be loaded first (assuming that these are which user is waiting to see)
+            new LinkedBlockingDeque<Runnable>(),
+            Utils.newThreadFactory("JCS-downloader-%d", Thread.NORM_PRIORITY)
+            );
+    }
 
     /**
      * @param cache cache instance that we will work on
@@ -109,6 +184,7 @@ public abstract class JCSCachedTileLoaderJob<K, V extends CacheEntry> implements
         this.connectTimeout = options.getConnectionTimeout();
         this.readTimeout = options.getReadTimeout();
         this.headers = options.getHeaders();
+        this.http2 = options.isHttp2();
         this.downloadJobExecutor = downloadJobExecutor;
         this.minimumExpiryTime = TimeUnit.SECONDS.toMillis(options.getMinimumExpiryTime());
     }
@@ -141,35 +217,70 @@ public abstract class JCSCachedTileLoaderJob<K, V extends CacheEntry> implements
     @Override
     public Future<?> submit(ICachedLoaderListener listener, boolean force) throws IOException {
         this.force = force;
-        boolean first = false;
-        URL url = getUrl();
-        String deduplicationKey = null;
-        if (url != null) {
-            // url might be null, for example when Bing Attribution is not loaded yet
-            deduplicationKey = url.toString();
-        }
+        // url might be null, for example when Bing Attribution is not loaded yet
+        Object deduplicationKey = getUrl() == null ? null : getJobKey();
         if (deduplicationKey == null) {
             Logging.warn("No url returned for: {0}, skipping", getCacheKey());
             throw new IllegalArgumentException("No url returned");
         }
-        synchronized (inProgress) {
-            Set<ICachedLoaderListener> newListeners = inProgress.get(deduplicationKey);
-            if (newListeners == null) {
-                newListeners = new HashSet<>();
-                inProgress.put(deduplicationKey, newListeners);
-                first = true;
-            }
-            newListeners.add(listener);
-        }
+        CompletableFuture<LoadedEntry> shared = inProgress.computeIfAbsent(deduplicationKey, k -> ownLoading);
+        boolean first = shared == ownLoading;
+        loading = shared;
+        shared.thenAccept(loaded -> notifyListener(listener, loaded));
 
         if (first || force) {
             // submit all jobs to separate thread, so calling thread is not blocked with IO when loading from disk
             Logging.debug("JCS - Submitting job for execution for url: {0}", getUrlNoException());
-            return downloadJobExecutor.submit(this);
+            JobFuture future = new JobFuture(this);
+            try {
+                downloadJobExecutor.execute(future);
+            } catch (RejectedExecutionException e) {
+                Logging.logWithStackTrace(Logging.LEVEL_WARN, e, "JCS - could not submit job {0}", getUrlNoException());
+                if (first) {
+                    // forced duplicate leaves the shared loading to the job which started it
+                    finishLoading(LoadResult.FAILURE);
+                }
+                return null;
+            }
+            return future;
         }
 		return null;
     }
 
+    /**
+     * Returns key used to find jobs loading the same resource, so only one of them is executed. Called once per job.
+     * Default implementation uses URL of the job, subclasses may return more compact key, which identifies the same
+     * resource
+     * @return deduplication key or <code>null</code> if URL of the job is not known
+     * @throws IOException when URL is malformed
+     */
+    protected Object getDeduplicationKey() throws IOException {
+        URL url = getUrl();
+        return url == null ? null : url.toString();
+    }
+
+    private Object getJobKey() throws IOException {
+        Object key = deduplicationKey;
+        if (key == null) {
+            key = getDeduplicationKey();
+            deduplicationKey = key;
+        }
+        return key;
+    }
+
+    /**
+     * @return host of the job URL, computed once per job
+     * @throws IOException when URL is malformed
+     */
+    public String getHost() throws IOException {
+        String h = host;
+        if (h == null) {
+            h = getUrl().getHost();
+            host = h;
+        }
+        return h;
+    }
+
     /**
      * This method is run when job has finished
      */
@@ -187,7 +298,7 @@ public abstract class JCSCachedTileLoaderJob<K, V extends CacheEntry> implements
         if (cacheData == null) {
             return false;
         }
-        return cacheData.getContent().length > 0;
+        return cacheData.getContentLength() > 0;
     }
 
     /**
@@ -197,7 +308,7 @@ public abstract class JCSCachedTileLoaderJob<K, V extends CacheEntry> implements
      * @return true if we should put empty object into cache, regardless of what remote resource has returned
      */
     protected boolean cacheAsEmpty() {
-        return attributes.getResponseCode() < 500;
+        return attributes.getResponseCode() < 500 && attributes.getResponseCode() != HTTP_TOO_MANY_REQUESTS;
     }
 
     /**
@@ -205,7 +316,7 @@ public abstract class JCSCachedTileLoaderJob<K, V extends CacheEntry> implements
      */
     protected String getServerKey() {
         try {
-            return getUrl().getHost();
+            return getHost();
         } catch (IOException e) {
             Logging.trace(e);
             return null;
@@ -219,6 +330,7 @@ public abstract class JCSCachedTileLoaderJob<K, V extends CacheEntry> implements
         currentThread.setName("JCS Downloading: " + getUrlNoException());
         Logging.debug("JCS - starting fetch of url: {0} ", getUrlNoException());
         ensureCacheElement();
+        retryDelay = -1;
         try {
             // try to fetch from cache
             if (!force && cacheElement != null && isCacheElementValid() && isObjectLoadable()) {
@@ -231,6 +343,9 @@ public abstract class JCSCachedTileLoaderJob<K, V extends CacheEntry> implements
             // try to load object from remote resource
             if (loadObject()) {
                 finishLoading(LoadResult.SUCCESS);
+            } else if (retryDelay >= 0) {
+                // throttled by the server, listeners will be notified after retry
+                Logging.debug("JCS - server throttled request for {0}, retrying in {1} ms", getUrlNoException(), retryDelay);
             } else {
                 // if loading failed - check if we can return stale entry
                 if (isObjectLoadable()) {
@@ -245,25 +360,78 @@ public abstract class JCSCachedTileLoaderJob<K, V extends CacheEntry> implements
         } finally {
             executionFinished();
             currentThread.setName(oldName);
+            if (retryDelay >= 0) {
+                // schedule only after the host permit is released, so retried job doesn't share it with this run
+                scheduleRetry(retryDelay);
+            }
         }
     }
 
+    private void scheduleRetry(long delay) {
+        waitingForRetry.add(this);
+        try {
+            scheduledRetry = RETRY_SCHEDULER.schedule(this::resubmit, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            Logging.trace(e);
+            if (waitingForRetry.remove(this)) {
+                finishLoading(LoadResult.FAILURE);
+            }
+        }
+    }
+
+    private void resubmit() {
+        if (!waitingForRetry.remove(this)) {
+            return; // canceled while waiting
+        }
+        try {
+            downloadJobExecutor.execute(new JobFuture(this));
+        } catch (RejectedExecutionException e) {
+            Logging.logWithStackTrace(Logging.LEVEL_WARN, e, "JCS - could not resubmit throttled job {0}", getUrlNoException());
+            finishLoading(LoadResult.FAILURE);
+        }
+    }
+
+    /**
+     * @param retryAfterMillis delay requested by server, 0 if none
+     * @return delay before next retry of throttled request, in milliseconds
+     */
+    private long getThrottleDelay(long retryAfterMillis) {
+        if (retryAfterMillis > 0) {
+            return Math.min(retryAfterMillis, MAX_THROTTLE_DELAY);
+        }
+        long delay = Math.min(MAX_THROTTLE_DELAY / 2, THROTTLE_DELAY << Math.min(throttleRetries, 16));
+        return delay + ThreadLocalRandom.current().nextLong(delay + 1);
+    }
+
+    private static boolean isThrottled(int responseCode) {
+        return responseCode == HttpURLConnection.HTTP_UNAVAILABLE || responseCode == HTTP_TOO_MANY_REQUESTS;
+    }
+
     private void finishLoading(LoadResult result) {
-        Set<ICachedLoaderListener> listeners;
-        synchronized (inProgress) {
-            try {
-                listeners = inProgress.remove(getUrl().toString());
-            } catch (IOException e) {
-                listeners = null;
-                Logging.trace(e);
+        CompletableFuture<LoadedEntry> future = loading;
+        try {
+            Object key = getJobKey();
+            if (future == null && key != null) {
+                future = inProgress.get(key);
             }
+            if (future != null && key != null) {
+                // remove before completion, so new requests for the resource start new job instead of getting stale result
+                inProgress.remove(key, future);
+            }
+        } catch (IOException e) {
+            Logging.trace(e);
         }
-        if (listeners == null) {
+        // future might be already completed, if job was forced, and other job for the same resource has finished first
+        if (future == null || !future.complete(new LoadedEntry(cacheData, attributes, result))) {
             Logging.warn("Listener not found for URL: {0}. Listener not notified!", getUrlNoException());
-            return;
         }
-        for (ICachedLoaderListener l: listeners) {
-            l.loadingFinished(cacheData, attributes, result);
+    }
+
+    private static void notifyListener(ICachedLoaderListener listener, LoadedEntry loaded) {
+        try {
+            listener.loadingFinished(loaded.data, loaded.attributes, loaded.result);
+        } catch (RuntimeException e) {
+            Logging.logWithStackTrace(Logging.LEVEL_ERROR, e, "JCS - error notifying listener {0}", listener);
         }
     }
 
@@ -320,7 +488,15 @@ public abstract class JCSCachedTileLoaderJob<K, V extends CacheEntry> implements
                 request.setHeader("If-None-Match", attributes.getEtag());
             }
 
-            final HttpClient.Response response = request.connect();
+            final HttpClient.Response response = connect(request);
+
+            if (isThrottled(response.getResponseCode()) && throttleRetries < MAX_THROTTLE_RETRIES) {
+                // don't wait here - release the worker thread and retry later, keeping attributes of the cached object
+                retryDelay = getThrottleDelay(response.getRetryAfter());
+                throttleRetries++;
+                response.disconnect();
+                return false;
+            }
 
             if (response.getResponseCode() == 304) {
                 // If isModifiedSince or If-None-Match has been set
@@ -345,49 +521,42 @@ public abstract class JCSCachedTileLoaderJob<K, V extends CacheEntry> implements
 
             attributes = parseHeaders(response);
 
-            for (int i = 0; i < 5; ++i) {
-                if (response.getResponseCode() == HttpURLConnection.HTTP_UNAVAILABLE) {
-                    Thread.sleep(5000L+new SecureRandom().nextInt(5000));
-                    continue;
-                }
-
-                attributes.setResponseCode(response.getResponseCode());
-                byte[] raw;
-                if (response.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                    raw = Utils.readBytesFromStream(response.getContent());
-                } else {
-                	Logging.error("Fetch failed for " + getUrl() + " , server returned " + response.getResponseCode());
-                    raw = new byte[]{};
-                    try {
-                        String data = response.fetchContent();
-                        if (!data.isEmpty()) {
-                            String detectErrorMessage = detectErrorMessage(data);
-                            if (detectErrorMessage != null) {
-                                attributes.setErrorMessage(detectErrorMessage);
-                            }
+            attributes.setResponseCode(response.getResponseCode());
+            byte[] raw;
+            if (response.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                raw = response.fetchBytes();
+            } else {
+            	Logging.error("Fetch failed for " + getUrl() + " , server returned " + response.getResponseCode());
+                raw = new byte[]{};
+                try {
+                    String data = response.fetchContent();
+                    if (!data.isEmpty()) {
+                        String detectErrorMessage = detectErrorMessage(data);
+                        if (detectErrorMessage != null) {
+                            attributes.setErrorMessage(detectErrorMessage);
                         }
-                    } catch (IOException e) {
-                        Logging.warn(e);
                     }
+                } catch (IOException e) {
+                    Logging.warn(e);
                 }
+            }
 
-                if (isResponseLoadable(response.getHeaderFields(), response.getResponseCode(), raw)) {
-                    // we need to check cacheEmpty, so for cases, when data is returned, but we want to store
-                    // as empty (eg. empty tile images) to save some space
-                    cacheData = createCacheEntry(raw);
-                    cache.put(getCacheKey(), cacheData, attributes);
-                    Logging.debug("JCS - downloaded key: {0}, length: {1}, url: {2}",
-                            getCacheKey(), raw.length, getUrl());
-                    return true;
-                } else if (cacheAsEmpty()) {
-                    cacheData = createCacheEntry(new byte[]{});
-                    cache.put(getCacheKey(), cacheData, attributes);
-                    Logging.debug("JCS - Caching empty object {0}", getUrl());
-                    return true;
-                } else {
-                    Logging.debug("JCS - failure during load - response is not loadable nor cached as empty");
-                    return false;
-                }
+            if (isResponseLoadable(response.getHeaderFields(), response.getResponseCode(), raw)) {
+                // we need to check cacheEmpty, so for cases, when data is returned, but we want to store
+                // as empty (eg. empty tile images) to save some space
+                cacheData = createCacheEntry(raw);
+                cache.put(getCacheKey(), cacheData, attributes);
+                Logging.debug("JCS - downloaded key: {0}, length: {1}, url: {2}",
+                        getCacheKey(), raw.length, getUrl());
+                return true;
+            } else if (cacheAsEmpty()) {
+                cacheData = createCacheEntry(new byte[]{});
+                cache.put(getCacheKey(), cacheData, attributes);
+                Logging.debug("JCS - Caching empty object {0}", getUrl());
+                return true;
+            } else {
+                Logging.debug("JCS - failure during load - response is not loadable nor cached as empty");
+                return false;
             }
         } catch (FileNotFoundException e) {
             Logging.debug("JCS - Caching empty object as server returned 404 for: {0}", getUrlNoException());
@@ -402,6 +571,10 @@ public abstract class JCSCachedTileLoaderJob<K, V extends CacheEntry> implements
             return doCache;
         } catch (IOException e) {
             Logging.debug("JCS - IOException during communication with server for: {0}", getUrlNoException());
+            if (e instanceof SocketTimeoutException && requestStart != 0) {
+                requestTimedOut = true;
+                requestLatency = 0;
+            }
             if (isObjectLoadable()) {
                 return true;
             } else {
@@ -410,15 +583,7 @@ public abstract class JCSCachedTileLoaderJob<K, V extends CacheEntry> implements
                 attributes.setResponseCode(599); // set dummy error code, greater than 500 so it will be not cached
                 return false;
             }
-
-        } catch (InterruptedException e) {
-            attributes.setError(e);
-            attributes.setException(e);
-            Logging.logWithStackTrace(Logging.LEVEL_WARN, e, "JCS - Exception during download {0}", getUrlNoException());
-            Thread.currentThread().interrupt();
         }
-        Logging.warn("JCS - Silent failure during download: {0}", getUrlNoException());
-        return false;
     }
 
     /**
@@ -501,6 +666,7 @@ public abstract class JCSCachedTileLoaderJob<K, V extends CacheEntry> implements
         urlConn.setAccept("text/html, image/png, image/jpeg, image/gif, */*");
         urlConn.setReadTimeout(readTimeout); // 30 seconds read timeout
         urlConn.setConnectTimeout(connectTimeout);
+        urlConn.useHttp2(http2);
         if (headers != null) {
             urlConn.setHeaders(headers);
         }
@@ -511,8 +677,62 @@ public abstract class JCSCachedTileLoaderJob<K, V extends CacheEntry> implements
         return urlConn;
     }
 
+    /**
+     * Sends the request, recording response code, latency and requested retry delay for the host limit
+     * @param request request to send
+     * @return response
+     * @throws IOException if any I/O error occurs
+     */
+    private HttpClient.Response connect(HttpClient request) throws IOException {
+        long start = System.nanoTime();
+        requestStart = start;
+        requestResponseCode = 0;
+        requestTimedOut = false;
+        retryAfter = 0;
+        HttpClient.Response response = request.connect();
+        requestLatency = System.nanoTime() - start;
+        retryAfter = TimeUnit.MILLISECONDS.toNanos(response.getRetryAfter());
+        requestResponseCode = response.getResponseCode();
+        return response;
+    }
+
+    /**
+     * @return response code of the last request sent by this job, or 0 if job didn't send any request, or it has timed out
+     */
+    int getRequestResponseCode() {
+        return requestResponseCode;
+    }
+
+    /**
+     * @return <code>true</code> if the last request sent by this job has timed out without response
+     */
+    boolean isRequestTimedOut() {
+        return requestTimedOut;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the last request was sent
+     */
+    long getRequestStart() {
+        return requestStart;
+    }
+
+    /**
+     * @return time until response headers of the last request were received, in nanoseconds
+     */
+    long getRequestLatency() {
+        return requestLatency;
+    }
+
+    /**
+     * @return delay requested by server with {@code Retry-After} header, in nanoseconds, 0 if none
+     */
+    long getRetryAfter() {
+        return retryAfter;
+    }
+
     private boolean isCacheValidUsingHead() throws IOException {
-        final HttpClient.Response urlConn = getRequest("HEAD", false).connect();
+        final HttpClient.Response urlConn = connect(getRequest("HEAD", false));
         long lastModified = urlConn.getLastModified();
         boolean ret = (attributes.getEtag() != null && attributes.getEtag().equals(urlConn.getHeaderField("ETag"))) ||
                 (lastModified != 0 && lastModified <= attributes.getLastModification());
@@ -530,12 +750,72 @@ public abstract class JCSCachedTileLoaderJob<K, V extends CacheEntry> implements
      */
     public void cancelOutstandingTasks() {
         for (Runnable r: downloadJobExecutor.getQueue()) {
-            if (downloadJobExecutor.remove(r) && r instanceof JCSCachedTileLoaderJob) {
-                ((JCSCachedTileLoaderJob<?, ?>) r).handleJobCancellation();
+            JCSCachedTileLoaderJob<?, ?> job = getJob(r);
+            if (downloadJobExecutor.remove(r) && job != null) {
+                job.handleJobCancellation();
+            }
+        }
+        cancelScheduledRetries(downloadJobExecutor);
+    }
+
+    /**
+     * Cancels jobs of given executor, which were throttled by the server and wait for retry
+     * @param executor download executor of the jobs
+     */
+    public static void cancelScheduledRetries(ThreadPoolExecutor executor) {
+        for (JCSCachedTileLoaderJob<?, ?> job : waitingForRetry) {
+            if (job.downloadJobExecutor == executor && waitingForRetry.remove(job)) {
+                ScheduledFuture<?> retry = job.scheduledRetry;
+                if (retry != null) {
+                    retry.cancel(false);
+                }
+                job.handleJobCancellation();
             }
         }
     }
 
+    /**
+     * @param executor download executor
+     * @return <code>true</code> if some jobs of given executor were throttled by the server and wait for retry
+     */
+    public static boolean hasScheduledRetries(ThreadPoolExecutor executor) {
+        for (JCSCachedTileLoaderJob<?, ?> job : waitingForRetry) {
+            if (job.downloadJobExecutor == executor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the job behind the task taken from download executor queue
+     * @param r task from download executor queue
+     * @return job itself, job wrapped by the future returned from {@link #submit(ICachedLoaderListener, boolean)}
+     * or {@code null} if task is not a loader job
+     */
+    public static JCSCachedTileLoaderJob<?, ?> getJob(Runnable r) {
+        if (r instanceof JCSCachedTileLoaderJob) {
+            return (JCSCachedTileLoaderJob<?, ?>) r;
+        }
+        if (r instanceof JobFuture) {
+            return ((JobFuture) r).job;
+        }
+        return null;
+    }
+
+    /**
+     * Future of the submitted job. Executor's own {@code submit} would wrap the job in anonymous task, which hides it
+     * from {@link HostLimitQueue} (so host limit is not applied) and from cancellation of outstanding tasks
+     */
+    private static final class JobFuture extends FutureTask<Void> {
+        private final JCSCachedTileLoaderJob<?, ?> job;
+
+        JobFuture(JCSCachedTileLoaderJob<?, ?> job) {
+            super(job, null);
+            this.job = job;
+        }
+    }
+
     /**
      * Sets a job, that will be run, when job will finish execution
      * @param runnable that will be executed
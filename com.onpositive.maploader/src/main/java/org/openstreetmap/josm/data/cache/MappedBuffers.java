@@ -0,0 +1,68 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.cache;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+import org.openstreetmap.josm.tools.Logging;
+
+/**
+ * Explicit release of memory mappings. Mapping is otherwise released only when the buffer is garbage collected,
+ * and while it's alive, Windows doesn't allow to delete, truncate or replace the mapped file.
+ * <p>
+ * Buffer must not be accessed after it's unmapped, or JVM crashes - callers should make sure no other thread uses it
+ * or any of it's duplicates.
+ */
+final class MappedBuffers {
+
+    private static final Unmapper UNMAPPER = createUnmapper();
+
+    @FunctionalInterface
+    private interface Unmapper {
+        void unmap(ByteBuffer buffer) throws ReflectiveOperationException;
+    }
+
+    private MappedBuffers() {
+        // Hide default constructor for utilities classes
+    }
+
+    /**
+     * Releases mapping of the buffer. Does nothing if it's not supported by the running JVM
+     * @param buffer buffer to unmap, could be <code>null</code>
+     */
+    static void unmap(MappedByteBuffer buffer) {
+        if (buffer == null || UNMAPPER == null) {
+            return;
+        }
+        try {
+            UNMAPPER.unmap(buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            Logging.warn(e);
+        }
+    }
+
+    private static Unmapper createUnmapper() {
+        try {
+            // Java 9+
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            return buffer -> invokeCleaner.invoke(unsafe, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            Logging.trace(e);
+        }
+        try {
+            // Java 8
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> clean.invoke(cleaner.invoke(buffer));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            Logging.warn("Memory mapped files can't be unmapped explicitly: {0}", e.toString());
+            return null;
+        }
+    }
+}
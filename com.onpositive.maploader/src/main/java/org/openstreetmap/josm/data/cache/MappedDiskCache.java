@@ -0,0 +1,821 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.cache;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.jcs.auxiliary.AuxiliaryCacheAttributes;
+import org.apache.commons.jcs.auxiliary.disk.AbstractDiskCache;
+import org.apache.commons.jcs.engine.CacheConstants;
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.engine.behavior.IElementAttributes;
+import org.apache.commons.jcs.engine.behavior.IElementSerializer;
+import org.apache.commons.jcs.engine.stats.StatElement;
+import org.apache.commons.jcs.engine.stats.behavior.IStatElement;
+import org.apache.commons.jcs.engine.stats.behavior.IStats;
+import org.openstreetmap.josm.tools.Logging;
+
+/**
+ * JCS disk cache storing elements in append-only segment files. Full segments are read through memory mapping.
+ * <p>
+ * Each element is written as a single record containing key, {@link CacheEntryAttributes} and raw content of
+ * {@link CacheEntry} - no Java serialization is involved for cache entries, other values fall back to the element
+ * serializer. Record locations are kept in {@link MappedHashIndex}, so lookup doesn't touch the heap and reading
+ * is a copy of content bytes from page cache.
+ * <p>
+ * Updates and removals are appended, and space is reclaimed by dropping the oldest segment once total size exceeds
+ * the limit, so the cache works as FIFO on segment granularity. If index file is missing, it's rebuilt by scanning
+ * the segments. Only String keys are supported.
+ * <p>
+ * In {@link MappedDiskCacheAttributes#isShared() shared} mode, the same cache directory could be used by several
+ * processes at once. Reads are done under shared file lock and writes under exclusive one, and each process picks up
+ * segments and index changes made by others from the index header before accessing the storage. As records are never
+ * modified once written, slightly stale view of the index is safe - it could only miss recently added elements.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class MappedDiskCache<K, V> extends AbstractDiskCache<K, V> {
+
+    private static final int RECORD_MAGIC = 0x4D524543; // "MREC"
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String INDEX_NAME = "index";
+    private static final String LOCK_FILE = ".lock";
+
+    private static final byte ATTRIBUTES_DEFAULT = 0;
+    private static final byte ATTRIBUTES_CACHE_ENTRY = 1;
+
+    private static final byte VALUE_CACHE_ENTRY = 0;
+    private static final byte VALUE_IMAGE_CACHE_ENTRY = 1;
+    private static final byte VALUE_SERIALIZED = 2;
+    private static final byte VALUE_REMOVED = 3;
+
+    private final MappedDiskCacheAttributes attributes;
+    private final File directory;
+    private final ReentrantReadWriteLock storageLock = new ReentrantReadWriteLock();
+    // guarded by storageLock
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private MappedHashIndex index;
+    private long totalSize;
+
+    private final boolean shared;
+    // shared mode only
+    private FileChannel lockChannel;
+    private final Object fileLockMonitor = new Object();
+    // guarded by fileLockMonitor
+    private FileLock sharedFileLock;
+    private int sharedFileLockHolders;
+    // guarded by storageLock write lock
+    private FileLock exclusiveFileLock;
+    // index modification counter, as of the last refresh or own modification
+    private volatile long knownModCount;
+
+    /**
+     * Single segment file. Segment is mapped once it's sealed, records of the active segment are read from the channel
+     */
+    private static final class Segment {
+        private final int id;
+        private final File file;
+        private final FileChannel channel;
+        private long size;
+        private volatile MappedByteBuffer mapped;
+
+        Segment(int id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.size = channel.size();
+        }
+
+        /**
+         * Reads record from the segment. Sealed segment doesn't change anymore, so it's mapped as a whole just once.
+         * Active segment is still growing, and mapping it would need a new mapping after every append, so it's
+         * records are read with positional reads instead
+         * @param offset record offset
+         * @param length record length
+         * @param sealed <code>true</code> if no more records would be appended to the segment
+         * @return buffer containing just the record
+         * @throws IOException if reading failed
+         */
+        ByteBuffer read(long offset, int length, boolean sealed) throws IOException {
+            if (sealed) {
+                MappedByteBuffer current = mapped;
+                if (current == null) {
+                    synchronized (this) {
+                        current = mapped;
+                        if (current == null) {
+                            current = channel.map(MapMode.READ_ONLY, 0, channel.size());
+                            mapped = current;
+                        }
+                    }
+                }
+                if (offset + length <= current.capacity()) {
+                    ByteBuffer buffer = current.duplicate();
+                    buffer.limit((int) (offset + length)).position((int) offset);
+                    return buffer.slice();
+                }
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new EOFException("Record at " + offset + " is past the end of " + file);
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        /**
+         * Closes the segment, releasing it's mapping right away, so the file could be deleted or truncated.
+         * Should be called under write lock, so no reader uses the mapping
+         * @throws IOException if channel can't be closed
+         */
+        void close() throws IOException {
+            MappedByteBuffer current = mapped;
+            mapped = null;
+            MappedBuffers.unmap(current);
+            channel.close();
+        }
+    }
+
+    /**
+     * Constructs a new {@code MappedDiskCache}.
+     * @param attributes cache attributes
+     * @param serializer serializer for values, which are not {@link CacheEntry}
+     * @throws IOException if cache files can't be opened
+     */
+    public MappedDiskCache(MappedDiskCacheAttributes attributes, IElementSerializer serializer) throws IOException {
+        super(attributes);
+        this.attributes = attributes;
+        setElementSerializer(serializer);
+        this.directory = new File(attributes.getDiskPath(), attributes.getCacheName());
+        this.shared = attributes.isShared();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create cache directory " + directory);
+        }
+        if (shared) {
+            lockChannel = FileChannel.open(new File(directory, LOCK_FILE).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        try {
+            storageLock.writeLock().lock();
+            try {
+                if (shared) {
+                    exclusiveFileLock = lockChannel.lock();
+                }
+                open();
+            } finally {
+                endWrite();
+            }
+        } catch (IOException | RuntimeException e) {
+            if (lockChannel != null) {
+                lockChannel.close();
+            }
+            throw e;
+        }
+        setAlive(true);
+        Logging.debug("Opened mapped disk cache {0} with {1} elements in {2} segments", directory, index.size(), segments.size());
+    }
+
+    /**
+     * Opens segments and index, rebuilding index if needed. Should be called under write lock
+     * @throws IOException if cache files can't be opened
+     */
+    private void open() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                try {
+                    int id = Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                    Segment segment = new Segment(id, file);
+                    segments.put(id, segment);
+                    totalSize += segment.size;
+                } catch (NumberFormatException e) {
+                    Logging.warn("Unknown file in cache directory: {0}", file);
+                }
+            }
+        }
+        index = new MappedHashIndex(directory, INDEX_NAME, 1024);
+        if (!index.isNew()) {
+            dropStaleSegments();
+        } else if (!segments.isEmpty()) {
+            rebuildIndex();
+        }
+        // size limit could be lowered since last run
+        evictSegments();
+        updateSegmentRange();
+    }
+
+    @Override
+    protected ICacheElement<K, V> processGet(K key) throws IOException {
+        beginRead();
+        try {
+            MappedHashIndex.Location location = index.get(hash(key.toString()));
+            if (location == null) {
+                return null;
+            }
+            ByteBuffer buffer = read(location);
+            return buffer != null ? readRecord(buffer, key.toString()) : null;
+        } finally {
+            endRead();
+        }
+    }
+
+    @Override
+    protected Map<K, ICacheElement<K, V>> processGetMatching(String pattern) throws IOException {
+        return processGetMultiple(getKeyMatcher().getMatchingKeysFromArray(pattern, getKeySet()));
+    }
+
+    @Override
+    protected void processUpdate(ICacheElement<K, V> element) throws IOException {
+        String key = element.getKey().toString();
+        ByteBuffer[] record = writeRecord(key, element.getElementAttributes(), element.getVal());
+        beginWrite();
+        try {
+            MappedHashIndex.Location location = append(record);
+            index.put(hash(key), location);
+        } finally {
+            endWrite();
+        }
+    }
+
+    @Override
+    protected boolean processRemove(K key) throws IOException {
+        String strKey = key.toString();
+        if (strKey.endsWith(CacheConstants.NAME_COMPONENT_DELIMITER)) {
+            // remove all keys of the same name hierarchy
+            boolean removed = false;
+            for (K k : getKeySet()) {
+                if (k.toString().startsWith(strKey)) {
+                    removed |= processRemove(k);
+                }
+            }
+            return removed;
+        }
+        beginWrite();
+        try {
+            if (!index.remove(hash(strKey))) {
+                return false;
+            }
+            // append tombstone, so the element is not resurrected if index is rebuilt
+            append(writeRecord(strKey, null, null));
+            return true;
+        } finally {
+            endWrite();
+        }
+    }
+
+    @Override
+    protected void processRemoveAll() throws IOException {
+        beginWrite();
+        try {
+            for (Segment segment : segments.values()) {
+                segment.close();
+                deleteSegmentFile(segment.file);
+            }
+            segments.clear();
+            totalSize = 0;
+            index.clear();
+        } finally {
+            endWrite();
+        }
+    }
+
+    @Override
+    protected void processDispose() throws IOException {
+        storageLock.writeLock().lock();
+        try {
+            for (Segment segment : segments.values()) {
+                segment.channel.force(false);
+                segment.close();
+            }
+            segments.clear();
+            index.close();
+            if (lockChannel != null) {
+                lockChannel.close();
+            }
+        } finally {
+            storageLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<K> getKeySet() throws IOException {
+        Set<K> keys = new HashSet<>();
+        beginRead();
+        try {
+            List<MappedHashIndex.Location> locations = new ArrayList<>();
+            index.forEach((hash, location) -> locations.add(location));
+            for (MappedHashIndex.Location location : locations) {
+                ByteBuffer buffer = read(location);
+                if (buffer != null) {
+                    String key = readKey(buffer);
+                    if (key != null) {
+                        keys.add(castKey(key));
+                    }
+                }
+            }
+        } finally {
+            endRead();
+        }
+        return keys;
+    }
+
+    @Override
+    public int getSize() {
+        try {
+            beginRead();
+        } catch (IOException e) {
+            Logging.warn(e);
+            return 0;
+        }
+        try {
+            return index.size();
+        } finally {
+            endRead();
+        }
+    }
+
+    @Override
+    protected String getDiskLocation() {
+        return directory.getAbsolutePath();
+    }
+
+    @Override
+    public AuxiliaryCacheAttributes getAuxiliaryCacheAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public IStats getStatistics() {
+        IStats stats = super.getStatistics();
+        stats.setTypeName("Mapped Disk Cache");
+        List<IStatElement<?>> elems = stats.getStatElements();
+        storageLock.readLock().lock();
+        try {
+            elems.add(new StatElement<>("Segments", Integer.valueOf(segments.size())));
+            elems.add(new StatElement<>("Total Size", Long.valueOf(totalSize)));
+            elems.add(new StatElement<>("Max Size", Long.valueOf(getMaxSize())));
+        } finally {
+            storageLock.readLock().unlock();
+        }
+        return stats;
+    }
+
+    /**
+     * Reads record at given location. Should be called under read lock
+     * @param location record location
+     * @return buffer containing the record, or <code>null</code> if it's segment is gone
+     * @throws IOException if reading failed
+     */
+    private ByteBuffer read(MappedHashIndex.Location location) throws IOException {
+        Segment segment = segments.get(location.segment);
+        if (segment == null) {
+            return null;
+        }
+        return segment.read(location.offset, location.length, segment.id != segments.lastKey());
+    }
+
+    /**
+     * Appends record to the active segment, starting new one if it's full. Should be called under write lock
+     * @param record record to append
+     * @return record location
+     * @throws IOException if writing failed
+     */
+    private MappedHashIndex.Location append(ByteBuffer... record) throws IOException {
+        int length = 0;
+        for (ByteBuffer part : record) {
+            length += part.remaining();
+        }
+        Segment segment = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        if (segment == null || (segment.size > 0 && segment.size + length > attributes.getSegmentSize())) {
+            int id = segment == null ? 0 : segment.id + 1;
+            // file of dropped segment, which couldn't be deleted, is skipped
+            while (!deleteSegmentFile(getSegmentFile(id))) {
+                id++;
+            }
+            segment = new Segment(id, getSegmentFile(id));
+            segments.put(id, segment);
+        }
+        long offset = segment.size;
+        // segment channel is only written here, under the write lock, so it's position could be used for gathering write
+        segment.channel.position(offset);
+        long written = 0;
+        while (written < length) {
+            written += segment.channel.write(record);
+        }
+        segment.size += length;
+        totalSize += length;
+        evictSegments();
+        updateSegmentRange();
+        return new MappedHashIndex.Location(segment.id, (int) offset, length);
+    }
+
+    private void updateSegmentRange() {
+        if (segments.isEmpty()) {
+            index.setSegmentRange(0, -1);
+        } else {
+            index.setSegmentRange(segments.firstKey(), segments.lastKey());
+        }
+    }
+
+    /**
+     * Acquires read access to the storage, in shared mode also picks up changes made by other processes
+     * @throws IOException if file lock can't be acquired, or changes can't be read
+     */
+    private void beginRead() throws IOException {
+        storageLock.readLock().lock();
+        if (!shared) {
+            return;
+        }
+        try {
+            lockShared();
+        } catch (IOException | RuntimeException e) {
+            storageLock.readLock().unlock();
+            throw e;
+        }
+        if (index.getModCount() == knownModCount) {
+            return;
+        }
+        // changed by other process, refresh under in-process write lock and downgrade to read lock
+        endRead();
+        storageLock.writeLock().lock();
+        try {
+            lockShared();
+            try {
+                refresh();
+            } catch (IOException | RuntimeException e) {
+                unlockShared();
+                throw e;
+            }
+            storageLock.readLock().lock();
+        } finally {
+            storageLock.writeLock().unlock();
+        }
+    }
+
+    private void endRead() {
+        if (shared) {
+            unlockShared();
+        }
+        storageLock.readLock().unlock();
+    }
+
+    /**
+     * Acquires exclusive access to the storage, in shared mode also picks up changes made by other processes
+     * @throws IOException if file lock can't be acquired, or changes can't be read
+     */
+    private void beginWrite() throws IOException {
+        storageLock.writeLock().lock();
+        if (!shared) {
+            return;
+        }
+        try {
+            // no in-process readers hold shared file lock now
+            exclusiveFileLock = lockChannel.lock();
+            refresh();
+        } catch (IOException | RuntimeException e) {
+            endWrite();
+            throw e;
+        }
+    }
+
+    private void endWrite() {
+        try {
+            if (exclusiveFileLock != null) {
+                if (index != null) {
+                    knownModCount = index.getModCount();
+                }
+                exclusiveFileLock.release();
+            }
+        } catch (IOException e) {
+            Logging.warn(e);
+        } finally {
+            exclusiveFileLock = null;
+            storageLock.writeLock().unlock();
+        }
+    }
+
+    private void lockShared() throws IOException {
+        synchronized (fileLockMonitor) {
+            if (sharedFileLockHolders == 0) {
+                sharedFileLock = lockChannel.lock(0, Long.MAX_VALUE, true);
+            }
+            sharedFileLockHolders++;
+        }
+    }
+
+    private void unlockShared() {
+        synchronized (fileLockMonitor) {
+            if (--sharedFileLockHolders == 0) {
+                try {
+                    sharedFileLock.release();
+                } catch (IOException e) {
+                    Logging.warn(e);
+                }
+                sharedFileLock = null;
+            }
+        }
+    }
+
+    /**
+     * Picks up segments and index changes made by other processes. Should be called under write lock and file lock
+     * @throws IOException if index or segments can't be reopened
+     */
+    private void refresh() throws IOException {
+        if (index.getModCount() == knownModCount) {
+            return;
+        }
+        if (index.reload()) {
+            // index was cleared or resized, segments could be recreated as well
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
+            segments.clear();
+        }
+        int first = index.getFirstSegment();
+        int last = index.getLastSegment();
+        while (!segments.isEmpty() && (segments.firstKey() < first || segments.lastKey() > last)) {
+            Segment dropped = segments.firstKey() < first ? segments.pollFirstEntry().getValue() : segments.pollLastEntry().getValue();
+            dropped.close();
+        }
+        for (int id = segments.isEmpty() ? first : segments.lastKey(); id <= last; id++) {
+            Segment segment = segments.get(id);
+            if (segment != null) {
+                segment.size = segment.channel.size();
+            } else {
+                File file = getSegmentFile(id);
+                if (file.isFile()) {
+                    segments.put(id, new Segment(id, file));
+                }
+            }
+        }
+        totalSize = 0;
+        for (Segment segment : segments.values()) {
+            totalSize += segment.size;
+        }
+        knownModCount = index.getModCount();
+    }
+
+    private File getSegmentFile(int id) {
+        return new File(directory, String.format("%08d", id) + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Drops oldest segments while total size is above the limit. Active segment is never dropped
+     * @throws IOException if segment couldn't be closed
+     */
+    private void evictSegments() throws IOException {
+        long maxSize = getMaxSize();
+        while (totalSize > maxSize && segments.size() > 1) {
+            Segment oldest = segments.pollFirstEntry().getValue();
+            index.removeSegment(oldest.id);
+            totalSize -= oldest.size;
+            oldest.close();
+            deleteSegmentFile(oldest.file);
+            Logging.debug("Mapped disk cache {0}: dropped segment {1}", getCacheName(), oldest.file.getName());
+        }
+    }
+
+    /**
+     * Drops segments outside of the range recorded in the index: dropped ones, which couldn't be deleted because
+     * other process still had them mapped, and new one, if process was killed before recording it. Should be called
+     * under write lock
+     * @throws IOException if segment couldn't be closed
+     */
+    private void dropStaleSegments() throws IOException {
+        int first = index.getFirstSegment();
+        int last = index.getLastSegment();
+        Iterator<Segment> it = segments.values().iterator();
+        while (it.hasNext()) {
+            Segment segment = it.next();
+            if (segment.id < first || segment.id > last) {
+                it.remove();
+                totalSize -= segment.size;
+                segment.close();
+                deleteSegmentFile(segment.file);
+            }
+        }
+    }
+
+    /**
+     * Deletes file of dropped segment. On Windows it fails while other process has the segment mapped, then the file
+     * is left outside of the live segment range, and deleted on next start
+     * @param file segment file
+     * @return <code>true</code> if file doesn't exist anymore
+     */
+    private static boolean deleteSegmentFile(File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+            return true;
+        } catch (IOException e) {
+            Logging.warn("Cannot delete cache segment {0}: {1}", file, e.toString());
+            return false;
+        }
+    }
+
+    private long getMaxSize() {
+        return attributes.getMaxSizeKB() > 0 ? attributes.getMaxSizeKB() * 1024L : Long.MAX_VALUE;
+    }
+
+    /**
+     * Fills index by scanning all the segments in order, so later records override earlier ones.
+     * Partially written record at the end of segment (e.g. after crash) is truncated
+     * @throws IOException if segments couldn't be read
+     */
+    private void rebuildIndex() throws IOException {
+        Logging.info("Rebuilding index of mapped disk cache {0}", directory);
+        for (Segment segment : segments.values()) {
+            // segment is read through the channel instead of mapping, as it could have to be truncated
+            int offset = 0;
+            while (offset + 8 <= segment.size) {
+                ByteBuffer header = segment.read(offset, 8, false);
+                if (header.getInt(0) != RECORD_MAGIC) {
+                    break;
+                }
+                int length = header.getInt(4);
+                if (length < 8 || offset + (long) length > segment.size) {
+                    break;
+                }
+                ByteBuffer buffer = segment.read(offset, length, false);
+                String key = readKey(buffer);
+                byte type = buffer.get(length - 1);
+                if (key != null) {
+                    if (type == VALUE_REMOVED) {
+                        index.remove(hash(key));
+                    } else {
+                        index.put(hash(key), new MappedHashIndex.Location(segment.id, offset, length));
+                    }
+                }
+                offset += length;
+            }
+            if (offset < segment.size) {
+                Logging.warn("Truncating broken segment {0} at {1}", segment.file, offset);
+                segment.channel.truncate(offset);
+                totalSize -= segment.size - offset;
+                segment.size = offset;
+            }
+        }
+        index.force();
+    }
+
+    /*
+     * Record layout:
+     * int magic, int record length, short key length, key (UTF-8), byte attributes type, int attribute count,
+     * attributes as pairs of (short length, UTF-8) strings, int content length, content, byte value type.
+     * Value type is the last byte, so index rebuild can recognize tombstones without parsing the whole record.
+     */
+
+    /**
+     * @return record split into header, content and value type buffers, so content of {@link CacheEntry} is written
+     * to the segment straight from the entry, without copying it into record buffer
+     */
+    private ByteBuffer[] writeRecord(String key, IElementAttributes elementAttributes, V value) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        List<byte[]> attrs = new ArrayList<>();
+        byte attributesType = ATTRIBUTES_DEFAULT;
+        if (elementAttributes instanceof CacheEntryAttributes) {
+            attributesType = ATTRIBUTES_CACHE_ENTRY;
+            for (Entry<String, String> e : ((CacheEntryAttributes) elementAttributes).getMetadata().entrySet()) {
+                attrs.add(e.getKey().getBytes(StandardCharsets.UTF_8));
+                attrs.add(e.getValue().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        byte valueType;
+        ByteBuffer content;
+        if (value == null) {
+            valueType = VALUE_REMOVED;
+            content = ByteBuffer.allocate(0);
+        } else if (value instanceof CacheEntry) {
+            valueType = value instanceof BufferedImageCacheEntry ? VALUE_IMAGE_CACHE_ENTRY : VALUE_CACHE_ENTRY;
+            content = ((CacheEntry) value).getContentBuffer();
+        } else {
+            valueType = VALUE_SERIALIZED;
+            content = ByteBuffer.wrap(getElementSerializer().serialize(value));
+        }
+        int headerLength = 4 + 4 + 2 + keyBytes.length + 1 + 4 + 4;
+        for (byte[] attr : attrs) {
+            headerLength += 2 + attr.length;
+        }
+        int length = headerLength + content.remaining() + 1;
+        ByteBuffer header = ByteBuffer.allocate(headerLength);
+        header.putInt(RECORD_MAGIC).putInt(length);
+        header.putShort((short) keyBytes.length).put(keyBytes);
+        header.put(attributesType).putInt(attrs.size() / 2);
+        for (byte[] attr : attrs) {
+            header.putShort((short) attr.length).put(attr);
+        }
+        header.putInt(content.remaining());
+        header.flip();
+        ByteBuffer type = ByteBuffer.allocate(1).put(valueType);
+        type.flip();
+        return new ByteBuffer[] {header, content, type};
+    }
+
+    /**
+     * @param buffer buffer positioned at the record start
+     * @return record key, or <code>null</code> if record is broken
+     */
+    private static String readKey(ByteBuffer buffer) {
+        if (buffer.remaining() < 10 || buffer.getInt() != RECORD_MAGIC) {
+            return null;
+        }
+        buffer.getInt();
+        return readString(buffer);
+    }
+
+    private ICacheElement<K, V> readRecord(ByteBuffer buffer, String expectedKey) throws IOException {
+        int end = buffer.limit();
+        String key = readKey(buffer);
+        if (!expectedKey.equals(key)) {
+            // broken record or 64-bit hash collision
+            return null;
+        }
+        IElementAttributes elementAttributes;
+        byte attributesType = buffer.get();
+        int attrCount = buffer.getInt();
+        if (attributesType == ATTRIBUTES_CACHE_ENTRY) {
+            Map<String, String> attrs = new HashMap<>(attrCount * 2);
+            for (int i = 0; i < attrCount; i++) {
+                attrs.put(readString(buffer), readString(buffer));
+            }
+            elementAttributes = new CacheEntryAttributes(attrs);
+        } else {
+            // loader jobs expect attributes of this type
+            elementAttributes = new CacheEntryAttributes();
+        }
+        int contentLength = buffer.getInt();
+        byte valueType = buffer.get(end - 1);
+        buffer.limit(buffer.position() + contentLength);
+        Object value;
+        switch (valueType) {
+        case VALUE_CACHE_ENTRY:
+            value = new CacheEntry(buffer);
+            break;
+        case VALUE_IMAGE_CACHE_ENTRY:
+            value = new BufferedImageCacheEntry(buffer);
+            break;
+        case VALUE_SERIALIZED:
+            byte[] data = new byte[contentLength];
+            buffer.get(data);
+            try {
+                value = getElementSerializer().deSerialize(data, null);
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+            break;
+        default:
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        V val = (V) value;
+        return new CacheElement<>(getCacheName(), castKey(key), val, elementAttributes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @SuppressWarnings("unchecked")
+    private K castKey(String key) {
+        return (K) key;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the key
+     * @param key key
+     * @return hash
+     */
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
@@ -0,0 +1,63 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.cache;
+
+import org.apache.commons.jcs.auxiliary.disk.AbstractDiskCacheAttributes;
+
+/**
+ * Configuration of {@link MappedDiskCache}
+ */
+public class MappedDiskCacheAttributes extends AbstractDiskCacheAttributes {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Default segment file size, 64 MB
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private long maxSizeKB;
+    private int segmentSize = DEFAULT_SEGMENT_SIZE;
+    private boolean shared;
+
+    /**
+     * @return max total size of segment files in kB, non-positive for unlimited
+     */
+    public long getMaxSizeKB() {
+        return maxSizeKB;
+    }
+
+    /**
+     * @param maxSizeKB max total size of segment files in kB, non-positive for unlimited
+     */
+    public void setMaxSizeKB(long maxSizeKB) {
+        this.maxSizeKB = maxSizeKB;
+    }
+
+    /**
+     * @return segment file size in bytes
+     */
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * @param segmentSize segment file size in bytes. Oldest segment is dropped at once, so it should be well below max size
+     */
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * @return <code>true</code> if cache directory could be used by several processes at once
+     */
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * @param shared <code>true</code> if cache directory could be used by several processes at once. All the processes
+     * using the directory should have it set
+     */
+    public void setShared(boolean shared) {
+        this.shared = shared;
+    }
+}
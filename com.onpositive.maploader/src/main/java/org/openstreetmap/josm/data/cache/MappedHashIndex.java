@@ -0,0 +1,466 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.cache;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.openstreetmap.josm.tools.Logging;
+
+/**
+ * Open addressing hash table stored in memory mapped file, mapping 64-bit key hashes to record locations in
+ * {@link MappedDiskCache} segments. Table is kept off-heap, so it doesn't add to the heap usage and GC work no matter
+ * how many tiles are stored, and it survives process restart without being rebuilt.
+ * <p>
+ * Keys are not stored in the index - callers should verify the key stored in the record.
+ * Not thread safe, access should be guarded by the owner.
+ * <p>
+ * Header keeps modification counter and range of live segments, so processes sharing the index can notice each other's
+ * changes. Index file is never replaced while it's mapped, which is not allowed on Windows: resize and clear write
+ * new generation of the index to the file with next number, and mark old one invalid, so other processes switch to
+ * the latest generation. Old generations are deleted once they're not mapped anymore.
+ */
+class MappedHashIndex implements Closeable {
+
+    private static final int MAGIC = 0x4D484931; // "MHI1"
+    private static final int HEADER_SIZE = 32;
+    private static final int SLOT_SIZE = 24;
+    private static final long EMPTY = 0;
+    private static final long REMOVED = 1;
+    private static final double MAX_LOAD = 0.7;
+    private static final String FILE_SUFFIX = ".dat";
+
+    /**
+     * Location of the record in segment files
+     */
+    static final class Location {
+        final int segment;
+        final int offset;
+        final int length;
+
+        Location(int segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Callback for iterating over index entries
+     */
+    interface EntryConsumer {
+        void accept(long hash, Location location);
+    }
+
+    private final File directory;
+    private final String name;
+    private final int initialCapacity;
+    private int generation;
+    private boolean created;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int count;
+    private int removed;
+    private long modCount;
+    private int firstSegment;
+    private int lastSegment;
+
+    /**
+     * Opens existing index or creates empty one
+     * @param directory directory containing index files
+     * @param name index file name prefix
+     * @param initialCapacity slot count for newly created index
+     * @throws IOException if index can't be opened
+     */
+    MappedHashIndex(File directory, String name, int initialCapacity) throws IOException {
+        this.directory = directory;
+        this.name = name;
+        this.initialCapacity = Math.max(16, Integer.highestOneBit(initialCapacity - 1) << 1);
+        openLatest();
+    }
+
+    /**
+     * @return <code>true</code> if index was just created, so it should be filled from segments
+     */
+    boolean isNew() {
+        return created;
+    }
+
+    /**
+     * Opens the latest complete generation of the index, or creates empty one if there is none, and deletes all the
+     * other generations. Incomplete generation could be left if process was killed during resize
+     * @throws IOException if index can't be opened or created
+     */
+    private void openLatest() throws IOException {
+        List<Integer> generations = listGenerations();
+        created = true;
+        for (int i = generations.size() - 1; i >= 0; i--) {
+            int existingCapacity = readCapacity(getFile(generations.get(i)));
+            if (existingCapacity > 0) {
+                generation = generations.get(i);
+                open(getFile(generation), existingCapacity, false);
+                created = false;
+                break;
+            }
+        }
+        if (created) {
+            generation = generations.isEmpty() ? 0 : generations.get(generations.size() - 1) + 1;
+            open(getFile(generation), initialCapacity, true);
+        }
+        for (int other : generations) {
+            if (other != generation) {
+                deleteGeneration(other);
+            }
+        }
+    }
+
+    private List<Integer> listGenerations() {
+        List<Integer> generations = new ArrayList<>();
+        String[] names = directory.list((dir, fileName) -> fileName.startsWith(name + '-') && fileName.endsWith(FILE_SUFFIX));
+        if (names != null) {
+            for (String fileName : names) {
+                try {
+                    generations.add(Integer.parseInt(fileName.substring(name.length() + 1, fileName.length() - FILE_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    Logging.trace(e);
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+    private File getFile(int gen) {
+        return new File(directory, String.format("%s-%08d", name, gen) + FILE_SUFFIX);
+    }
+
+    private void deleteGeneration(int gen) {
+        File old = getFile(gen);
+        try {
+            Files.deleteIfExists(old.toPath());
+        } catch (IOException e) {
+            // still mapped by other process, would be deleted later
+            Logging.debug("Cannot delete old index {0}: {1}", old, e.toString());
+        }
+    }
+
+    /**
+     * @param target index file
+     * @return slot count of the index, or -1 if file is not a complete valid index
+     */
+    private static int readCapacity(File target) {
+        try (FileChannel ch = FileChannel.open(target.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(8);
+            while (header.hasRemaining() && ch.read(header) >= 0) {
+                // read whole header
+            }
+            int existingCapacity = header.getInt(4);
+            if (header.hasRemaining() || header.getInt(0) != MAGIC || existingCapacity <= 0
+                    || ch.size() < HEADER_SIZE + (long) existingCapacity * SLOT_SIZE) {
+                return -1;
+            }
+            return existingCapacity;
+        } catch (IOException e) {
+            Logging.warn(e);
+            return -1;
+        }
+    }
+
+    private void open(File target, int slots, boolean create) throws IOException {
+        channel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        capacity = slots;
+        buffer = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * SLOT_SIZE);
+        if (create) {
+            count = 0;
+            removed = 0;
+            firstSegment = 0;
+            lastSegment = -1;
+            writeHeader();
+        } else {
+            readHeader();
+        }
+    }
+
+    private void readHeader() {
+        count = buffer.getInt(8);
+        removed = buffer.getInt(12);
+        modCount = buffer.getLong(16);
+        firstSegment = buffer.getInt(24);
+        lastSegment = buffer.getInt(28);
+    }
+
+    private void writeHeader() {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, capacity);
+        buffer.putInt(8, count);
+        buffer.putInt(12, removed);
+        buffer.putLong(16, ++modCount);
+        buffer.putInt(24, firstSegment);
+        buffer.putInt(28, lastSegment);
+    }
+
+    /**
+     * Re-reads header changed by other process, switching to the latest generation if current one was replaced
+     * @return <code>true</code> if index was reopened, so all the segments could be changed
+     * @throws IOException if index can't be reopened
+     */
+    boolean reload() throws IOException {
+        if (buffer.getInt(0) == MAGIC) {
+            readHeader();
+            return false;
+        }
+        closeMapping();
+        openLatest();
+        return true;
+    }
+
+    /**
+     * @return modification counter, as seen in the file. Changes on each index modification by any process
+     */
+    long getModCount() {
+        return buffer.getInt(0) == MAGIC ? buffer.getLong(16) : -1;
+    }
+
+    /**
+     * @return id of the oldest live segment
+     */
+    int getFirstSegment() {
+        return firstSegment;
+    }
+
+    /**
+     * @return id of the active segment, or -1 if there are no segments
+     */
+    int getLastSegment() {
+        return lastSegment;
+    }
+
+    /**
+     * @param first id of the oldest live segment
+     * @param last id of the active segment, or -1 if there are no segments
+     */
+    void setSegmentRange(int first, int last) {
+        if (first != firstSegment || last != lastSegment) {
+            firstSegment = first;
+            lastSegment = last;
+            writeHeader();
+        }
+    }
+
+    /**
+     * @param hash key hash
+     * @return location of the record or <code>null</code> if not found
+     */
+    Location get(long hash) {
+        int slot = findSlot(hash(hash));
+        if (slot < 0) {
+            return null;
+        }
+        int pos = position(slot);
+        return new Location(buffer.getInt(pos + 8), buffer.getInt(pos + 12), buffer.getInt(pos + 16));
+    }
+
+    /**
+     * Put or replace location for given key hash
+     * @param hash key hash
+     * @param location record location
+     * @throws IOException if index had to grow, and new index file could not be created
+     */
+    void put(long hash, Location location) throws IOException {
+        if (count + removed + 1 > capacity * MAX_LOAD) {
+            resize(count + 1 > capacity * MAX_LOAD / 2 ? capacity * 2 : capacity);
+        }
+        long h = hash(hash);
+        int slot = findSlot(h);
+        if (slot < 0) {
+            slot = -slot - 1;
+            if (buffer.getLong(position(slot)) == REMOVED) {
+                removed--;
+            }
+            count++;
+        }
+        writeSlot(slot, h, location);
+        writeHeader();
+    }
+
+    /**
+     * @param hash key hash
+     * @return <code>true</code> if entry was removed
+     */
+    boolean remove(long hash) {
+        int slot = findSlot(hash(hash));
+        if (slot < 0) {
+            return false;
+        }
+        buffer.putLong(position(slot), REMOVED);
+        count--;
+        removed++;
+        writeHeader();
+        return true;
+    }
+
+    /**
+     * Removes all the entries pointing to given segment
+     * @param segment segment id
+     */
+    void removeSegment(int segment) {
+        for (int slot = 0; slot < capacity; slot++) {
+            int pos = position(slot);
+            long h = buffer.getLong(pos);
+            if (h != EMPTY && h != REMOVED && buffer.getInt(pos + 8) == segment) {
+                buffer.putLong(pos, REMOVED);
+                count--;
+                removed++;
+            }
+        }
+        writeHeader();
+    }
+
+    /**
+     * @param consumer consumer for all the live entries
+     */
+    void forEach(EntryConsumer consumer) {
+        for (int slot = 0; slot < capacity; slot++) {
+            int pos = position(slot);
+            long h = buffer.getLong(pos);
+            if (h != EMPTY && h != REMOVED) {
+                consumer.accept(h, new Location(buffer.getInt(pos + 8), buffer.getInt(pos + 12), buffer.getInt(pos + 16)));
+            }
+        }
+    }
+
+    /**
+     * Removes all the entries
+     * @throws IOException if index file can't be recreated
+     */
+    void clear() throws IOException {
+        int oldGeneration = generation;
+        invalidate();
+        closeMapping();
+        generation++;
+        Files.deleteIfExists(getFile(generation).toPath());
+        open(getFile(generation), 16, true);
+        deleteGeneration(oldGeneration);
+    }
+
+    /**
+     * @return live entries count
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Writes index changes to the disk
+     */
+    void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            buffer.force();
+            closeMapping();
+        }
+    }
+
+    private void closeMapping() throws IOException {
+        MappedBuffers.unmap(buffer);
+        buffer = null;
+        channel.close();
+        channel = null;
+    }
+
+    private void resize(int newCapacity) throws IOException {
+        MappedByteBuffer old = buffer;
+        FileChannel oldChannel = channel;
+        int oldCapacity = capacity;
+        int oldGeneration = generation;
+        generation++;
+        Files.deleteIfExists(getFile(generation).toPath());
+        open(getFile(generation), newCapacity, true);
+        // new generation is not valid until it's filled
+        buffer.putInt(0, 0);
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            int pos = position(slot);
+            long h = old.getLong(pos);
+            if (h != EMPTY && h != REMOVED) {
+                int newSlot = -findSlot(h) - 1;
+                writeSlot(newSlot, h, new Location(old.getInt(pos + 8), old.getInt(pos + 12), old.getInt(pos + 16)));
+                count++;
+            }
+        }
+        writeHeader();
+        buffer.force();
+        // mark old generation as replaced, for other processes mapping it
+        old.putInt(0, 0);
+        old.force();
+        MappedBuffers.unmap(old);
+        oldChannel.close();
+        deleteGeneration(oldGeneration);
+    }
+
+    /**
+     * Marks current index file as replaced, for other processes mapping it
+     */
+    private void invalidate() {
+        buffer.putInt(0, 0);
+        buffer.force();
+    }
+
+    /**
+     * Linear probing lookup
+     * @param h slot hash
+     * @return slot index if found, or <code>-(insertion slot) - 1</code> if not found
+     */
+    private int findSlot(long h) {
+        int mask = capacity - 1;
+        int slot = (int) (h ^ (h >>> 32)) & mask;
+        int firstRemoved = -1;
+        for (int i = 0; i < capacity; i++) {
+            long current = buffer.getLong(position(slot));
+            if (current == h) {
+                return slot;
+            }
+            if (current == EMPTY) {
+                return -(firstRemoved >= 0 ? firstRemoved : slot) - 1;
+            }
+            if (current == REMOVED && firstRemoved < 0) {
+                firstRemoved = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -firstRemoved - 1;
+    }
+
+    private void writeSlot(int slot, long h, Location location) {
+        int pos = position(slot);
+        buffer.putInt(pos + 8, location.segment);
+        buffer.putInt(pos + 12, location.offset);
+        buffer.putInt(pos + 16, location.length);
+        buffer.putLong(pos, h);
+    }
+
+    private static int position(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    /**
+     * @param hash key hash
+     * @return hash which doesn't collide with empty and removed slot markers
+     */
+    private static long hash(long hash) {
+        return hash == EMPTY || hash == REMOVED ? hash + 2 : hash;
+    }
+}
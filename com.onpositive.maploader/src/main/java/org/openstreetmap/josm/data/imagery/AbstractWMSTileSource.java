@@ -215,10 +215,35 @@ public abstract class AbstractWMSTileSource extends TMSTileSource {
         return this.tileProjection.toCode();
     }
 
+    /**
+     * Returns GetMap URL for arbitrary area and image size, not aligned to the tile grid
+     * @param nw north-west corner of the area, in tile projection
+     * @param se south-east corner of the area, in tile projection
+     * @param width image width, in pixels
+     * @param height image height, in pixels
+     * @return GetMap URL
+     */
+    public abstract String getMapUrl(EastNorth nw, EastNorth se, int width, int height);
+
+    /**
+     * Returns GetMap URL for the area between given lat/lon corners
+     * @param min south-west corner
+     * @param max north-east corner
+     * @param width image width, in pixels
+     * @param height image height, in pixels
+     * @return GetMap URL
+     * @see #getMapUrl(EastNorth, EastNorth, int, int)
+     */
+    public String getMapUrl(LatLon min, LatLon max, int width, int height) {
+        return getMapUrl(tileProjection.latlon2eastNorth(new LatLon(max.lat(), min.lon())),
+                tileProjection.latlon2eastNorth(new LatLon(min.lat(), max.lon())), width, height);
+    }
+
     protected String getBbox(int zoom, int tilex, int tiley, boolean switchLatLon) {
-        EastNorth nw = getTileEastNorth(tilex, tiley, zoom);
-        EastNorth se = getTileEastNorth(tilex + 1, tiley + 1, zoom);
+        return getBbox(getTileEastNorth(tilex, tiley, zoom), getTileEastNorth(tilex + 1, tiley + 1, zoom), switchLatLon);
+    }
 
+    protected String getBbox(EastNorth nw, EastNorth se, boolean switchLatLon) {
         double w = nw.getX();
         double n = nw.getY();
 
@@ -49,6 +49,12 @@ public class CachedTileLoaderFactory implements TileLoaderFactory {
 
     @Override
     public TileLoader makeTileLoader(TileLoaderListener listener, Map<String, String> inputHeaders, long minimumExpiryTime) {
+        return makeTileLoader(listener, inputHeaders, minimumExpiryTime, false);
+    }
+
+    @Override
+    public TileLoader makeTileLoader(TileLoaderListener listener, Map<String, String> inputHeaders, long minimumExpiryTime,
+            boolean http2) {
         Map<String, String> headers = new ConcurrentHashMap<>();
         headers.put("User-Agent", Version.getInstance().getFullAgentString());
         headers.put("Accept", "text/html, image/png, image/jpeg, image/gif, */*");
@@ -60,7 +66,8 @@ public class CachedTileLoaderFactory implements TileLoaderFactory {
                         (int) TimeUnit.SECONDS.toMillis(15),
                         (int) TimeUnit.SECONDS.toMillis(30),
                         headers,
-                        minimumExpiryTime
+                        minimumExpiryTime,
+                        http2
                         )
                 );
     }
@@ -284,6 +284,8 @@ public class ImageryInfo extends TileSourceInfo implements Comparable<ImageryInf
     private Map<String, String> customHttpHeaders = new ConcurrentHashMap<>();
     /** Should this map be transparent **/
     private boolean transparent = true;
+    /** Should tiles be requested with HTTP/2 capable client **/
+    private boolean http2;
     private int minimumTileExpire = (int) TimeUnit.MILLISECONDS.toSeconds(TMSCachedTileLoaderJob.MINIMUM_EXPIRES.get());
     /** category of the imagery */
     private ImageryCategory category;
@@ -336,6 +338,7 @@ public class ImageryInfo extends TileSourceInfo implements Comparable<ImageryInf
         @StructEntry String default_layers;
         @StructEntry Map<String, String> customHttpHeaders;
         @StructEntry boolean transparent;
+        @StructEntry boolean http2;
         @StructEntry int minimumTileExpire;
         @StructEntry String category;
 
@@ -411,6 +414,7 @@ public class ImageryInfo extends TileSourceInfo implements Comparable<ImageryInf
             }
             customHttpHeaders = i.customHttpHeaders;
             transparent = i.isTransparent();
+            http2 = i.isHttp2();
             minimumTileExpire = i.minimumTileExpire;
         }
 
@@ -564,6 +568,7 @@ public class ImageryInfo extends TileSourceInfo implements Comparable<ImageryInf
         }
         customHttpHeaders = e.customHttpHeaders;
         transparent = e.transparent;
+        http2 = e.http2;
         minimumTileExpire = e.minimumTileExpire;
         category = ImageryCategory.fromString(e.category);
     }
@@ -612,6 +617,7 @@ public class ImageryInfo extends TileSourceInfo implements Comparable<ImageryInf
         this.defaultLayers = i.defaultLayers;
         this.customHttpHeaders = i.customHttpHeaders;
         this.transparent = i.transparent;
+        this.http2 = i.http2;
         this.minimumTileExpire = i.minimumTileExpire;
         this.category = i.category;
     }
@@ -668,6 +674,7 @@ public class ImageryInfo extends TileSourceInfo implements Comparable<ImageryInf
                 Objects.equals(this.defaultLayers, other.defaultLayers) &&
                 Objects.equals(this.customHttpHeaders, other.customHttpHeaders) &&
                 Objects.equals(this.transparent, other.transparent) &&
+                Objects.equals(this.http2, other.http2) &&
                 Objects.equals(this.minimumTileExpire, other.minimumTileExpire) &&
                 Objects.equals(this.category, other.category);
         // CHECKSTYLE.ON: BooleanExpressionComplexity
@@ -1553,6 +1560,23 @@ public class ImageryInfo extends TileSourceInfo implements Comparable<ImageryInf
         this.transparent = transparent;
     }
 
+    /**
+     * Determines if tiles of this imagery should be requested with HTTP/2 capable client, see
+     * {@link org.openstreetmap.josm.tools.HttpClient#useHttp2(boolean)}.
+     * @return should tiles be requested with HTTP/2 capable client
+     */
+    public boolean isHttp2() {
+        return http2;
+    }
+
+    /**
+     * Sets whether tiles of this imagery should be requested with HTTP/2 capable client.
+     * @param http2 set to true if server supports HTTP/2
+     */
+    public void setHttp2(boolean http2) {
+        this.http2 = http2;
+    }
+
     /**
      * Returns minimum tile expiration in seconds.
      * @return minimum tile expiration in seconds
@@ -1,8 +1,8 @@
 // License: GPL. For details, see LICENSE file.
 package org.openstreetmap.josm.data.imagery;
 
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.jcs.access.behavior.ICacheAccess;
 import org.openstreetmap.gui.jmapviewer.Tile;
@@ -12,7 +12,9 @@ import org.openstreetmap.gui.jmapviewer.interfaces.TileLoader;
 import org.openstreetmap.gui.jmapviewer.interfaces.TileLoaderListener;
 import org.openstreetmap.gui.jmapviewer.interfaces.TileSource;
 import org.openstreetmap.josm.data.cache.BufferedImageCacheEntry;
+import org.openstreetmap.josm.data.cache.ExecutionMode;
 import org.openstreetmap.josm.data.cache.HostLimitQueue;
+import org.openstreetmap.josm.data.cache.JCSCachedTileLoaderJob;
 import org.openstreetmap.josm.data.preferences.IntegerProperty;
 import org.openstreetmap.josm.tools.CheckParameterUtil;
 import org.openstreetmap.josm.tools.Utils;
@@ -38,6 +40,11 @@ public class TMSCachedTileLoader implements TileLoader, CachedTileLoader {
      */
     public static final IntegerProperty HOST_LIMIT = new IntegerProperty("imagery.tms.tmsloader.maxjobsperhost", 6);
 
+    /**
+     * Limit up to which per host concurrent connections may grow, while host responds without throttling
+     */
+    public static final IntegerProperty MAX_HOST_LIMIT = new IntegerProperty("imagery.tms.tmsloader.maxjobsperhost.max", 32);
+
     /**
      * separate from JCS thread pool for TMS loader, so we can have different thread pools for default JCS
      * and for TMS imagery
@@ -67,7 +74,8 @@ public class TMSCachedTileLoader implements TileLoader, CachedTileLoader {
      * @return new ThreadPoolExecutor that will use a @see HostLimitQueue based queue
      */
     public static ThreadPoolExecutor getNewThreadPoolExecutor(String nameFormat, int workers) {
-        return getNewThreadPoolExecutor(nameFormat, workers, HOST_LIMIT.get().intValue());
+        return ExecutionMode.getDefault().newHostLimitedExecutor(nameFormat, workers, HOST_LIMIT.get().intValue(),
+                MAX_HOST_LIMIT.get().intValue());
     }
 
     /**
@@ -77,14 +85,7 @@ public class TMSCachedTileLoader implements TileLoader, CachedTileLoader {
      * @return new ThreadPoolExecutor that will use a @see HostLimitQueue based queue
      */
     public static ThreadPoolExecutor getNewThreadPoolExecutor(String nameFormat, int workers, int hostLimit) {
-        return new ThreadPoolExecutor(
-                workers, // keep core pool the same size as max, as we use unbounded queue so there will
-                workers, // be never more threads than corePoolSize
-                300, // keep alive for thread
-                TimeUnit.SECONDS,
-                new HostLimitQueue(hostLimit),
-                Utils.newThreadFactory(nameFormat, Thread.NORM_PRIORITY)
-                );
+        return ExecutionMode.getDefault().newHostLimitedExecutor(nameFormat, workers, hostLimit);
     }
 
     /**
@@ -105,6 +106,14 @@ public class TMSCachedTileLoader implements TileLoader, CachedTileLoader {
                 getDownloadExecutor());
     }
 
+    /**
+     * @param tile tile
+     * @return key, under which content of given tile is stored in the cache
+     */
+    public String getCacheKey(Tile tile) {
+        return new TMSCachedTileLoaderJob(null, tile, cache, options, getDownloadExecutor()).getCacheKey();
+    }
+
     @Override
     public void clearCache(TileSource source) {
         this.cache.remove(source.getName() + ':');
@@ -117,6 +126,14 @@ public class TMSCachedTileLoader implements TileLoader, CachedTileLoader {
         return cache.getStats();
     }
 
+    /**
+     * @return current per host limits of the download executor, see {@link HostLimitQueue#getStats()}
+     */
+    public String getHostLimitStats() {
+        BlockingQueue<Runnable> queue = getDownloadExecutor().getQueue();
+        return queue instanceof HostLimitQueue ? ((HostLimitQueue) queue).getStats() : "";
+    }
+
     /**
      * cancels all outstanding tasks in the queue. This rollbacks the state of the tiles in the queue
      * to loading = false / loaded = false
@@ -124,15 +141,18 @@ public class TMSCachedTileLoader implements TileLoader, CachedTileLoader {
     @Override
     public void cancelOutstandingTasks() {
         for (Runnable r: downloadExecutor.getQueue()) {
-            if (downloadExecutor.remove(r) && r instanceof TMSCachedTileLoaderJob) {
-                ((TMSCachedTileLoaderJob) r).handleJobCancellation();
+            JCSCachedTileLoaderJob<?, ?> job = JCSCachedTileLoaderJob.getJob(r);
+            if (downloadExecutor.remove(r) && job instanceof TMSCachedTileLoaderJob) {
+                ((TMSCachedTileLoaderJob) job).handleJobCancellation();
             }
         }
+        JCSCachedTileLoaderJob.cancelScheduledRetries(downloadExecutor);
     }
 
     @Override
     public boolean hasOutstandingTasks() {
-        return downloadExecutor.getTaskCount() > downloadExecutor.getCompletedTaskCount();
+        return downloadExecutor.getTaskCount() > downloadExecutor.getCompletedTaskCount()
+                || JCSCachedTileLoaderJob.hasScheduledRetries(downloadExecutor);
     }
 
     /**
@@ -3,18 +3,16 @@ package org.openstreetmap.josm.data.imagery;
 
 
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.text.MessageFormat;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
@@ -32,6 +30,7 @@ import org.openstreetmap.gui.jmapviewer.tilesources.AbstractTMSTileSource;
 import org.openstreetmap.josm.data.cache.BufferedImageCacheEntry;
 import org.openstreetmap.josm.data.cache.CacheEntry;
 import org.openstreetmap.josm.data.cache.CacheEntryAttributes;
+import org.openstreetmap.josm.data.cache.DecodedImageCache;
 import org.openstreetmap.josm.data.cache.ICachedLoaderListener;
 import org.openstreetmap.josm.data.cache.JCSCachedTileLoaderJob;
 import org.openstreetmap.josm.data.preferences.LongProperty;
@@ -55,11 +54,26 @@ public class TMSCachedTileLoaderJob extends JCSCachedTileLoaderJob<String, Buffe
     static final Pattern JSON_PATTERN = Pattern.compile("\\{\"message\":\"(.+)\"\\}");
     protected final Tile tile;
     private volatile URL url;
+    private volatile String cacheKey;
     private final TileJobOptions options;
 
     // we need another deduplication of Tile Loader listeners, as for each submit, new TMSCachedTileLoaderJob was created
-    // that way, we reduce calls to tileLoadingFinished, and general CPU load due to surplus Map repaints
-    private static final ConcurrentMap<String, Set<TileLoaderListener>> inProgress = new ConcurrentHashMap<>();
+    // that way, we reduce calls to tileLoadingFinished, and general CPU load due to surplus Map repaints.
+    // Listeners are attached to the future shared by all jobs of the same tile, so no global lock is needed
+    private static final ConcurrentMap<Object, CompletableFuture<LoadedTile>> inProgress = new ConcurrentHashMap<>();
+
+    /**
+     * Tile, which has finished loading, and the loading status, passed to all the listeners waiting for the tile
+     */
+    private static final class LoadedTile {
+        private final Tile tile;
+        private final boolean success;
+
+        LoadedTile(Tile tile, boolean success) {
+            this.tile = tile;
+            this.success = success;
+        }
+    }
 
     /**
      * Constructor for creating a job, to get a specific tile from cache
@@ -77,21 +91,37 @@ public class TMSCachedTileLoaderJob extends JCSCachedTileLoaderJob<String, Buffe
         this.tile = tile;
         this.options = options;
         if (listener != null) {
-            String deduplicationKey = getCacheKey();
-            synchronized (inProgress) {
-                inProgress.computeIfAbsent(deduplicationKey, k -> new HashSet<>()).add(listener);
-            }
+            inProgress.computeIfAbsent(getDeduplicationKey(), k -> new CompletableFuture<>())
+                    .thenAccept(loaded -> notifyListener(listener, loaded));
         }
     }
 
     @Override
     public String getCacheKey() {
-        if (tile != null) {
-            TileSource tileSource = tile.getTileSource();
-            return Optional.ofNullable(tileSource.getName()).orElse("").replace(':', '_') + ':'
-                    + tileSource.getTileId(tile.getZoom(), tile.getXtile(), tile.getYtile());
+        String key = cacheKey;
+        if (key == null && tile != null) {
+            key = buildCacheKey();
+            cacheKey = key;
         }
-        return null;
+        return key;
+    }
+
+    /**
+     * Builds key of the tile in JCS cache. Called once per job, key is kept for subsequent {@link #getCacheKey()} calls
+     * @return cache key
+     */
+    protected String buildCacheKey() {
+        TileSource tileSource = tile.getTileSource();
+        return Optional.ofNullable(tileSource.getName()).orElse("").replace(':', '_') + ':'
+                + tileSource.getTileId(tile.getZoom(), tile.getXtile(), tile.getYtile());
+    }
+
+    /**
+     * Tiles of the same source are identified by compact tile key, so deduplication doesn't need tile URL
+     */
+    @Override
+    protected Object getDeduplicationKey() {
+        return tile.getTileKey();
     }
 
     /*
@@ -121,9 +151,8 @@ public class TMSCachedTileLoaderJob extends JCSCachedTileLoaderJob<String, Buffe
     @Override
     public boolean isObjectLoadable() {
         if (cacheData != null) {
-            byte[] content = cacheData.getContent();
             try {
-                return content.length > 0 || cacheData.getImage() != null || isNoTileAtZoom();
+                return cacheData.getContentLength() > 0 || cacheData.getImage() != null || isNoTileAtZoom();
             } catch (IOException e) {
                 Logging.logWithStackTrace(Logging.LEVEL_WARN, e, "JCS TMS - error loading from cache for tile {0}: {1}",
                         tile.getKey(), e.getMessage());
@@ -157,6 +186,11 @@ public class TMSCachedTileLoaderJob extends JCSCachedTileLoaderJob<String, Buffe
             Logging.log(Logging.LEVEL_WARN, e);
             tile.finishLoading();
             tile.setError(e.getMessage());
+            // job never started, so nothing else would notify listeners waiting for the tile
+            CompletableFuture<LoadedTile> listeners = inProgress.remove(getDeduplicationKey());
+            if (listeners != null) {
+                listeners.complete(new LoadedTile(tile, false));
+            }
         }
 		return null;
     }
@@ -164,10 +198,8 @@ public class TMSCachedTileLoaderJob extends JCSCachedTileLoaderJob<String, Buffe
     @Override
     public void loadingFinished(CacheEntry object, CacheEntryAttributes attributes, LoadResult result) {
         this.attributes = attributes; // as we might get notification from other object than our selfs, pass attributes along
-        Set<TileLoaderListener> listeners;
-        synchronized (inProgress) {
-            listeners = inProgress.remove(getCacheKey());
-        }
+        // listeners might be null, if some other thread notified already about success
+        CompletableFuture<LoadedTile> listeners = inProgress.remove(getDeduplicationKey());
         boolean status = result == LoadResult.SUCCESS;
 
         try {
@@ -201,23 +233,28 @@ public class TMSCachedTileLoaderJob extends JCSCachedTileLoaderJob<String, Buffe
             }
 
             // always check, if there is some listener interested in fact, that tile has finished loading
-            if (listeners != null) { // listeners might be null, if some other thread notified already about success
-                for (TileLoaderListener l: listeners) {
-                    l.tileLoadingFinished(tile, status);
-                }
+            if (listeners != null) {
+                listeners.complete(new LoadedTile(tile, status));
             }
         } catch (IOException e) {
             Logging.warn("JCS TMS - error loading object for tile {0}: {1}", tile.getKey(), e.getMessage());
             tile.setError(e);
             tile.setLoaded(false);
-            if (listeners != null) { // listeners might be null, if some other thread notified already about success
-                for (TileLoaderListener l: listeners) {
-                    l.tileLoadingFinished(tile, false);
-                }
+            if (listeners != null) {
+                listeners.complete(new LoadedTile(tile, false));
             }
         }
     }
 
+    private static void notifyListener(TileLoaderListener listener, LoadedTile loaded) {
+        try {
+            listener.tileLoadingFinished(loaded.tile, loaded.success);
+        } catch (RuntimeException e) {
+            Logging.logWithStackTrace(Logging.LEVEL_ERROR, e, "JCS TMS - error notifying listener about tile {0}",
+                    loaded.tile.getKey());
+        }
+    }
+
     private void handleError(CacheEntryAttributes attributes) {
         if (attributes != null) {
             int httpStatusCode = attributes.getResponseCode();
@@ -256,7 +293,8 @@ public class TMSCachedTileLoaderJob extends JCSCachedTileLoaderJob<String, Buffe
 
     @Override
     protected BufferedImageCacheEntry createCacheEntry(byte[] content) {
-        return new BufferedImageCacheEntry(content);
+        // content is freshly downloaded and not referenced elsewhere
+        return BufferedImageCacheEntry.wrap(content);
     }
 
     @Override
@@ -299,8 +337,9 @@ public class TMSCachedTileLoaderJob extends JCSCachedTileLoaderJob<String, Buffe
         if (object != null) {
             byte[] content = object.getContent();
             if (content.length > 0) {
-                try (ByteArrayInputStream in = new ByteArrayInputStream(content)) {
-                    tile.loadImage(in);
+                try {
+                    // decoded image is shared with other tiles having the same content, e.g. re-created after eviction
+                    tile.setImage(DecodedImageCache.getInstance().getImage(getCacheKey(), content));
                     if (tile.getImage() == null) {
                         String s = new String(content, StandardCharsets.UTF_8);
                         Matcher m = SERVICE_EXCEPTION_PATTERN.matcher(s);
@@ -97,10 +97,12 @@ public class TemplatedWMSTileSource extends AbstractWMSTileSource implements Tem
 
     @Override
     public String getTileUrl(int zoom, int tilex, int tiley) {
-        String myProjCode = getServerCRS();
+        return getMapUrl(getTileEastNorth(tilex, tiley, zoom), getTileEastNorth(tilex + 1, tiley + 1, zoom), getTileSize(), getTileSize());
+    }
 
-        EastNorth nw = getTileEastNorth(tilex, tiley, zoom);
-        EastNorth se = getTileEastNorth(tilex + 1, tiley + 1, zoom);
+    @Override
+    public String getMapUrl(EastNorth nw, EastNorth se, int width, int height) {
+        String myProjCode = getServerCRS();
 
         double w = nw.getX();
         double n = nw.getY();
@@ -125,7 +127,7 @@ public class TemplatedWMSTileSource extends AbstractWMSTileSource implements Tem
                 replacement = myProjCode.startsWith("EPSG:") ? myProjCode.substring(5) : myProjCode;
                 break;
             case "bbox":
-                replacement = getBbox(zoom, tilex, tiley, switchLatLon);
+                replacement = getBbox(nw, se, switchLatLon);
                 break;
             case "w":
                 replacement = LATLON_FORMAT.format(w);
@@ -140,8 +142,10 @@ public class TemplatedWMSTileSource extends AbstractWMSTileSource implements Tem
                 replacement = LATLON_FORMAT.format(n);
                 break;
             case "width":
+                replacement = String.valueOf(width);
+                break;
             case "height":
-                replacement = String.valueOf(getTileSize());
+                replacement = String.valueOf(height);
                 break;
             default:
                 replacement = '{' + matcher.group(1) + '}';
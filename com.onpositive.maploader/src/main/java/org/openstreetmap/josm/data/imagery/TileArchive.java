@@ -0,0 +1,199 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.imagery;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only single file tile archive, written by {@link TileArchiveWriter}.
+ * <p>
+ * File layout is similar to PMTiles: fixed size header, tile data clustered by tile id, and directory of
+ * {@code (tile id, offset, length)} entries sorted by tile id at the end of the file. Tile id enumerates tiles zoom by
+ * zoom, and tiles of the same zoom in Z-order (Morton) order, so spatially close tiles are stored close to each other.
+ * <p>
+ * Directory is memory mapped and searched in place, tile content is read with positional reads from the file channel,
+ * so archive could be shared by many loader threads and doesn't need to fit into memory.
+ */
+public class TileArchive implements Closeable {
+
+    /**
+     * Default file extension of the tile archive
+     */
+    public static final String EXTENSION = ".mlta";
+
+    static final int MAGIC = 0x4D4C5441; // "MLTA"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int ENTRY_SIZE = 20;
+
+    /**
+     * Max supported zoom level, so that tile ids of all zoom levels fit into long
+     */
+    public static final int MAX_ZOOM = 30;
+
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer directory;
+    private final int entryCount;
+
+    /**
+     * Opens tile archive
+     * @param file archive file
+     * @throws IOException if file can't be read or is not a valid tile archive
+     */
+    public TileArchive(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(header, 0);
+            header.flip();
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("Not a tile archive: " + file);
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException("Unsupported tile archive version " + header.getInt(4) + ": " + file);
+            }
+            entryCount = header.getInt(8);
+            long directoryOffset = header.getLong(16);
+            if (directoryOffset < HEADER_SIZE || directoryOffset + (long) entryCount * ENTRY_SIZE > channel.size()) {
+                throw new IOException("Tile archive is truncated: " + file);
+            }
+            directory = channel.map(MapMode.READ_ONLY, directoryOffset, (long) entryCount * ENTRY_SIZE);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns tile id used to order tiles in the archive: count of tiles on all lower zoom levels plus Z-order code of
+     * the tile within it's zoom level
+     * @param zoom zoom level
+     * @param x tile x
+     * @param y tile y
+     * @return tile id
+     */
+    public static long getTileId(int zoom, int x, int y) {
+        if (zoom < 0 || zoom > MAX_ZOOM) {
+            throw new IllegalArgumentException("Unsupported zoom level: " + zoom);
+        }
+        long base = ((1L << (2 * zoom)) - 1) / 3;
+        return base + (interleave(x) | (interleave(y) << 1));
+    }
+
+    /**
+     * @param layerName imagery layer name
+     * @return file name of the archive for given layer
+     */
+    public static String getFileName(String layerName) {
+        return layerName.replaceAll("[^A-Za-z0-9._-]", "_") + EXTENSION;
+    }
+
+    /**
+     * Reads encoded tile content
+     * @param zoom zoom level
+     * @param x tile x
+     * @param y tile y
+     * @return tile content or <code>null</code> if archive doesn't contain such tile
+     * @throws IOException if an error occurs during reading
+     */
+    public byte[] getTile(int zoom, int x, int y) throws IOException {
+        if (x < 0 || y < 0 || zoom < 0 || zoom > MAX_ZOOM) {
+            return null;
+        }
+        int idx = find(getTileId(zoom, x, y));
+        if (idx < 0) {
+            return null;
+        }
+        int pos = idx * ENTRY_SIZE;
+        long offset = directory.getLong(pos + 8);
+        int length = directory.getInt(pos + 16);
+        ByteBuffer content = ByteBuffer.allocate(length);
+        readFully(content, offset);
+        return content.array();
+    }
+
+    /**
+     * @param zoom zoom level
+     * @param x tile x
+     * @param y tile y
+     * @return <code>true</code> if archive contains given tile
+     */
+    public boolean contains(int zoom, int x, int y) {
+        return x >= 0 && y >= 0 && zoom >= 0 && zoom <= MAX_ZOOM && find(getTileId(zoom, x, y)) >= 0;
+    }
+
+    /**
+     * @return number of tiles in archive
+     */
+    public int size() {
+        return entryCount;
+    }
+
+    /**
+     * @return archive file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "TileArchive [file=" + file + ", tiles=" + entryCount + ']';
+    }
+
+    private int find(long tileId) {
+        int low = 0;
+        int high = entryCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = directory.getLong(mid * ENTRY_SIZE);
+            if (midId < tileId) {
+                low = mid + 1;
+            } else if (midId > tileId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, pos);
+            if (read < 0) {
+                throw new IOException("Unexpected end of tile archive: " + file);
+            }
+            pos += read;
+        }
+    }
+
+    /**
+     * Spreads bits of given value, so there is one zero bit between each pair of source bits
+     * @param value value to spread
+     * @return value with spread bits
+     */
+    private static long interleave(int value) {
+        long x = value & 0xFFFFFFFFL;
+        x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x;
+    }
+}
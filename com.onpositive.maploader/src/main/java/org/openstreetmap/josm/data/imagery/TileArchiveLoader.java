@@ -0,0 +1,142 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.imagery;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.openstreetmap.gui.jmapviewer.Tile;
+import org.openstreetmap.gui.jmapviewer.interfaces.TileJob;
+import org.openstreetmap.gui.jmapviewer.interfaces.TileLoader;
+import org.openstreetmap.gui.jmapviewer.interfaces.TileLoaderListener;
+import org.openstreetmap.josm.data.cache.DecodedImageCache;
+import org.openstreetmap.josm.tools.Logging;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * {@link TileLoader} serving tiles from local {@link TileArchive}, without any network access. Tiles missing in the
+ * archive are reported as failed.
+ */
+public class TileArchiveLoader implements TileLoader {
+
+    private static final ThreadPoolExecutor JOB_DISPATCHER = new ThreadPoolExecutor(
+            Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors(),
+            0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+            Utils.newThreadFactory("Tile-archive-loader-%d", Thread.NORM_PRIORITY));
+
+    private final TileLoaderListener listener;
+    private final TileArchive archive;
+
+    private final class ArchiveTileJob implements TileJob {
+        private final Tile tile;
+
+        private ArchiveTileJob(Tile tile) {
+            this.tile = tile;
+        }
+
+        @Override
+        public void run() {
+            boolean success = false;
+            try {
+                byte[] content = archive.getTile(tile.getZoom(), tile.getXtile(), tile.getYtile());
+                if (content == null) {
+                    tile.setError("No tile in archive");
+                } else {
+                    BufferedImage image = DecodedImageCache.getInstance().getImage(tile.getKey(), content);
+                    if (image == null) {
+                        tile.setError("Unable to decode tile image");
+                    } else {
+                        tile.setImage(image);
+                        success = true;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                Logging.warn("Error reading tile {0} from {1}: {2}", tile.getKey(), archive.getFile(), e.toString());
+                tile.setError(e);
+            } finally {
+                tile.finishLoading();
+                // listener is notified whatever happened, callers wait for it
+                listener.tileLoadingFinished(tile, success);
+            }
+        }
+
+        @Override
+        public void submit() {
+            submit(false);
+        }
+
+        @Override
+        public Future<?> submit(boolean force) {
+            tile.initLoading();
+            JobFuture future = new JobFuture(this);
+            JOB_DISPATCHER.execute(future);
+            return future;
+        }
+
+        private TileArchiveLoader getLoader() {
+            return TileArchiveLoader.this;
+        }
+
+        private void cancel() {
+            tile.loadingCanceled();
+            listener.tileLoadingFinished(tile, false);
+        }
+    }
+
+    /**
+     * Future of the submitted job, allows to find the job in dispatcher queue
+     */
+    private static final class JobFuture extends FutureTask<Void> {
+        private final ArchiveTileJob job;
+
+        JobFuture(ArchiveTileJob job) {
+            super(job, null);
+            this.job = job;
+        }
+    }
+
+    /**
+     * Constructs a new {@code TileArchiveLoader}.
+     * @param listener listener, notified when tile has finished loading
+     * @param archive archive to read tiles from
+     */
+    public TileArchiveLoader(TileLoaderListener listener, TileArchive archive) {
+        this.listener = listener;
+        this.archive = archive;
+    }
+
+    @Override
+    public TileJob createTileLoaderJob(Tile tile) {
+        return new ArchiveTileJob(tile);
+    }
+
+    @Override
+    public void cancelOutstandingTasks() {
+        for (Runnable r : JOB_DISPATCHER.getQueue()) {
+            if (r instanceof JobFuture && ((JobFuture) r).job.getLoader() == this && JOB_DISPATCHER.remove(r)) {
+                ((JobFuture) r).job.cancel();
+            }
+        }
+    }
+
+    @Override
+    public boolean hasOutstandingTasks() {
+        return JOB_DISPATCHER.getTaskCount() > JOB_DISPATCHER.getCompletedTaskCount();
+    }
+
+    /**
+     * @return archive tiles are read from
+     */
+    public TileArchive getArchive() {
+        return archive;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " [" + archive + ']';
+    }
+}
@@ -0,0 +1,149 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.imagery;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes single file tile archive, see {@link TileArchive} for the format.
+ * <p>
+ * Tiles should be added in ascending {@link TileArchive#getTileId(int, int, int)} order, so tile data is clustered the
+ * same way as the directory and is written sequentially, without buffering. Tiles with identical content (e.g. empty
+ * sea tiles) are stored only once. Archive is written to temporary file, and is moved to the target file on
+ * {@link #close()}, so readers never see partially written archive.
+ */
+public class TileArchiveWriter implements Closeable {
+
+    private final File target;
+    private final File tmp;
+    private final FileChannel channel;
+    private final ByteArrayOutputStream directoryBytes = new ByteArrayOutputStream();
+    private final DataOutputStream directory = new DataOutputStream(directoryBytes);
+    private final Map<ByteBuffer, long[]> contentLocations = new HashMap<>();
+    private final MessageDigest digest;
+    private long position = TileArchive.HEADER_SIZE;
+    private long lastTileId = -1;
+    private int entryCount;
+    private int uniqueCount;
+    private boolean closed;
+
+    /**
+     * Creates writer for new archive
+     * @param target archive file, replaced on {@link #close()} if exists
+     * @throws IOException if temporary file can't be created
+     */
+    public TileArchiveWriter(File target) throws IOException {
+        this.target = target;
+        this.tmp = new File(target.getPath() + ".tmp");
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Adds tile to the archive
+     * @param zoom zoom level
+     * @param x tile x
+     * @param y tile y
+     * @param content encoded tile image
+     * @throws IOException if an error occurs during writing
+     * @throws IllegalArgumentException if tile is not in ascending tile id order
+     */
+    public void addTile(int zoom, int x, int y, byte[] content) throws IOException {
+        long tileId = TileArchive.getTileId(zoom, x, y);
+        if (tileId <= lastTileId) {
+            throw new IllegalArgumentException("Tiles should be added in ascending tile id order, got " + zoom + '/' + x + '/' + y);
+        }
+        ByteBuffer hash = ByteBuffer.wrap(digest.digest(content));
+        long[] location = contentLocations.get(hash);
+        if (location == null) {
+            location = new long[] {position, content.length};
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            contentLocations.put(hash, location);
+            uniqueCount++;
+        }
+        directory.writeLong(tileId);
+        directory.writeLong(location[0]);
+        directory.writeInt((int) location[1]);
+        lastTileId = tileId;
+        entryCount++;
+    }
+
+    /**
+     * @return number of tiles added
+     */
+    public int getTileCount() {
+        return entryCount;
+    }
+
+    /**
+     * @return number of distinct tile contents stored
+     */
+    public int getUniqueTileCount() {
+        return uniqueCount;
+    }
+
+    /**
+     * Writes directory and header, and moves archive to the target file
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            directory.flush();
+            ByteBuffer buffer = ByteBuffer.wrap(directoryBytes.toByteArray());
+            long directoryOffset = position;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            ByteBuffer header = ByteBuffer.allocate(TileArchive.HEADER_SIZE);
+            header.putInt(TileArchive.MAGIC);
+            header.putInt(TileArchive.VERSION);
+            header.putInt(entryCount);
+            header.putInt(uniqueCount);
+            header.putLong(directoryOffset);
+            header.putLong(directoryOffset - TileArchive.HEADER_SIZE);
+            header.flip();
+            long pos = 0;
+            while (header.hasRemaining()) {
+                pos += channel.write(header, pos);
+            }
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Closes writer and removes partially written archive, target file is left untouched
+     * @throws IOException if temporary file can't be removed
+     */
+    public void abort() throws IOException {
+        closed = true;
+        channel.close();
+        Files.deleteIfExists(tmp.toPath());
+    }
+}
@@ -16,6 +16,7 @@ public class TileJobOptions {
     final int readTimeout;
     final Map<String, String> headers;
     final long minimumExpiryTime;
+    final boolean http2;
 
     /**
      * Options constructor
@@ -26,10 +27,25 @@ public class TileJobOptions {
      * @param minimumExpiryTime in seconds
      */
     public TileJobOptions(int connectTimeout, int readTimeout, Map<String, String> headers, long minimumExpiryTime) {
+        this(connectTimeout, readTimeout, headers, minimumExpiryTime, false);
+    }
+
+    /**
+     * Options constructor
+     *
+     * @param connectTimeout in milliseconds
+     * @param readTimeout in milliseconds
+     * @param headers http headers
+     * @param minimumExpiryTime in seconds
+     * @param http2 whether to use HTTP/2 capable client
+     */
+    public TileJobOptions(int connectTimeout, int readTimeout, Map<String, String> headers, long minimumExpiryTime,
+            boolean http2) {
         this.connectTimeout = connectTimeout;
         this.readTimeout = readTimeout;
         this.headers = Collections.unmodifiableMap(headers == null ? Collections.emptyMap() : headers);
         this.minimumExpiryTime = minimumExpiryTime;
+        this.http2 = http2;
     }
 
     /**
@@ -63,4 +79,12 @@ public class TileJobOptions {
     public long getMinimumExpiryTime() {
         return minimumExpiryTime;
     }
+
+    /**
+     *
+     * @return whether tiles should be requested with HTTP/2 capable client
+     */
+    public boolean isHttp2() {
+        return http2;
+    }
 }
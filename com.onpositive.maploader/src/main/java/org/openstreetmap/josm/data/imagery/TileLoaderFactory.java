@@ -24,4 +24,18 @@ public interface TileLoaderFactory {
      * @return TileLoader that uses both of above
      */
     TileLoader makeTileLoader(TileLoaderListener listener, Map<String, String> headers, long minimumExpiryTime);
+
+    /**
+     * Creates TileLoaderFactory - factory that creates tile loaders with all options already set
+     *
+     * @param listener that will be notified, when tile has finished loading
+     * @param headers that will be sent with requests to TileSource. <code>null</code> indicates none
+     * @param minimumExpiryTime minimum expiry time
+     * @param http2 whether to request tiles with HTTP/2 capable client, ignored by default
+     * @return TileLoader that uses all of above
+     */
+    default TileLoader makeTileLoader(TileLoaderListener listener, Map<String, String> headers, long minimumExpiryTime,
+            boolean http2) {
+        return makeTileLoader(listener, headers, minimumExpiryTime);
+    }
 }
@@ -1,6 +1,8 @@
 // License: GPL. For details, see LICENSE file.
 package org.openstreetmap.josm.data.imagery;
 
+import java.net.MalformedURLException;
+
 import org.apache.commons.jcs.access.behavior.ICacheAccess;
 import org.openstreetmap.gui.jmapviewer.Tile;
 import org.openstreetmap.gui.jmapviewer.interfaces.TileJob;
@@ -42,4 +44,20 @@ public class WMSCachedTileLoader extends TMSCachedTileLoader {
     public TileJob createTileLoaderJob(Tile tile) {
         return new WMSCachedTileLoaderJob(listener, tile, cache, options, getDownloadExecutor());
     }
+
+    @Override
+    public String getCacheKey(Tile tile) {
+        return new WMSCachedTileLoaderJob(null, tile, cache, options, getDownloadExecutor()).getCacheKey();
+    }
+
+    /**
+     * Creates a job loading single GetMap image, using the cache and download executor of this loader
+     * @param sourceName name of the tile source
+     * @param url GetMap URL, see {@link AbstractWMSTileSource#getMapUrl}
+     * @return job for given GetMap URL
+     * @throws MalformedURLException if URL is malformed
+     */
+    public WMSGetMapLoaderJob createGetMapJob(String sourceName, String url) throws MalformedURLException {
+        return new WMSGetMapLoaderJob(sourceName, url, cache, options, getDownloadExecutor());
+    }
 }
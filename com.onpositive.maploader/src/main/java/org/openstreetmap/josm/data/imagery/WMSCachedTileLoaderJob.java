@@ -33,12 +33,14 @@ public class WMSCachedTileLoaderJob extends TMSCachedTileLoaderJob {
     }
 
     @Override
-    public String getCacheKey() {
+    protected String buildCacheKey() {
         // include projection in cache key, as with different projections different response will be returned from server
-        String key = super.getCacheKey();
-        if (key != null) {
-            return key + tile.getSource().getServerCRS();
-        }
-        return null;
+        return super.buildCacheKey() + tile.getSource().getServerCRS();
+    }
+
+    @Override
+    protected Object getDeduplicationKey() {
+        // tile key doesn't include projection
+        return getCacheKey();
     }
 }
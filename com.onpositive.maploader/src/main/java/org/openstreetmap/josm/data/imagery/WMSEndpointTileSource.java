@@ -10,6 +10,7 @@ import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import org.openstreetmap.gui.jmapviewer.interfaces.TemplatedTileSource;
+import org.openstreetmap.josm.data.coor.EastNorth;
 import org.openstreetmap.josm.data.imagery.ImageryInfo.ImageryType;
 import org.openstreetmap.josm.data.projection.Projection;
 import org.openstreetmap.josm.gui.layer.WMSLayer;
@@ -59,6 +60,11 @@ public class WMSEndpointTileSource extends AbstractWMSTileSource implements Temp
 
     @Override
     public String getTileUrl(int zoom, int tilex, int tiley) {
+        return getMapUrl(getTileEastNorth(tilex, tiley, zoom), getTileEastNorth(tilex + 1, tiley + 1, zoom), getTileSize(), getTileSize());
+    }
+
+    @Override
+    public String getMapUrl(EastNorth nw, EastNorth se, int width, int height) {
         // Using StringBuffer and generic PATTERN_PARAM matcher gives 2x performance improvement over replaceAll
         StringBuffer url = new StringBuffer(urlPattern.length());
         Matcher matcher = PATTERN_PARAM.matcher(urlPattern);
@@ -69,11 +75,13 @@ public class WMSEndpointTileSource extends AbstractWMSTileSource implements Temp
                 replacement = getServerCRS();
                 break;
             case "bbox":
-                replacement = getBbox(zoom, tilex, tiley, !wmsi.belowWMS130() && getTileProjection().switchXY());
+                replacement = getBbox(nw, se, !wmsi.belowWMS130() && getTileProjection().switchXY());
                 break;
             case "width":
+                replacement = String.valueOf(width);
+                break;
             case "height":
-                replacement = String.valueOf(getTileSize());
+                replacement = String.valueOf(height);
                 break;
             default:
                 replacement = '{' + matcher.group(1) + '}';
@@ -0,0 +1,141 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.imagery;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.text.MessageFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.regex.Matcher;
+
+import org.apache.commons.jcs.access.behavior.ICacheAccess;
+import org.openstreetmap.josm.data.cache.BufferedImageCacheEntry;
+import org.openstreetmap.josm.data.cache.CacheEntry;
+import org.openstreetmap.josm.data.cache.CacheEntryAttributes;
+import org.openstreetmap.josm.data.cache.ICachedLoaderListener.LoadResult;
+import org.openstreetmap.josm.data.cache.JCSCachedTileLoaderJob;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * Job loading single WMS GetMap image for arbitrary bounding box and size, not aligned to the tile grid.
+ * <p>
+ * Images are stored in the same JCS cache as WMS tiles, under the key built from the hash of GetMap URL, which includes
+ * bounding box, image size and projection. Downloads go through the same executor as tiles, so they share host limits,
+ * deduplication and retries of throttled requests.
+ */
+public class WMSGetMapLoaderJob extends JCSCachedTileLoaderJob<String, BufferedImageCacheEntry> {
+
+    private final URL url;
+    private final String cacheKey;
+
+    /**
+     * Creates a job for given GetMap URL
+     * @param sourceName name of the tile source, used as cache key prefix
+     * @param url GetMap URL
+     * @param cache to use (get/put)
+     * @param options options for the job
+     * @param downloadExecutor that will execute the download task (if needed)
+     * @throws MalformedURLException if URL is malformed
+     */
+    public WMSGetMapLoaderJob(String sourceName, String url, ICacheAccess<String, BufferedImageCacheEntry> cache,
+            TileJobOptions options, ThreadPoolExecutor downloadExecutor) throws MalformedURLException {
+        super(cache, options, downloadExecutor);
+        this.url = new URL(url);
+        this.cacheKey = getCacheKey(sourceName, url);
+    }
+
+    /**
+     * @param sourceName name of the tile source
+     * @param url GetMap URL
+     * @return key, under which GetMap image is stored in the cache
+     */
+    public static String getCacheKey(String sourceName, String url) {
+        return (sourceName == null ? "" : sourceName.replace(':', '_')) + ":getmap:"
+                + UUID.nameUUIDFromBytes(url.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public String getCacheKey() {
+        return cacheKey;
+    }
+
+    @Override
+    public URL getUrl() {
+        return url;
+    }
+
+    /**
+     * Loads the image from the cache or from the server
+     * @return future completed with the image, or completed exceptionally if image can't be loaded
+     */
+    public CompletableFuture<BufferedImage> load() {
+        CompletableFuture<BufferedImage> result = new CompletableFuture<>();
+        try {
+            submit((data, attributes, status) -> complete(result, data, attributes, status), false);
+        } catch (IOException | IllegalArgumentException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private void complete(CompletableFuture<BufferedImage> result, CacheEntry data, CacheEntryAttributes attributes,
+            LoadResult status) {
+        try {
+            BufferedImage img = status == LoadResult.SUCCESS && data instanceof BufferedImageCacheEntry && data.getContentLength() > 0
+                    ? ((BufferedImageCacheEntry) data).getImage() : null;
+            if (img != null) {
+                result.complete(img);
+                return;
+            }
+            String message = attributes != null && attributes.getErrorMessage() != null ? attributes.getErrorMessage() : status.toString();
+            result.completeExceptionally(new IOException(MessageFormat.format("Failed to load GetMap image {0}: {1}", url, message)));
+        } catch (IOException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    protected BufferedImageCacheEntry createCacheEntry(byte[] content) {
+        return BufferedImageCacheEntry.wrap(content);
+    }
+
+    /**
+     * WMS servers report errors as XML documents, often with 200 status, so only images are loadable. Error message
+     * is extracted from such document
+     */
+    @Override
+    protected boolean isResponseLoadable(Map<String, List<String>> headerFields, int responseCode, byte[] raw) {
+        if (!super.isResponseLoadable(headerFields, responseCode, raw)) {
+            return false;
+        }
+        List<String> contentType = headerFields == null ? null : headerFields.get("Content-Type");
+        if (contentType == null || contentType.isEmpty() || contentType.get(0).startsWith("image/")) {
+            return true;
+        }
+        String message = detectErrorMessage(new String(raw, StandardCharsets.UTF_8));
+        if (message != null) {
+            attributes.setErrorMessage(message);
+        }
+        return false;
+    }
+
+    /**
+     * Failed GetMap responses are not cached, image for the same area would be requested again
+     */
+    @Override
+    protected boolean cacheAsEmpty() {
+        return false;
+    }
+
+    @Override
+    public String detectErrorMessage(String data) {
+        Matcher xml = TMSCachedTileLoaderJob.SERVICE_EXCEPTION_PATTERN.matcher(data);
+        return xml.matches() ? Utils.strip(xml.group(1)) : super.detectErrorMessage(data);
+    }
+}
@@ -14,6 +14,7 @@ import java.awt.Toolkit;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.awt.image.ImageObserver;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -21,18 +22,23 @@ import java.text.MessageFormat;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -41,9 +47,10 @@ import javax.swing.AbstractAction;
 
 import org.openstreetmap.gui.jmapviewer.AttributionSupport;
 import org.openstreetmap.gui.jmapviewer.Coordinate;
-import org.openstreetmap.gui.jmapviewer.MemoryTileCache;
+import org.openstreetmap.gui.jmapviewer.ConcurrentTileCache;
 import org.openstreetmap.gui.jmapviewer.OsmTileLoader;
 import org.openstreetmap.gui.jmapviewer.Tile;
+import org.openstreetmap.gui.jmapviewer.TileKey;
 import org.openstreetmap.gui.jmapviewer.TileRange;
 import org.openstreetmap.gui.jmapviewer.TileXY;
 import org.openstreetmap.gui.jmapviewer.interfaces.CachedTileLoader;
@@ -56,6 +63,7 @@ import org.openstreetmap.gui.jmapviewer.interfaces.TileLoaderListener;
 import org.openstreetmap.gui.jmapviewer.interfaces.TileSource;
 import org.openstreetmap.gui.jmapviewer.tilesources.AbstractTMSTileSource;
 import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.cache.BufferedImageCacheEntry;
 import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.imagery.CoordinateConversion;
 import org.openstreetmap.josm.data.imagery.ImageryInfo;
@@ -64,8 +72,13 @@ import org.openstreetmap.josm.data.imagery.TileAnchor;
 import org.openstreetmap.josm.data.imagery.TileLoaderFactory;
 import org.openstreetmap.josm.data.preferences.IntegerProperty;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.tools.CheckParameterUtil;
 import org.openstreetmap.josm.tools.GeomUtils;
+import org.openstreetmap.josm.tools.JosmRuntimeException;
 import org.openstreetmap.josm.tools.Logging;
+import org.openstreetmap.josm.tools.MemoryManager;
+import org.openstreetmap.josm.tools.MemoryManager.MemoryHandle;
+import org.openstreetmap.josm.tools.MemoryManager.NotEnoughMemoryException;
 import org.openstreetmap.josm.tools.Utils;
 
 import math.geom2d.Box2D;
@@ -109,17 +122,40 @@ implements ImageObserver, TileLoaderListener {
      */
     public static final IntegerProperty ZOOM_OFFSET = new IntegerProperty(PREFERENCE_PREFIX + ".zoom_offset", 0);
 
+    /**
+     * Memory tile cache size, in full size tiles (4 bytes per pixel) of layer's tile source
+     */
+    private static final int MEMORY_CACHE_TILES = 1000;
+
+    /**
+     * Min memory tile cache size, in full size tiles. Should be enough to compose one sample image
+     */
+    private static final int MIN_MEMORY_CACHE_TILES = 64;
+
+    /**
+     * Max number of tiles submitted by {@link PrecacheTask} and not loaded yet. Each of them keeps it's tile, job and
+     * listener alive, so the whole extract is not submitted at once
+     */
+    private static final int PRECACHE_MAX_PENDING_TILES = 256;
+
     /*
-     *  use MemoryTileCache instead of tileLoader JCS cache, as tileLoader caches only content (byte[] of image)
-     *  and MemoryTileCache caches whole Tile. This gives huge performance improvement when a lot of tiles are visible
+     *  use ConcurrentTileCache instead of tileLoader JCS cache, as tileLoader caches only content (byte[] of image)
+     *  and ConcurrentTileCache caches whole Tile. This gives huge performance improvement when a lot of tiles are visible
      *  in MapView (for example - when limiting min zoom in imagery)
      *
      *  Use per-layer tileCache instance, as the more layers there are, the more tiles needs to be cached
      */
     protected TileCache tileCache; // initialized together with tileSource
+    private MemoryHandle<ConcurrentTileCache> tileCacheMemory;
     protected T tileSource;
     protected TileLoader tileLoader;
 
+    /**
+     * Futures of the tiles being loaded by {@link #futureLoadTile(Tile, boolean)}, keyed by tile key.
+     * Completed from {@link #tileLoadingFinished(Tile, boolean)}, so no thread is blocked waiting for tile job
+     */
+    private final Map<TileKey, CompletableFuture<Tile>> pendingTiles = new ConcurrentHashMap<>();
+
     private final long minimumTileExpire;
 
     /**
@@ -167,7 +203,7 @@ implements ImageObserver, TileLoaderListener {
 
         Map<String, String> headers = getHeaders(tileSource);
 
-        tileLoader = getTileLoaderFactory().makeTileLoader(this, headers, minimumTileExpire);
+        tileLoader = getTileLoaderFactory().makeTileLoader(this, headers, minimumTileExpire, info.isHttp2());
 
         try {
             if ("file".equalsIgnoreCase(new URL(tileSource.getBaseUrl()).getProtocol())) {
@@ -181,16 +217,49 @@ implements ImageObserver, TileLoaderListener {
         if (tileLoader == null)
             tileLoader = new OsmTileLoader(this, headers);
 
-        tileCache = new MemoryTileCache(1000); ///XXX debug
+        tileCache = createTileCache(tileSource);
+    }
+
+    /**
+     * Creates memory tile cache, with the size allocated from {@link MemoryManager}
+     * @param tileSource tile source of this layer
+     * @return tile cache
+     */
+    private TileCache createTileCache(T tileSource) {
+        int tileBytes = tileSource.getTileSize() * tileSource.getTileSize() * 4;
+        if (tileCacheMemory != null) {
+            tileCacheMemory.free();
+            tileCacheMemory = null;
+        }
+        try {
+            tileCacheMemory = MemoryManager.getInstance().allocateMemory("tile cache of " + tileSource.getName(),
+                    (long) MEMORY_CACHE_TILES * tileBytes, (long) MIN_MEMORY_CACHE_TILES * tileBytes,
+                    bytes -> new ConcurrentTileCache(bytes, tileBytes));
+            return tileCacheMemory.get();
+        } catch (NotEnoughMemoryException e) {
+            Logging.log(Logging.LEVEL_WARN, "Could not allocate tile cache memory, using minimal cache", e);
+            return new ConcurrentTileCache((long) MIN_MEMORY_CACHE_TILES * tileBytes, tileBytes);
+        }
     }
 
     @Override
-    public synchronized void tileLoadingFinished(Tile tile, boolean success) {
-        if (tile.hasError()) {
-            success = false;
-            tile.setImage(null);
+    public void tileLoadingFinished(Tile tile, boolean success) {
+        synchronized (this) {
+            if (tile.hasError()) {
+                success = false;
+                tile.setImage(null);
+            }
+            Logging.debug("tileLoadingFinished() tile: {0} success: {1}", tile, success);
+        }
+        // complete outside of the lock, dependent stages (e.g. painting into mosaic) run in this thread
+        completeTileFuture(tile);
+    }
+
+    private void completeTileFuture(Tile tile) {
+        CompletableFuture<Tile> future = pendingTiles.remove(tile.getTileKey());
+        if (future != null) {
+            future.complete(tile);
         }
-        Logging.debug("tileLoadingFinished() tile: {0} success: {1}", tile, success);
     }
 
     /**
@@ -203,6 +272,56 @@ implements ImageObserver, TileLoaderListener {
         tileCache.clear();
     }
 
+    /**
+     * Returns encoded tile content stored in the tile loader cache, without loading the tile
+     * @param position tile position
+     * @return tile content or <code>null</code> if tile is not cached, or tile loader of this layer doesn't use cache
+     */
+    public byte[] getCachedTileContent(TilePosition position) {
+        if (!(tileLoader instanceof TMSCachedTileLoader)) {
+            return null;
+        }
+        TMSCachedTileLoader loader = (TMSCachedTileLoader) tileLoader;
+        String key = loader.getCacheKey(new Tile(tileSource, position.getX(), position.getY(), position.getZoom()));
+        BufferedImageCacheEntry entry = loader.getCacheAccess().get(key);
+        byte[] content = entry != null ? entry.getContent() : null;
+        // errors are cached as empty entries
+        return content != null && content.length > 0 ? content : null;
+    }
+
+    /**
+     * Checks, whether tile content is stored in the tile loader cache, without copying the content
+     * @param position tile position
+     * @return <code>true</code> if non-empty tile content is cached
+     */
+    public boolean isTileCached(TilePosition position) {
+        if (!(tileLoader instanceof TMSCachedTileLoader)) {
+            return false;
+        }
+        TMSCachedTileLoader loader = (TMSCachedTileLoader) tileLoader;
+        String key = loader.getCacheKey(new Tile(tileSource, position.getX(), position.getY(), position.getZoom()));
+        BufferedImageCacheEntry entry = loader.getCacheAccess().get(key);
+        // errors are cached as empty entries
+        return entry != null && entry.getContentLength() > 0;
+    }
+
+    /**
+     * @return tile loader used by this layer
+     */
+    public TileLoader getTileLoader() {
+        return tileLoader;
+    }
+
+    /**
+     * Replaces tile loader of this layer, e.g. with {@link org.openstreetmap.josm.data.imagery.TileArchiveLoader}
+     * to load tiles from local archive. Tiles already loaded into memory tile cache are kept
+     * @param tileLoader new tile loader
+     */
+    public void setTileLoader(TileLoader tileLoader) {
+        CheckParameterUtil.ensureParameterNotNull(tileLoader, "tileLoader");
+        this.tileLoader = tileLoader;
+    }
+
     /**
      * Returns average number of screen pixels per tile pixel for current mapview
      * @param zoom zoom level
@@ -482,24 +601,25 @@ implements ImageObserver, TileLoaderListener {
         return true;
     }
     
-    private CompletableFuture<BufferedImage> futureLoadTile(Tile tile, boolean force) {
-    	if (!force && tile.isLoaded())
-    		return CompletableFuture.completedFuture(tile.getImage());
-    	if (tile.isLoading()) //Shoul already have listener
-    		return null;
-    	TileJob job = tileLoader.createTileLoaderJob(tile);    	
-		
-		return CompletableFuture.supplyAsync(() -> {
-	        try {	        	
-	        	Future<?> submitted = job.submit(force);
-	        	if (submitted != null) {
-	        		submitted.get();
-				}
-	        	return tile.getImage();
-	        } catch (InterruptedException|ExecutionException e) {
-	            throw new RuntimeException(e);
-	        }
-	    });
+    /**
+     * Load tile asynchronously
+     * @param tile tile to load
+     * @param force {@code true} to reload already loaded tile
+     * @return future completed with the tile, once it's loading has finished. Tile could have an error set.
+     * Tile which failed to load earlier is loaded again, so retried samples issue new request for it
+     */
+    private CompletableFuture<Tile> futureLoadTile(Tile tile, boolean force) {
+        if (!force && tile.isLoaded() && !tile.hasError())
+            return CompletableFuture.completedFuture(tile);
+        CompletableFuture<Tile> future = pendingTiles.computeIfAbsent(tile.getTileKey(), k -> new CompletableFuture<>());
+        if (force || !tile.isLoading()) { // if tile is loading already, we would be notified when it's job finishes
+            tileLoader.createTileLoaderJob(tile).submit(force);
+        }
+        if (!tile.isLoading()) {
+            // job wasn't submitted or has already finished
+            completeTileFuture(tile);
+        }
+        return future;
     }
     
     public void setTileSetBounds(TileXY t1, TileXY t2) {
@@ -550,28 +670,193 @@ implements ImageObserver, TileLoaderListener {
         return (status & ALLBITS) != 0;
     }
     
+    /**
+     * Returns positions of all tiles covering given bounding box, same tiles are used by {@link #paintImageFor} with clipping
+     * @param boundingBox bounding box in lat/lon coordinates
+     * @param zoom zoom level
+     * @return list of tile positions
+     */
+    public List<TilePosition> getTilePositions(Box2D boundingBox, int zoom) {
+        TileXY t1 = tileSource.latLonToTileXY(new Coordinate(boundingBox.getMinY(), boundingBox.getMinX()), zoom);
+        TileXY t2 = tileSource.latLonToTileXY(new Coordinate(boundingBox.getMaxY(), boundingBox.getMaxX()), zoom);
+        TileSet tileSet = new TileSet(t1, t2, zoom);
+        Rectangle bounds = getClipBounds(tileSet, t1, t2);
+        int sz = tileSource.getTileSize();
+        return tileSet.tilePositions().filter(pos -> getTileRectangle(tileSet, pos.getX(), pos.getY(), sz).intersects(bounds))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Choose the lowest zoom level, at which image of given bounding box is still not smaller, than required size.
+     * Each zoom level lower halves image size and needs 4x fewer tiles, so there is no sense to load image 2x larger 
+     * than needed and downscale it
+     * @param boundingBox bounding box in lat/lon coordinates
+     * @param zoom max zoom level
+     * @param maxSize required max image side size, in pixels
+     * @return zoom level to use
+     */
+    public int getSufficientZoom(Box2D boundingBox, int zoom, int maxSize) {
+        int minZoom = Math.max(MIN_ZOOM, tileSource.getMinZoom());
+        int result = zoom;
+        while (result > minZoom && getPixelSize(boundingBox, result) >= 2 * maxSize) {
+            result--;
+        }
+        return result;
+    }
+
+    private double getPixelSize(Box2D boundingBox, int zoom) {
+        TileXY t1 = tileSource.latLonToTileXY(new Coordinate(boundingBox.getMinY(), boundingBox.getMinX()), zoom);
+        TileXY t2 = tileSource.latLonToTileXY(new Coordinate(boundingBox.getMaxY(), boundingBox.getMaxX()), zoom);
+        return Math.max(Math.abs(t2.getX() - t1.getX()), Math.abs(t2.getY() - t1.getY())) * tileSource.getTileSize();
+    }
+
+    /**
+     * Loads given tiles into memory tile cache and waits until loading finishes. Subsequent {@link #paintImageFor}
+     * calls for the area covered by these tiles won't fetch or decode them again, while tiles stay in cache
+     * @param positions positions of tiles to load
+     * @return <code>true</code> if all tiles were loaded successfully
+     */
+    public boolean loadTilesBlocking(Collection<TilePosition> positions) {
+        List<Tile> tiles = positions.stream().map(this::getOrCreateTile).filter(Objects::nonNull).collect(Collectors.toList());
+        List<CompletableFuture<Tile>> futures = tiles.stream().map(t -> futureLoadTile(t, false))
+                .collect(Collectors.toList());
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            Logging.debug(e);
+            return false;
+        }
+        return tiles.stream().allMatch(t -> t.isLoaded() && !t.hasError());
+    }
+
+    /**
+     * Paint image for given bounding box, blocks until all the tiles are loaded. 
+     * See {@link #paintImageForAsync(Box2D, int, boolean, double)}
+     * @return painted image or {@code null} if some of the tiles failed to load
+     */
     public BufferedImage paintImageFor(Box2D boundingBox, int zoom, boolean clipAndCenter, double growFactorPercent) {
-    	
+        return paintImageFor(boundingBox, zoom, clipAndCenter, growFactorPercent, 0);
+    }
+
+    /**
+     * Paint image for given bounding box not larger than given size, blocks until all the tiles are loaded. 
+     * See {@link #paintImageForAsync(Box2D, int, boolean, double, int)}
+     * @return painted image or {@code null} if some of the tiles failed to load
+     */
+    public BufferedImage paintImageFor(Box2D boundingBox, int zoom, boolean clipAndCenter, double growFactorPercent, int maxSize) {
+        try {
+            return paintImageForAsync(boundingBox, zoom, clipAndCenter, growFactorPercent, maxSize).join();
+        } catch (CompletionException e) {
+            Logging.debug(e);
+            return null;
+        }
+    }
+
+    /**
+     * Paint image for given bounding box asynchronously. Only the pixels of the resulting image are allocated, and each tile
+     * overlapping it is copied into it as soon as it's loaded, calling thread is not blocked
+     * @param boundingBox bounding box to paint, in degrees
+     * @param zoom zoom level to use
+     * @param clipAndCenter crop mosaic to the bounding box or not
+     * @param growFactorPercent grow factor bounding box was grown with
+     * @return future completed with painted image. Completed exceptionally as soon as first tile fails to load, 
+     * without waiting for the rest of the tiles
+     */
+    public CompletableFuture<BufferedImage> paintImageForAsync(Box2D boundingBox, int zoom, boolean clipAndCenter, double growFactorPercent) {
+        return paintImageForAsync(boundingBox, zoom, clipAndCenter, growFactorPercent, 0);
+    }
+
+    /**
+     * Paint image for given bounding box asynchronously, downscaling it to given max size in the same pass. 
+     * Lower zoom level is used if it's still sufficient for given size, see {@link #getSufficientZoom(Box2D, int, int)}.
+     * Full resolution image is never allocated - tiles are downscaled into the result as soon as they are loaded
+     * @param boundingBox bounding box to paint, in degrees
+     * @param zoom max zoom level to use
+     * @param clipAndCenter crop mosaic to the bounding box or not
+     * @param growFactorPercent grow factor bounding box was grown with
+     * @param maxSize max size of the resulting image side, in pixels. Non-positive value means no limit
+     * @return future completed with painted image. Completed exceptionally as soon as first tile fails to load, 
+     * without waiting for the rest of the tiles
+     */
+    public CompletableFuture<BufferedImage> paintImageForAsync(Box2D boundingBox, int zoom, boolean clipAndCenter, double growFactorPercent,
+            int maxSize) {
+        if (maxSize > 0) {
+            zoom = getSufficientZoom(boundingBox, zoom, maxSize);
+        }
     	TileXY t1 = tileSource.latLonToTileXY(new Coordinate(boundingBox.getMinY(), boundingBox.getMinX()), zoom);
 		TileXY t2 = tileSource.latLonToTileXY(new Coordinate(boundingBox.getMaxY(), boundingBox.getMaxX()), zoom);
 		int sz = tileSource.getTileSize();
 		TileSet tileSet = new TileSet(t1,t2, zoom);
-		int xCnt = tileSet.getMaxX() - tileSet.getMinX();
-		int yCnt = tileSet.getMaxY() - tileSet.getMinY();
-		int xSize = xCnt * sz;
-		int ySize = yCnt * sz;
-		BufferedImage tilesImg = new BufferedImage(xSize, ySize, BufferedImage.TYPE_INT_RGB);
-		Graphics2D graphics2d = tilesImg.createGraphics();
-		tileSet.loadAllBlocking(false);
-		List<Tile> missedTiles = paintTileImages(graphics2d, tileSet, zoom);
-		if (!missedTiles.isEmpty()) {
-			return null;
+		Rectangle bounds;
+		if (clipAndCenter) {
+			bounds = getClipBounds(tileSet, t1, t2);
+		} else {
+			bounds = new Rectangle(0, 0, (tileSet.getMaxX() - tileSet.getMinX()) * sz, (tileSet.getMaxY() - tileSet.getMinY()) * sz);
 		}
 		
-		if (!clipAndCenter) {
-			return tilesImg;
+		double ratio = maxSize > 0 ? Math.max(bounds.width, bounds.height) * 1.0 / maxSize : 1;
+		if (ratio > 1) {
+			int width = (int) Math.max(1, Math.round(bounds.width / ratio));
+			int height = (int) Math.max(1, Math.round(bounds.height / ratio));
+			DownscaledMosaic mosaic = new DownscaledMosaic(bounds, width, height);
+			return composeAsync(tileSet, bounds, (tile, img, tileRect, overlap) -> mosaic.add(img, tileRect, overlap), mosaic::toImage);
 		}
-		
+		BufferedImage outImg = new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_INT_RGB);
+		return composeAsync(tileSet, bounds, (tile, img, tileRect, overlap) -> copyTileImage(outImg, bounds, img, tileRect, overlap), 
+				() -> outImg);
+    }
+
+    /**
+     * Consumer of loaded tile image part
+     */
+    @FunctionalInterface
+    private interface TileImageConsumer {
+        /**
+         * @param tile loaded tile
+         * @param img tile image with image processors applied
+         * @param tileRect tile bounds in pixels relative to tile set origin
+         * @param overlap part of the tile overlapping composed image, relative to tile set origin
+         */
+        void accept(Tile tile, BufferedImage img, Rectangle tileRect, Rectangle overlap);
+    }
+
+    private CompletableFuture<BufferedImage> composeAsync(TileSet tileSet, Rectangle bounds, TileImageConsumer consumer, 
+            Supplier<BufferedImage> resultSupplier) {
+		int sz = tileSource.getTileSize();
+		CompletableFuture<BufferedImage> result = new CompletableFuture<>();
+		List<CompletableFuture<Void>> copiedTiles = tileSet.tilePositions()
+				.filter(pos -> getTileRectangle(tileSet, pos.getX(), pos.getY(), sz).intersects(bounds)) // skip tiles outside of the crop
+				.map(this::getOrCreateTile)
+				.filter(Objects::nonNull)
+				.map(tile -> futureLoadTile(tile, false).thenAccept(loaded -> {
+					BufferedImage img = getProcessedTileImage(loaded);
+					if (img == null) {
+						throw new JosmRuntimeException(MessageFormat.format("Failed to load tile {0}: {1}", 
+								loaded.getKey(), loaded.getErrorMessage()));
+					}
+					Rectangle tileRect = getTileRectangle(tileSet, loaded.getXtile(), loaded.getYtile(), sz);
+					Rectangle overlap = tileRect.intersection(bounds);
+					if (!overlap.isEmpty()) {
+						consumer.accept(loaded, img, tileRect, overlap);
+					}
+				}))
+				.collect(Collectors.toList());
+		for (CompletableFuture<Void> copied : copiedTiles) {
+			copied.whenComplete((res, e) -> {
+				if (e != null) {
+					result.completeExceptionally(e); // fail fast, don't wait for other tiles
+				}
+			});
+		}
+		CompletableFuture.allOf(copiedTiles.toArray(new CompletableFuture<?>[0])).thenRun(() -> result.complete(resultSupplier.get()));
+		return result;
+    }
+    
+    /**
+     * @return bounds of the area between given tile coordinates, in pixels relative to tile set origin
+     */
+    private Rectangle getClipBounds(TileSet tileSet, TileXY t1, TileXY t2) {
+		int sz = tileSource.getTileSize();
 		double tx1 = Math.min(t1.getX(), t2.getX());
 		double tx2 = Math.max(t1.getX(), t2.getX());
 		
@@ -584,17 +869,69 @@ implements ImageObserver, TileLoaderListener {
 		int ypx1 = (int) Math.round((ty1 - tileSet.getMinY()) * sz); //Because Y (lat) on map and y in screen coords has opposite direction
 		int ypx2 = (int) Math.round((ty2 - tileSet.getMinY()) * sz);
 		
-//		int dx = (int) Math.round((xpx2 - xpx1) * growFactorPercent * 0.5);
-//		int dy = (int) Math.round((ypx2 - ypx1) * growFactorPercent * 0.5);
-//		
-//		int x1 = Math.max(0, xpx1 - dx);
-//		int width = Math.min(tilesImg.getWidth() - x1, xpx2 - xpx1 + 2 * dx);
-//		
-//		int y1 = Math.max(0, ypx1 - dy);
-//		int height = Math.min(tilesImg.getHeight() - y1, ypx2 - ypx1 + 2 * dx);
-		
-		return tilesImg.getSubimage(xpx1, ypx1, xpx2 - xpx1, ypx2 - ypx1);
-		
+		return new Rectangle(xpx1, ypx1, xpx2 - xpx1, ypx2 - ypx1);
+    }
+    
+    /**
+     * @return tile bounds in pixels relative to tile set origin
+     */
+    private Rectangle getTileRectangle(TileSet ts, int xtile, int ytile, int sz) {
+        return new Rectangle((xtile - ts.getMinX()) * sz, (ytile - ts.getMinY()) * sz, sz, sz);
+    }
+    
+    /**
+     * @param tile tile
+     * @return tile image with image processors applied or {@code null} if tile isn't loaded or has no image
+     */
+    private BufferedImage getProcessedTileImage(Tile tile) {
+        if (!tile.isLoaded() || tile.hasError()) {
+            return null;
+        }
+        BufferedImage img;
+        synchronized (tile) {
+            img = getLoadedTileImage(tile);
+        }
+        return img != null ? applyImageProcessors(img) : null;
+    }
+
+    /**
+     * Copy part of the tile overlapping given bounds into output image. Pixels are copied directly between rasters,
+     * Graphics2D is used only if tile image has to be scaled. Different tiles cover disjoint parts of the output,
+     * so this could be called for several tiles in parallel
+     * @param outImg output image of TYPE_INT_RGB type
+     * @param bounds output image bounds, relative to tile set origin
+     * @param img tile image
+     * @param tileRect tile bounds, relative to tile set origin
+     * @param overlap part of the tile to copy, relative to tile set origin
+     */
+    private void copyTileImage(BufferedImage outImg, Rectangle bounds, BufferedImage img, Rectangle tileRect, Rectangle overlap) {
+        if (img.getWidth() != tileRect.width || img.getHeight() != tileRect.height) {
+            synchronized (outImg) { // Graphics2D isn't thread-safe
+                Graphics2D g = outImg.createGraphics();
+                try {
+                    g.translate(-bounds.x, -bounds.y);
+                    TileAnchor anchorScreen = new TileAnchor(new Point2D.Double(tileRect.x, tileRect.y),
+                            new Point2D.Double(tileRect.getMaxX(), tileRect.getMaxY()));
+                    drawImageInside(g, img, getAnchor(null, img), anchorScreen, overlap);
+                } finally {
+                    g.dispose();
+                }
+            }
+            return;
+        }
+        int sx = overlap.x - tileRect.x;
+        int sy = overlap.y - tileRect.y;
+        int dx = overlap.x - bounds.x;
+        int dy = overlap.y - bounds.y;
+        int type = img.getType();
+        if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) {
+            // same pixel layout, alpha byte is ignored by RGB color model
+            Object pixels = img.getRaster().getDataElements(sx, sy, overlap.width, overlap.height, null);
+            outImg.getRaster().setDataElements(dx, dy, overlap.width, overlap.height, pixels);
+        } else {
+            int[] data = ((DataBufferInt) outImg.getRaster().getDataBuffer()).getData();
+            img.getRGB(sx, sy, overlap.width, overlap.height, data, dy * outImg.getWidth() + dx, outImg.getWidth());
+        }
     }
     
     
@@ -612,38 +949,44 @@ implements ImageObserver, TileLoaderListener {
         // ts.allExistingTiles() by default will only return already-existing tiles.
         // However, we need to return *all* tiles to the callers, so force creation here.
         for (Tile tile : ts.allTilesCreate()) {
-            boolean miss = false;
-            BufferedImage img = null;
-            TileAnchor anchorImage = null;
-            if (!tile.isLoaded() || tile.hasError()) {
-                miss = true;
-            } else {
-                synchronized (tile) {
-                    img = getLoadedTileImage(tile);
-                    anchorImage = getAnchor(tile, img);
-                }
-
-                if (img == null || anchorImage == null) {
-                    miss = true;
-                }
-            }
-            if (miss) {
+            if (!paintTileImage(g, ts, tile)) {
                 missedTiles.add(tile);
-                continue;
             }
-
-            // applying all filters to this layer
-            img = applyImageProcessors(img);
-
-            int sz = tile.getTileSource().getTileSize();
-            
-			int xOrigin = (tile.getXtile() - ts.getMinX()) * sz;
-			int yOrigin = (tile.getYtile() - ts.getMinY()) * sz;
-			TileAnchor anchorScreen = new TileAnchor(new Point2D.Double(xOrigin, yOrigin),new Point2D.Double(xOrigin + sz, yOrigin + sz)); 
-            drawImageInside(g, img, anchorImage, anchorScreen, null);
         }
         return missedTiles;
     }
+
+    /**
+     * Paint single tile into tile set mosaic
+     * @param g mosaic graphics
+     * @param ts tile set
+     * @param tile tile to paint
+     * @return {@code false} if tile isn't loaded or has no image
+     */
+    private boolean paintTileImage(Graphics2D g, TileSet ts, Tile tile) {
+        if (!tile.isLoaded() || tile.hasError()) {
+            return false;
+        }
+        BufferedImage img;
+        TileAnchor anchorImage;
+        synchronized (tile) {
+            img = getLoadedTileImage(tile);
+            anchorImage = getAnchor(tile, img);
+        }
+        if (img == null || anchorImage == null) {
+            return false;
+        }
+
+        // applying all filters to this layer
+        img = applyImageProcessors(img);
+
+        int sz = tile.getTileSource().getTileSize();
+        int xOrigin = (tile.getXtile() - ts.getMinX()) * sz;
+        int yOrigin = (tile.getYtile() - ts.getMinY()) * sz;
+        TileAnchor anchorScreen = new TileAnchor(new Point2D.Double(xOrigin, yOrigin),new Point2D.Double(xOrigin + sz, yOrigin + sz)); 
+        drawImageInside(g, img, anchorImage, anchorScreen, null);
+        return true;
+    }
     
     protected Shape getBorderShape(Bounds border) {
     	Point xy1 = getTileSource().latLonToXY(border.getMinLat(), border.getMinLon(), currentZoomLevel);
@@ -830,9 +1173,9 @@ implements ImageObserver, TileLoaderListener {
         
         private void loadAllBlocking(boolean force) {
         	
-        	List<CompletableFuture<BufferedImage>> futures = tilePositions().map(AbstractTileSourceLayer.this::getOrCreateTile).filter(Objects::nonNull).map(
+        	List<CompletableFuture<Tile>> futures = tilePositions().map(AbstractTileSourceLayer.this::getOrCreateTile).filter(Objects::nonNull).map(
         			t -> futureLoadTile(t, force)        			
-        	).filter(feature -> feature != null).collect(Collectors.toList());
+        	).collect(Collectors.toList());
         	CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
         }
 
@@ -978,15 +1321,18 @@ implements ImageObserver, TileLoaderListener {
 
 
     /**
-     * Task responsible for precaching imagery along the gpx track
+     * Task responsible for precaching imagery along the gpx track, or for given set of tiles
      *
      */
     public class PrecacheTask implements TileLoaderListener {
         private final ProgressMonitor progressMonitor;
         private final int totalCount;
         private final AtomicInteger processedCount = new AtomicInteger(0);
+        private final AtomicInteger skippedCount = new AtomicInteger(0);
+        private final AtomicInteger failedCount = new AtomicInteger(0);
+        private final CompletableFuture<Void> completion;
         private final TileLoader tileLoader;
-        private final Set<Tile> requestedTiles;
+        private final BoundedSubmitter<TilePosition> submitter;
 
         /**
          * Constructs a new {@code PrecacheTask}.
@@ -996,42 +1342,36 @@ implements ImageObserver, TileLoaderListener {
          * @param points list of points along which to download
          */
         public PrecacheTask(ProgressMonitor progressMonitor, List<LatLon> points, double bufferX, double bufferY) {
+            this(progressMonitor, getPrecacheTiles(points, bufferX, bufferY));
+        }
+
+        /**
+         * Constructs a new {@code PrecacheTask} for given tiles.
+         * @param progressMonitor that will be notified about progess of the task
+         * @param positions tiles to download, in the order they should be requested
+         */
+        public PrecacheTask(ProgressMonitor progressMonitor, Collection<TilePosition> positions) {
             this.progressMonitor = progressMonitor;
-            this.tileLoader = getTileLoaderFactory().makeTileLoader(this, getHeaders(tileSource), minimumTileExpire);
+            // only positions are kept, so tiles with their images could be collected once downloaded
+            this.submitter = new BoundedSubmitter<>(positions.iterator(), PRECACHE_MAX_PENDING_TILES, this::submitTile);
+            this.completion = submitter.getCompletion();
+            this.tileLoader = getTileLoaderFactory().makeTileLoader(this, getHeaders(tileSource), minimumTileExpire,
+                    info.isHttp2());
             if (this.tileLoader instanceof TMSCachedTileLoader) {
-                ((TMSCachedTileLoader) this.tileLoader).setDownloadExecutor(
-                        TMSCachedTileLoader.getNewThreadPoolExecutor("Precache downloader"));
-            }
-            requestedTiles = new ConcurrentSkipListSet<>(
-                    (o1, o2) -> String.CASE_INSENSITIVE_ORDER.compare(o1.getKey(), o2.getKey()));
-            for (LatLon point: points) {
-                TileXY minTile = tileSource.latLonToTileXY(point.lat() - bufferY, point.lon() - bufferX, currentZoomLevel);
-                TileXY curTile = tileSource.latLonToTileXY(CoordinateConversion.llToCoor(point), currentZoomLevel);
-                TileXY maxTile = tileSource.latLonToTileXY(point.lat() + bufferY, point.lon() + bufferX, currentZoomLevel);
-
-                // take at least one tile of buffer
-                int minY = Math.min(curTile.getYIndex() - 1, minTile.getYIndex());
-                int maxY = Math.max(curTile.getYIndex() + 1, maxTile.getYIndex());
-                int minX = Math.min(curTile.getXIndex() - 1, minTile.getXIndex());
-                int maxX = Math.max(curTile.getXIndex() + 1, maxTile.getXIndex());
-
-                for (int x = minX; x <= maxX; x++) {
-                    for (int y = minY; y <= maxY; y++) {
-                        requestedTiles.add(new Tile(tileSource, x, y, currentZoomLevel));
-                    }
-                }
+                ThreadPoolExecutor downloadExecutor = TMSCachedTileLoader.getNewThreadPoolExecutor("Precache downloader");
+                ((TMSCachedTileLoader) this.tileLoader).setDownloadExecutor(downloadExecutor);
+                // executor threads don't time out, so it's shut down once the task is done
+                completion.thenRun(downloadExecutor::shutdown);
             }
-
-            this.totalCount = requestedTiles.size();
-            this.progressMonitor.setTicksCount(requestedTiles.size());
-
+            this.totalCount = positions.size();
+            this.progressMonitor.setTicksCount(totalCount);
         }
 
         /**
-         * @return true, if all is done
+         * @return true, if all is done, or the task was canceled and tiles already requested have finished loading
          */
         public boolean isFinished() {
-            return processedCount.get() >= totalCount;
+            return completion.isDone();
         }
 
         /**
@@ -1041,10 +1381,50 @@ implements ImageObserver, TileLoaderListener {
             return totalCount;
         }
 
+        /**
+         * @return number of tiles processed so far, including failed and skipped ones
+         */
+        public int getProcessedCount() {
+            return processedCount.get();
+        }
+
+        /**
+         * @return number of tiles, which were already cached and weren't requested
+         */
+        public int getSkippedCount() {
+            return skippedCount.get();
+        }
+
+        /**
+         * @return number of tiles, which failed to load
+         */
+        public int getFailedCount() {
+            return failedCount.get();
+        }
+
+        /**
+         * Waits until all the tiles are processed, or the task is canceled and tiles already requested finish loading
+         * @param timeout max time to wait
+         * @param unit time unit of the timeout argument
+         * @return <code>true</code> if task has finished, <code>false</code> if timeout elapsed
+         * @throws InterruptedException if interrupted while waiting
+         */
+        public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+            try {
+                completion.get(timeout, unit);
+                return true;
+            } catch (TimeoutException e) {
+                return false;
+            } catch (ExecutionException e) {
+                throw new JosmRuntimeException(e);
+            }
+        }
+
         /**
          * cancel the task
          */
         public void cancel() {
+            submitter.cancel();
             if (tileLoader instanceof TMSCachedTileLoader) {
                 ((TMSCachedTileLoader) tileLoader).cancelOutstandingTasks();
             }
@@ -1052,17 +1432,19 @@ implements ImageObserver, TileLoaderListener {
 
         @Override
         public void tileLoadingFinished(Tile tile, boolean success) {
-            int processed = this.processedCount.incrementAndGet();
             if (success) {
                 synchronized (progressMonitor) {
                     if (!this.progressMonitor.isCanceled()) {
                         this.progressMonitor.worked(1);
-                        this.progressMonitor.setCustomText(MessageFormat.format("Downloaded {0}/{1} tiles", processed, totalCount));
+                        this.progressMonitor.setCustomText(MessageFormat.format("Downloaded {0}/{1} tiles", processedCount.get() + 1, totalCount));
                     }
                 }
             } else {
+                failedCount.incrementAndGet();
                 Logging.warn("Tile loading failure: " + tile + " - " + tile.getErrorMessage());
             }
+            processedCount.incrementAndGet();
+            submitter.finished();
         }
 
         /**
@@ -1073,17 +1455,66 @@ implements ImageObserver, TileLoaderListener {
         }
 
         /**
-         * Execute the download
+         * Execute the download. Tiles already present in the cache are skipped, so interrupted download could be
+         * resumed by running the task for the same tiles again.
+         * <p>
+         * Method doesn't wait for the download - only first tiles are submitted, and next ones are submitted once
+         * previous ones finish loading
          */
         public void run() {
-            TileLoader loader = getTileLoader();
-            for (Tile t: requestedTiles) {
-                if (!progressMonitor.isCanceled()) {
-                    loader.createTileLoaderJob(t).submit();
-                }
+            submitter.start();
+        }
+
+        private boolean submitTile(TilePosition position) {
+            if (progressMonitor.isCanceled()) {
+                submitter.cancel();
+                return false;
             }
+            if (isTileCached(position)) {
+                skippedCount.incrementAndGet();
+                processedCount.incrementAndGet();
+                return false;
+            }
+            try {
+                // failed submit notifies the listener as well, so the tile is counted in tileLoadingFinished
+                getTileLoader().createTileLoaderJob(
+                        new Tile(tileSource, position.getX(), position.getY(), position.getZoom())).submit();
+                return true;
+            } catch (RuntimeException e) {
+                Logging.logWithStackTrace(Logging.LEVEL_WARN, e, "Tile loading failure: {0}", position);
+                failedCount.incrementAndGet();
+                processedCount.incrementAndGet();
+                return false;
+            }
+        }
+    }
 
+    /**
+     * @param points lat/lon coordinates to download
+     * @param bufferX how many units in current Coordinate Reference System to cover in X axis in both sides
+     * @param bufferY how many units in current Coordinate Reference System to cover in Y axis in both sides
+     * @return tiles covering given points with the buffer, at current zoom level
+     */
+    private Set<TilePosition> getPrecacheTiles(List<LatLon> points, double bufferX, double bufferY) {
+        Set<TilePosition> requestedTiles = new LinkedHashSet<>();
+        for (LatLon point: points) {
+            TileXY minTile = tileSource.latLonToTileXY(point.lat() - bufferY, point.lon() - bufferX, currentZoomLevel);
+            TileXY curTile = tileSource.latLonToTileXY(CoordinateConversion.llToCoor(point), currentZoomLevel);
+            TileXY maxTile = tileSource.latLonToTileXY(point.lat() + bufferY, point.lon() + bufferX, currentZoomLevel);
+
+            // take at least one tile of buffer
+            int minY = Math.min(curTile.getYIndex() - 1, minTile.getYIndex());
+            int maxY = Math.max(curTile.getYIndex() + 1, maxTile.getYIndex());
+            int minX = Math.min(curTile.getXIndex() - 1, minTile.getXIndex());
+            int maxX = Math.max(curTile.getXIndex() + 1, maxTile.getXIndex());
+
+            for (int x = minX; x <= maxX; x++) {
+                for (int y = minY; y <= maxY; y++) {
+                    requestedTiles.add(new TilePosition(x, y, currentZoomLevel));
+                }
+            }
         }
+        return requestedTiles;
     }
 
     /**
@@ -1103,4 +1534,17 @@ implements ImageObserver, TileLoaderListener {
         return new PrecacheTask(progressMonitor, points, bufferX, bufferY);
     }
 
+    /**
+     * Creates a task to download given tiles to cache, using separate download executor limited by per host connection
+     * limit. Tiles already present in the cache are skipped.
+     *
+     * @param progressMonitor progress monitor for download task
+     * @param positions tiles to download, in the order they should be requested
+     * @return precache task representing download task
+     */
+    public AbstractTileSourceLayer<T>.PrecacheTask getDownloadTilesToCacheTask(final ProgressMonitor progressMonitor,
+            Collection<TilePosition> positions) {
+        return new PrecacheTask(progressMonitor, positions);
+    }
+
 }
@@ -0,0 +1,136 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer;
+
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openstreetmap.josm.tools.Logging;
+
+/**
+ * Submits items for asynchronous processing, keeping at most given number of them in flight. Next items are submitted
+ * when the previous ones finish, so requests which weren't submitted yet don't hold any resources.
+ * <p>
+ * Completion is signalled once there is nothing more to submit - all items were submitted or the submitter was
+ * canceled - and all the submitted items have finished.
+ *
+ * @param <T> type of the items
+ */
+final class BoundedSubmitter<T> {
+
+    /**
+     * Starts processing of a single item
+     * @param <T> type of the items
+     */
+    @FunctionalInterface
+    interface Handler<T> {
+        /**
+         * @param item item to process
+         * @return <code>true</code> if processing was started, and {@link BoundedSubmitter#finished()} will be called
+         * once it's done, <code>false</code> if the item was handled synchronously or skipped
+         */
+        boolean submit(T item);
+    }
+
+    private final Iterator<T> items;
+    private final Handler<T> handler;
+    // permits for items, which could be submitted before some of the submitted ones finish
+    private final Semaphore window;
+    // set by the thread iterating over items, so only one thread submits them at a time
+    private final AtomicBoolean submitting = new AtomicBoolean();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    private volatile boolean exhausted;
+
+    /**
+     * Constructs a new {@code BoundedSubmitter}.
+     * @param items items to submit, iterated only by the submitting thread
+     * @param maxInFlight maximum number of submitted items, which didn't finish yet
+     * @param handler starts processing of the items
+     */
+    BoundedSubmitter(Iterator<T> items, int maxInFlight, Handler<T> handler) {
+        this.items = items;
+        this.window = new Semaphore(maxInFlight);
+        this.handler = handler;
+    }
+
+    /**
+     * Submits first items. Doesn't wait for them to finish
+     */
+    void start() {
+        submitPending();
+    }
+
+    /**
+     * Marks one of the submitted items as finished, and submits next items in its place. Must be called exactly once
+     * for each item, for which {@link Handler#submit} returned <code>true</code>
+     */
+    void finished() {
+        inFlight.decrementAndGet();
+        window.release();
+        submitPending();
+        checkCompletion();
+    }
+
+    /**
+     * Stops submitting of the items. Completion is signalled once items already submitted finish
+     */
+    void cancel() {
+        exhausted = true;
+        checkCompletion();
+    }
+
+    /**
+     * @return future completed once all submitted items have finished and there are no more items to submit
+     */
+    CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * Submits items while there are free permits in the window. If other thread is submitting already, it picks up
+     * released permit, so callbacks never wait here, and callback called synchronously on submit doesn't recurse
+     */
+    private void submitPending() {
+        while (!exhausted && window.availablePermits() > 0 && submitting.compareAndSet(false, true)) {
+            try {
+                while (!exhausted && window.tryAcquire()) {
+                    if (items.hasNext()) {
+                        submit(items.next());
+                    } else {
+                        exhausted = true;
+                        window.release();
+                    }
+                }
+            } finally {
+                submitting.set(false);
+            }
+        }
+        checkCompletion();
+    }
+
+    private void submit(T item) {
+        // counted before checking for cancellation, so either cancel() sees the item in flight, or we see it canceled
+        inFlight.incrementAndGet();
+        boolean started = false;
+        if (!exhausted) {
+            try {
+                started = handler.submit(item);
+            } catch (RuntimeException e) {
+                Logging.logWithStackTrace(Logging.LEVEL_ERROR, e, "Failed to submit {0}", item);
+            }
+        }
+        if (!started) {
+            inFlight.decrementAndGet();
+            window.release();
+        }
+    }
+
+    private void checkCompletion() {
+        if (exhausted && inFlight.get() == 0) {
+            completion.complete(null);
+        }
+    }
+}
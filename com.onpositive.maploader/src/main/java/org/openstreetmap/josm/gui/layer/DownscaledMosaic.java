@@ -0,0 +1,94 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Mosaic downscaling tiles while they are added, so full resolution image of the area is never allocated.
+ * Uses box filter - every output pixel is an average of all the source pixels falling into it. Tiles could be added
+ * in any order and from different threads, result is available once all the tiles covering the area were added.
+ */
+class DownscaledMosaic {
+
+    private final Rectangle bounds;
+    private final int width;
+    private final int height;
+    private final int[] red;
+    private final int[] green;
+    private final int[] blue;
+    private final int[] count;
+
+    /**
+     * Constructs a new {@code DownscaledMosaic}.
+     * @param bounds mosaic bounds in source pixels
+     * @param width output width
+     * @param height output height
+     */
+    DownscaledMosaic(Rectangle bounds, int width, int height) {
+        this.bounds = bounds;
+        this.width = width;
+        this.height = height;
+        int size = width * height;
+        red = new int[size];
+        green = new int[size];
+        blue = new int[size];
+        count = new int[size];
+    }
+
+    /**
+     * Add tile image part
+     * @param img tile image
+     * @param tileRect tile bounds in source pixels, image is scaled to it if it's size differs
+     * @param overlap part of the tile to add, in source pixels
+     */
+    synchronized void add(BufferedImage img, Rectangle tileRect, Rectangle overlap) {
+        double imgScaleX = img.getWidth() / (double) tileRect.width;
+        double imgScaleY = img.getHeight() / (double) tileRect.height;
+        int ix1 = (int) Math.floor((overlap.x - tileRect.x) * imgScaleX);
+        int ix2 = Math.min(img.getWidth(), (int) Math.ceil((overlap.x + overlap.width - tileRect.x) * imgScaleX));
+        int iy1 = (int) Math.floor((overlap.y - tileRect.y) * imgScaleY);
+        int iy2 = Math.min(img.getHeight(), (int) Math.ceil((overlap.y + overlap.height - tileRect.y) * imgScaleY));
+        if (ix2 <= ix1 || iy2 <= iy1) {
+            return;
+        }
+        int[] outX = new int[ix2 - ix1];
+        for (int ix = ix1; ix < ix2; ix++) {
+            outX[ix - ix1] = toOutput(tileRect.x + (int) (ix / imgScaleX) - bounds.x, bounds.width, width);
+        }
+        int[] row = new int[ix2 - ix1];
+        for (int iy = iy1; iy < iy2; iy++) {
+            int oy = toOutput(tileRect.y + (int) (iy / imgScaleY) - bounds.y, bounds.height, height);
+            img.getRGB(ix1, iy, row.length, 1, row, 0, row.length);
+            int rowOffset = oy * width;
+            for (int i = 0; i < row.length; i++) {
+                int idx = rowOffset + outX[i];
+                int rgb = row[i];
+                red[idx] += (rgb >> 16) & 0xFF;
+                green[idx] += (rgb >> 8) & 0xFF;
+                blue[idx] += rgb & 0xFF;
+                count[idx]++;
+            }
+        }
+    }
+
+    private static int toOutput(int sourceCoord, int sourceSize, int outSize) {
+        return Math.max(0, Math.min(outSize - 1, (int) ((long) sourceCoord * outSize / sourceSize)));
+    }
+
+    /**
+     * @return downscaled image of TYPE_INT_RGB type
+     */
+    synchronized BufferedImage toImage() {
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] data = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < data.length; i++) {
+            int n = count[i];
+            if (n > 0) {
+                data[i] = ((red[i] + n / 2) / n) << 16 | ((green[i] + n / 2) / n) << 8 | ((blue[i] + n / 2) / n);
+            }
+        }
+        return result;
+    }
+}
@@ -53,6 +53,26 @@ public class TilePosition {
         return zoom;
     }
 
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + x;
+        result = prime * result + y;
+        result = prime * result + zoom;
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof TilePosition))
+            return false;
+        TilePosition other = (TilePosition) obj;
+        return x == other.x && y == other.y && zoom == other.zoom;
+    }
+
     @Override
     public String toString() {
         return "TilePosition [x=" + x + ", y=" + y + ", zoom=" + zoom + ']';
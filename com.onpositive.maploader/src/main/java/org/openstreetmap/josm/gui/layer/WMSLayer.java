@@ -3,12 +3,20 @@ package org.openstreetmap.josm.gui.layer;
 
 
 
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.net.MalformedURLException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
+import org.openstreetmap.gui.jmapviewer.Coordinate;
+import org.openstreetmap.gui.jmapviewer.TileXY;
 import org.openstreetmap.gui.jmapviewer.interfaces.TileLoader;
+import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.imagery.AbstractWMSTileSource;
 import org.openstreetmap.josm.data.imagery.ImageryInfo;
 import org.openstreetmap.josm.data.imagery.ImageryInfo.ImageryType;
@@ -23,10 +31,14 @@ import org.openstreetmap.josm.tools.CheckParameterUtil;
 import org.openstreetmap.josm.tools.Logging;
 import org.openstreetmap.josm.tools.Utils;
 
+import math.geom2d.Box2D;
+
 /**
  * This is a layer that grabs the current screen from an WMS server. The data
  * fetched this way is tiled and managed to the disc to reduce server load.
- *
+ * <p>
+ * In direct GetMap mode (see {@link #setDirectGetMap(boolean)}) images for bounding boxes are not composed from tiles -
+ * single GetMap request is sent for the exact bounding box and image size instead.
  */
 public class WMSLayer extends AbstractCachedTileSourceLayer<AbstractWMSTileSource> {
     private static final String PREFERENCE_PREFIX = "imagery.wms";
@@ -40,6 +52,8 @@ public class WMSLayer extends AbstractCachedTileSourceLayer<AbstractWMSTileSourc
 
     private List<String> serverProjections;
 
+    private volatile boolean directGetMap;
+
     /**
      * Constructs a new {@code WMSLayer}.
      * @param info ImageryInfo description of the layer
@@ -115,6 +129,79 @@ public class WMSLayer extends AbstractCachedTileSourceLayer<AbstractWMSTileSourc
         return proj;
     }
 
+    /**
+     * Enables direct GetMap mode. Clipped images painted by {@link #paintImageForAsync(Box2D, int, boolean, double, int)}
+     * are then loaded with single GetMap request for exact bounding box and image size, instead of loading and
+     * composing all the covering tiles. Images are cached by GetMap request, so this mode is useful when images of
+     * different areas are painted, e.g. for samples collection. Tiles are still used for other painting
+     * @param directGetMap <code>true</code> to enable direct GetMap mode, <code>false</code> by default
+     */
+    public void setDirectGetMap(boolean directGetMap) {
+        this.directGetMap = directGetMap;
+    }
+
+    /**
+     * @return <code>true</code> if clipped images are loaded with single GetMap request, see {@link #setDirectGetMap(boolean)}
+     */
+    public boolean isDirectGetMap() {
+        return directGetMap && getTileLoader() instanceof WMSCachedTileLoader;
+    }
+
+    /**
+     * In direct GetMap mode, clipped image is loaded with single GetMap request. Image size is the same, as the size of
+     * the image composed from tiles of given zoom level, downscaled to given max size
+     */
+    @Override
+    public CompletableFuture<BufferedImage> paintImageForAsync(Box2D boundingBox, int zoom, boolean clipAndCenter, double growFactorPercent,
+            int maxSize) {
+        if (!clipAndCenter || !isDirectGetMap()) {
+            return super.paintImageForAsync(boundingBox, zoom, clipAndCenter, growFactorPercent, maxSize);
+        }
+        if (maxSize > 0) {
+            zoom = getSufficientZoom(boundingBox, zoom, maxSize);
+        }
+        TileXY t1 = tileSource.latLonToTileXY(new Coordinate(boundingBox.getMinY(), boundingBox.getMinX()), zoom);
+        TileXY t2 = tileSource.latLonToTileXY(new Coordinate(boundingBox.getMaxY(), boundingBox.getMaxX()), zoom);
+        double width = Math.abs(t2.getX() - t1.getX()) * tileSource.getTileSize();
+        double height = Math.abs(t2.getY() - t1.getY()) * tileSource.getTileSize();
+        double ratio = maxSize > 0 ? Math.max(width, height) / maxSize : 1;
+        if (ratio > 1) {
+            width /= ratio;
+            height /= ratio;
+        }
+        int imageWidth = (int) Math.max(1, Math.round(width));
+        int imageHeight = (int) Math.max(1, Math.round(height));
+        String url = tileSource.getMapUrl(new LatLon(boundingBox.getMinY(), boundingBox.getMinX()),
+                new LatLon(boundingBox.getMaxY(), boundingBox.getMaxX()), imageWidth, imageHeight);
+        try {
+            return ((WMSCachedTileLoader) getTileLoader()).createGetMapJob(tileSource.getName(), url).load()
+                    .thenApply(img -> toRgbImage(applyImageProcessors(img), imageWidth, imageHeight));
+        } catch (MalformedURLException e) {
+            CompletableFuture<BufferedImage> result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+            return result;
+        }
+    }
+
+    /**
+     * @return image of TYPE_INT_RGB type and given size, same as images composed from tiles. Given image is returned, if
+     * it matches already, otherwise it's copied and scaled if server returned image of different size
+     */
+    private static BufferedImage toRgbImage(BufferedImage img, int width, int height) {
+        if (img.getType() == BufferedImage.TYPE_INT_RGB && img.getWidth() == width && img.getHeight() == height) {
+            return img;
+        }
+        BufferedImage outImg = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = outImg.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(img, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return outImg;
+    }
+
     @Override
     protected Class<? extends TileLoader> getTileLoaderClass() {
         return WMSCachedTileLoader.class;
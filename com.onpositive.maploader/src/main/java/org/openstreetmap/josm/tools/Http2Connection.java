@@ -0,0 +1,360 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.CookieHandler;
+import java.net.HttpURLConnection;
+import java.net.ProxySelector;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link HttpURLConnection} backed by {@code java.net.http.HttpClient} (Java 11+), so requests to servers supporting
+ * HTTP/2 are multiplexed over a few shared connections, instead of using one connection per parallel request.
+ * <p>
+ * {@code java.net.http} API is not available at compile time (we target Java 8), so it's accessed reflectively, and
+ * {@link #isSupported()} should be checked before use. Request is sent on {@link #connect()}, response body is streamed.
+ * Redirects are not followed, the same as {@link HttpClient} expects from {@link HttpURLConnection}.
+ */
+final class Http2Connection extends HttpURLConnection {
+
+    /** Headers managed by {@code java.net.http} itself, which can't be set by the caller */
+    private static final Set<String> RESTRICTED_HEADERS = new HashSet<>(Arrays.asList(
+            "connection", "content-length", "expect", "host", "upgrade"));
+
+    private final Map<String, String> requestHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private ByteArrayOutputStream requestBody;
+    private int status = -1;
+    private String version;
+    private List<String> headerKeys;
+    private List<String> headerValues;
+    private Map<String, List<String>> responseHeaders;
+    private InputStream body;
+
+    Http2Connection(URL url) {
+        super(url);
+    }
+
+    /**
+     * @return {@code true} if {@code java.net.http} API is available in current runtime
+     */
+    static boolean isSupported() {
+        return Api.SUPPORTED;
+    }
+
+    @Override
+    public void setRequestProperty(String key, String value) {
+        super.setRequestProperty(key, value);
+        requestHeaders.put(key, value);
+    }
+
+    @Override
+    public void addRequestProperty(String key, String value) {
+        super.addRequestProperty(key, value);
+        requestHeaders.merge(key, value, (a, b) -> a + ", " + b);
+    }
+
+    @Override
+    public String getRequestProperty(String key) {
+        return requestHeaders.get(key);
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (connected) {
+            throw new IOException("Already connected");
+        }
+        if (requestBody == null) {
+            requestBody = new ByteArrayOutputStream();
+        }
+        return requestBody;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (connected) {
+            return;
+        }
+        Map<String, String> sentHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Entry<String, String> e : requestHeaders.entrySet()) {
+            if (e.getValue() != null && !RESTRICTED_HEADERS.contains(e.getKey().toLowerCase(Locale.ENGLISH))) {
+                sentHeaders.put(e.getKey(), e.getValue());
+            }
+        }
+        if (ifModifiedSince > 0) {
+            sentHeaders.put("If-Modified-Since", DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                    Instant.ofEpochMilli(ifModifiedSince).atZone(ZoneOffset.UTC)));
+        }
+        byte[] content = requestBody == null ? null : requestBody.toByteArray();
+        try {
+            Object response = Api.send(getConnectTimeout(), url, method, getReadTimeout(), sentHeaders, content);
+            status = Api.getStatus(response);
+            version = Api.getVersion(response);
+            responseHeaders = Api.getHeaders(response);
+            body = Api.getBody(response);
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+        headerKeys = new ArrayList<>();
+        headerValues = new ArrayList<>();
+        headerKeys.add(null);
+        headerValues.add(version + ' ' + status);
+        for (Entry<String, List<String>> e : responseHeaders.entrySet()) {
+            for (String value : e.getValue()) {
+                headerKeys.add(e.getKey());
+                headerValues.add(value);
+            }
+        }
+        responseCode = status;
+        connected = true;
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        connect();
+        return status;
+    }
+
+    /**
+     * HTTP/2 has no reason phrase
+     */
+    @Override
+    public String getResponseMessage() throws IOException {
+        connect();
+        return "";
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        connect();
+        if (status == HTTP_NOT_FOUND || status == HTTP_GONE) {
+            throw new FileNotFoundException(url.toString());
+        }
+        if (status >= 400) {
+            throw new IOException("Server returned HTTP response code: " + status + " for URL: " + url);
+        }
+        return body;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return connected && status >= 400 ? body : null;
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+        if (!connected || name == null) {
+            return null;
+        }
+        List<String> values = responseHeaders.get(name);
+        return values == null || values.isEmpty() ? null : values.get(values.size() - 1);
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        return connected ? responseHeaders : Collections.emptyMap();
+    }
+
+    @Override
+    public String getHeaderFieldKey(int n) {
+        return connected && n >= 0 && n < headerKeys.size() ? headerKeys.get(n) : null;
+    }
+
+    @Override
+    public String getHeaderField(int n) {
+        return connected && n >= 0 && n < headerValues.size() ? headerValues.get(n) : null;
+    }
+
+    @Override
+    public void disconnect() {
+        // connections are pooled by the shared client, only stop receiving the body
+        if (body != null) {
+            try {
+                body.close();
+            } catch (IOException e) {
+                Logging.trace(e);
+            }
+        }
+    }
+
+    @Override
+    public boolean usingProxy() {
+        return false;
+    }
+
+    /**
+     * Reflective access to {@code java.net.http} API
+     */
+    private static final class Api {
+        private static final boolean SUPPORTED;
+        private static Class<?> clientClass;
+        private static Method clientSend;
+        private static Method requestNewBuilder;
+        private static Method requestTimeout;
+        private static Method requestHeader;
+        private static Method requestMethod;
+        private static Method requestBuild;
+        private static Method noBody;
+        private static Method ofByteArray;
+        private static Object bodyHandler;
+        private static Method responseStatusCode;
+        private static Method responseHeaders;
+        private static Method responseBody;
+        private static Method responseVersion;
+        private static Method headersMap;
+
+        /** Clients by connect timeout, so connections are shared between requests */
+        private static final ConcurrentMap<Integer, Object> CLIENTS = new ConcurrentHashMap<>();
+
+        static {
+            boolean supported = false;
+            try {
+                clientClass = Class.forName("java.net.http.HttpClient");
+                Class<?> requestClass = Class.forName("java.net.http.HttpRequest");
+                Class<?> requestBuilderClass = Class.forName("java.net.http.HttpRequest$Builder");
+                Class<?> publisherClass = Class.forName("java.net.http.HttpRequest$BodyPublisher");
+                Class<?> publishersClass = Class.forName("java.net.http.HttpRequest$BodyPublishers");
+                Class<?> handlerClass = Class.forName("java.net.http.HttpResponse$BodyHandler");
+                Class<?> handlersClass = Class.forName("java.net.http.HttpResponse$BodyHandlers");
+                Class<?> responseClass = Class.forName("java.net.http.HttpResponse");
+                clientSend = clientClass.getMethod("send", requestClass, handlerClass);
+                requestNewBuilder = requestClass.getMethod("newBuilder", java.net.URI.class);
+                requestTimeout = requestBuilderClass.getMethod("timeout", Duration.class);
+                requestHeader = requestBuilderClass.getMethod("header", String.class, String.class);
+                requestMethod = requestBuilderClass.getMethod("method", String.class, publisherClass);
+                requestBuild = requestBuilderClass.getMethod("build");
+                noBody = publishersClass.getMethod("noBody");
+                ofByteArray = publishersClass.getMethod("ofByteArray", byte[].class);
+                bodyHandler = handlersClass.getMethod("ofInputStream").invoke(null);
+                responseStatusCode = responseClass.getMethod("statusCode");
+                responseHeaders = responseClass.getMethod("headers");
+                responseBody = responseClass.getMethod("body");
+                responseVersion = responseClass.getMethod("version");
+                headersMap = Class.forName("java.net.http.HttpHeaders").getMethod("map");
+                supported = true;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                Logging.trace(e);
+            }
+            SUPPORTED = supported;
+        }
+
+        private Api() {
+            // Hide default constructor
+        }
+
+        private static Object getClient(int connectTimeout) {
+            return CLIENTS.computeIfAbsent(connectTimeout, Api::newClient);
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        private static Object newClient(int connectTimeout) {
+            try {
+                Class<?> builderClass = Class.forName("java.net.http.HttpClient$Builder");
+                Class versionClass = Class.forName("java.net.http.HttpClient$Version");
+                Class redirectClass = Class.forName("java.net.http.HttpClient$Redirect");
+                Object builder = clientClass.getMethod("newBuilder").invoke(null);
+                builderClass.getMethod("version", versionClass).invoke(builder, Enum.valueOf(versionClass, "HTTP_2"));
+                builderClass.getMethod("followRedirects", redirectClass).invoke(builder, Enum.valueOf(redirectClass, "NEVER"));
+                builderClass.getMethod("proxy", ProxySelector.class).invoke(builder, ProxySelector.getDefault());
+                if (CookieHandler.getDefault() != null) {
+                    builderClass.getMethod("cookieHandler", CookieHandler.class).invoke(builder, CookieHandler.getDefault());
+                }
+                if (connectTimeout > 0) {
+                    builderClass.getMethod("connectTimeout", Duration.class).invoke(builder, Duration.ofMillis(connectTimeout));
+                }
+                return builderClass.getMethod("build").invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                throw new JosmRuntimeException(e);
+            }
+        }
+
+        static Object send(int connectTimeout, URL url, String method, int readTimeout, Map<String, String> headers,
+                byte[] content) throws IOException, URISyntaxException {
+            try {
+                Object builder = requestNewBuilder.invoke(null, url.toURI());
+                if (readTimeout > 0) {
+                    requestTimeout.invoke(builder, Duration.ofMillis(readTimeout));
+                }
+                for (Entry<String, String> e : headers.entrySet()) {
+                    requestHeader.invoke(builder, e.getKey(), e.getValue());
+                }
+                requestMethod.invoke(builder, method, content == null ? noBody.invoke(null) : ofByteArray.invoke(null, content));
+                Object request = requestBuild.invoke(builder);
+                return clientSend.invoke(getClient(connectTimeout), request, bodyHandler);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                    throw (IOException) new InterruptedIOException("Interrupted while loading " + url).initCause(cause);
+                }
+                if (cause instanceof IOException && cause.getClass().getName().startsWith("java.net.http.Http")
+                        && cause.getClass().getName().endsWith("TimeoutException")) {
+                    // callers treat SocketTimeoutException as transient error
+                    throw (IOException) new SocketTimeoutException(cause.getMessage()).initCause(cause);
+                }
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException(cause);
+            } catch (IllegalAccessException e) {
+                throw new JosmRuntimeException(e);
+            }
+        }
+
+        static int getStatus(Object response) throws IOException {
+            return (Integer) invoke(responseStatusCode, response);
+        }
+
+        static String getVersion(Object response) throws IOException {
+            return "HTTP_2".equals(String.valueOf(invoke(responseVersion, response))) ? "HTTP/2" : "HTTP/1.1";
+        }
+
+        @SuppressWarnings("unchecked")
+        static Map<String, List<String>> getHeaders(Object response) throws IOException {
+            Map<String, List<String>> ret = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            ret.putAll((Map<String, List<String>>) invoke(headersMap, invoke(responseHeaders, response)));
+            return Collections.unmodifiableMap(ret);
+        }
+
+        static InputStream getBody(Object response) throws IOException {
+            InputStream in = (InputStream) invoke(responseBody, response);
+            return in == null ? new ByteArrayInputStream(new byte[0]) : in;
+        }
+
+        private static Object invoke(Method m, Object target) throws IOException {
+            try {
+                return m.invoke(target);
+            } catch (ReflectiveOperationException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}
@@ -27,6 +27,8 @@ import java.util.Optional;
 import java.util.Scanner;
 import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
@@ -54,6 +56,7 @@ public final class HttpClient {
     private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
     private int maxRedirects = 5;
     private boolean useCache;
+    private boolean useHttp2;
     private String reasonForRequest;
     private String outputMessage = "Uploading data ...";
     private HttpURLConnection connection; // to allow disconnecting before `response` is set
@@ -108,7 +111,7 @@ public final class HttpClient {
         if (progressMonitor == null) {
             progressMonitor = org.openstreetmap.josm.gui.progress.NullProgressMonitor.INSTANCE;
         }
-        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        final HttpURLConnection connection = openConnection();
         this.connection = connection;
         connection.setRequestMethod(requestMethod);
         connection.setRequestProperty("User-Agent", Version.getInstance().getFullAgentString());
@@ -199,6 +202,13 @@ public final class HttpClient {
         }
     }
 
+    private HttpURLConnection openConnection() throws IOException {
+        if (useHttp2 && Http2Connection.isSupported() && url.getProtocol().startsWith("http")) {
+            return new Http2Connection(url);
+        }
+        return (HttpURLConnection) url.openConnection();
+    }
+
     /**
      * Returns the HTTP response which is set only after calling {@link #connect()}.
      * Calling this method again, returns the identical object (unless another {@link #connect()} is performed).
@@ -221,6 +231,8 @@ public final class HttpClient {
         private boolean uncompress;
         private boolean uncompressAccordingToContentDisposition;
         private String responseData;
+        // lock instead of synchronized method, so virtual thread reading the response doesn't pin it's carrier thread
+        private final Lock fetchLock = new ReentrantLock();
 
         private Response(HttpURLConnection connection, ProgressMonitor monitor) throws IOException {
             CheckParameterUtil.ensureParameterNotNull(connection, "connection");
@@ -353,13 +365,61 @@ public final class HttpClient {
          * @return the response
          * @throws IOException if any I/O error occurs
          */
-        public synchronized String fetchContent() throws IOException {
-            if (responseData == null) {
-                try (Scanner scanner = new Scanner(getContentReader()).useDelimiter("\\A")) { // \A - beginning of input
-                    responseData = scanner.hasNext() ? scanner.next() : "";
+        public String fetchContent() throws IOException {
+            fetchLock.lock();
+            try {
+                if (responseData == null) {
+                    try (Scanner scanner = new Scanner(getContentReader()).useDelimiter("\\A")) { // \A - beginning of input
+                        responseData = scanner.hasNext() ? scanner.next() : "";
+                    }
                 }
+                return responseData;
+            } finally {
+                fetchLock.unlock();
+            }
+        }
+
+        /**
+         * Fetches the whole HTTP response body as bytes.
+         * <p>
+         * Image bodies, which are not content encoded, are read from the connection straight into array of
+         * {@code Content-Length} size, without progress and decompression wrappers, so the body is not copied between
+         * intermediate buffers. Other bodies are read from {@link #getContent()}.
+         * @return the response body
+         * @throws IOException if any I/O error occurs
+         */
+        public byte[] fetchBytes() throws IOException {
+            String contentType = getContentType();
+            String encoding = getContentEncoding();
+            if (contentType == null || !contentType.startsWith("image/") || uncompress || uncompressAccordingToContentDisposition
+                    || (encoding != null && !"identity".equalsIgnoreCase(encoding))) {
+                return Utils.readBytesFromStream(getContent());
+            }
+            InputStream in;
+            try {
+                in = connection.getInputStream();
+            } catch (IOException ioe) {
+                Logging.debug(ioe);
+                in = connection.getErrorStream();
+            }
+            long length = getContentLength();
+            if (in == null || length < 0 || length > Integer.MAX_VALUE - 8) {
+                return Utils.readBytesFromStream(in);
+            }
+            try {
+                byte[] content = new byte[(int) length];
+                int pos = 0;
+                while (pos < content.length) {
+                    int read = in.read(content, pos, content.length - pos);
+                    if (read < 0) {
+                        throw new IOException(MessageFormat.format("Response body ended after {0} of {1} bytes", pos, length));
+                    }
+                    pos += read;
+                }
+                return content;
+            } finally {
+                in.close();
             }
-            return responseData;
         }
 
         /**
@@ -440,6 +500,24 @@ public final class HttpClient {
             return connection.getHeaderField(name);
         }
 
+        /**
+         * Returns the delay requested with {@code Retry-After} header, given either as number of seconds or as HTTP date.
+         * @return delay in milliseconds, or 0 if header is missing or malformed
+         */
+        public long getRetryAfter() {
+            String value = connection.getHeaderField("Retry-After");
+            if (value == null || value.trim().isEmpty()) {
+                return 0;
+            }
+            try {
+                return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim())));
+            } catch (NumberFormatException e) {
+                Logging.trace(e);
+            }
+            long date = connection.getHeaderFieldDate("Retry-After", 0);
+            return date == 0 ? 0 : Math.max(0, date - System.currentTimeMillis());
+        }
+
         /**
          * Returns an unmodifiable Map mapping header keys to a List of header values.
          * As per RFC 2616, section 4.2 header names are case insensitive, so returned map is also case insensitive
@@ -530,6 +608,18 @@ public final class HttpClient {
         return this;
     }
 
+    /**
+     * Sets whether to send request with {@code java.net.http} client, which uses HTTP/2 if server supports it, so
+     * parallel requests to the server share few multiplexed connections. Ignored, if runtime is older than Java 11
+     *
+     * @param useHttp2 whether to use HTTP/2 capable client
+     * @return {@code this}
+     */
+    public HttpClient useHttp2(boolean useHttp2) {
+        this.useHttp2 = useHttp2;
+        return this;
+    }
+
     /**
      * Sets whether not to set header {@code Connection=close}
      * <p>
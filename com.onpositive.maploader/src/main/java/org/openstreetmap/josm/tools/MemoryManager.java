@@ -5,6 +5,7 @@ package org.openstreetmap.josm.tools;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.LongFunction;
 import java.util.function.Supplier;
 
 /**
@@ -59,6 +60,31 @@ public class MemoryManager {
         }
     }
 
+    /**
+     * Allocates memory for a cache which could work with less memory than requested.
+     * <p>
+     * If requested amount is not available, at most half of the available memory is allocated, so there is still
+     * some memory left for other components.
+     * @param <T> The content type of the memory-
+     * @param name A name for the memory area. Only used for debugging.
+     * @param maxBytes The desired amount of bytes the content may have
+     * @param minBytes The minimal amount of bytes the content could work with
+     * @param factory The factory to use to procude the content for the amount of bytes actually allocated.
+     * @return A memory handle to the content, {@link MemoryHandle#getSize()} is the amount actually allocated.
+     * @throws NotEnoughMemoryException If there is not enough memory to allocate even the minimal amount.
+     */
+    public synchronized <T> MemoryHandle<T> allocateMemory(String name, long maxBytes, long minBytes, LongFunction<T> factory)
+            throws NotEnoughMemoryException {
+        long bytes = isAvailable(maxBytes) ? maxBytes : Math.min(maxBytes, getAvailableMemory() / 2);
+        if (bytes < minBytes) {
+            throw new NotEnoughMemoryException(minBytes);
+        }
+        if (bytes < maxBytes) {
+            Logging.warn("Not enough memory for {0}: {1} MB requested, using {2} MB", name, maxBytes / 1024 / 1024, bytes / 1024 / 1024);
+        }
+        return allocateMemory(name, bytes, () -> factory.apply(bytes));
+    }
+
     /**
      * Check if that memory is available
      * @param maxBytes The memory to check for
@@ -0,0 +1,64 @@
+package com.onpositive.maploader;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link CompletionTracker}
+ */
+public class CompletionTrackerTest extends TestCase {
+
+	public void testNoPendingTasks() throws InterruptedException {
+		CompletionTracker tracker = new CompletionTracker();
+		assertEquals(0, tracker.getPendingCount());
+		tracker.awaitCompletion();
+		tracker.taskStarted();
+		tracker.taskFinished();
+		tracker.awaitCompletion();
+	}
+
+	public void testAwaitReturnsAfterLastTask() throws InterruptedException {
+		CompletionTracker tracker = new CompletionTracker();
+		for (int i = 0; i < 3; i++) {
+			tracker.taskStarted();
+		}
+		assertEquals(3, tracker.getPendingCount());
+		CountDownLatch completed = new CountDownLatch(1);
+		Thread waiter = new Thread(() -> {
+			try {
+				tracker.awaitCompletion();
+				completed.countDown();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		waiter.start();
+		tracker.taskFinished();
+		tracker.taskFinished();
+		assertFalse(completed.await(100, TimeUnit.MILLISECONDS));
+		// task registered while waiting, e.g. retry of the failed one
+		tracker.taskStarted();
+		tracker.taskFinished();
+		assertFalse(completed.await(100, TimeUnit.MILLISECONDS));
+		assertEquals(1, tracker.getPendingCount());
+		tracker.taskFinished();
+		assertTrue(completed.await(5, TimeUnit.SECONDS));
+		assertEquals(0, tracker.getPendingCount());
+		waiter.join();
+	}
+
+	public void testAwaitInterrupted() throws InterruptedException {
+		CompletionTracker tracker = new CompletionTracker();
+		tracker.taskStarted();
+		Thread.currentThread().interrupt();
+		try {
+			tracker.awaitCompletion();
+			fail();
+		} catch (InterruptedException e) {
+			// expected
+		}
+	}
+
+}
@@ -0,0 +1,97 @@
+package com.onpositive.maploader;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link RetryScheduler} backoff delays and retry limits
+ */
+public class RetrySchedulerTest extends TestCase {
+	
+	private ExecutorService service;
+
+	@Override
+	protected void setUp() throws Exception {
+		service = Executors.newSingleThreadExecutor();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		service.shutdownNow();
+	}
+
+	public void testDelayBounds() {
+		RetryScheduler scheduler = new RetryScheduler(service, 100, 100);
+		for (int attempt = 0; attempt < 40; attempt++) {
+			long max = Math.min(TimeUnit.MINUTES.toMillis(1), 1000L << Math.min(attempt, 16));
+			long lowest = Long.MAX_VALUE;
+			long highest = 0;
+			for (int i = 0; i < 1000; i++) {
+				long delay = scheduler.getDelay(attempt);
+				assertTrue("attempt " + attempt + ": " + delay, delay >= max / 2 && delay <= max);
+				lowest = Math.min(lowest, delay);
+				highest = Math.max(highest, delay);
+			}
+			// jitter spreads delays over the whole upper half
+			assertTrue(lowest < max * 3 / 5);
+			assertTrue(highest > max * 9 / 10);
+		}
+	}
+
+	public void testMaxAttempts() throws InterruptedException {
+		CountDownLatch executed = new CountDownLatch(2);
+		RetryScheduler scheduler = new ImmediateRetryScheduler(service, 2, 100);
+		Callable<Object> task = () -> {
+			executed.countDown();
+			return null;
+		};
+		assertTrue(scheduler.scheduleRetry(task, "host", 0));
+		assertTrue(scheduler.scheduleRetry(task, "host", 1));
+		assertFalse(scheduler.scheduleRetry(task, "host", 2));
+		assertTrue(executed.await(5, TimeUnit.SECONDS));
+	}
+
+	public void testHostRetryBudget() throws InterruptedException {
+		AtomicInteger executed = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(4);
+		RetryScheduler scheduler = new ImmediateRetryScheduler(service, 10, 3);
+		Callable<Object> task = () -> {
+			executed.incrementAndGet();
+			done.countDown();
+			return null;
+		};
+		for (int i = 0; i < 3; i++) {
+			assertTrue(scheduler.scheduleRetry(task, "a", 0));
+		}
+		// budget is shared by all tasks of the host, and stays spent
+		assertFalse(scheduler.scheduleRetry(task, "a", 0));
+		assertFalse(scheduler.scheduleRetry(task, "a", 0));
+		// other hosts have their own budget
+		assertTrue(scheduler.scheduleRetry(task, "b", 0));
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		Thread.sleep(100);
+		assertEquals(4, executed.get());
+	}
+
+	/**
+	 * Retries without delay, so tests don't wait for backoff
+	 */
+	private static class ImmediateRetryScheduler extends RetryScheduler {
+
+		ImmediateRetryScheduler(ExecutorService service, int maxAttempts, int hostRetryBudget) {
+			super(service, maxAttempts, hostRetryBudget);
+		}
+
+		@Override
+		protected long getDelay(int attempt) {
+			return 0;
+		}
+	}
+
+}
@@ -0,0 +1,135 @@
+package com.onpositive.maploader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ShardedSampleOutput} index consistency after interrupted runs
+ */
+public class ShardedSampleOutputTest extends TestCase {
+	
+	private File folder;
+
+	@Override
+	protected void setUp() throws Exception {
+		folder = Files.createTempDirectory("shards").toFile();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		File[] files = folder.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		folder.delete();
+	}
+
+	public void testIndexedEntriesReadableWithoutClose() throws IOException {
+		ShardedSampleOutput output = new ShardedSampleOutput(folder, "test", 64 * 1024, 1);
+		Random random = new Random(42);
+		for (int i = 0; i < 40; i++) {
+			byte[] data = new byte[1000 + random.nextInt(5000)];
+			random.nextBytes(data);
+			output.write("sample" + i + ".png", data);
+		}
+		// Output is abandoned without close(), like after killed process
+		ShardedSampleOutput reopened = new ShardedSampleOutput(folder, "test", 64 * 1024, 1);
+		List<String> rows = readIndex();
+		assertEquals(41, rows.size());
+		random = new Random(42);
+		for (int i = 0; i < 40; i++) {
+			byte[] expected = new byte[1000 + random.nextInt(5000)];
+			random.nextBytes(expected);
+			String name = "sample" + i + ".png";
+			assertTrue(reopened.contains(name));
+			assertTrue(Arrays.equals(expected, readEntry(rows, name)));
+		}
+		reopened.close();
+	}
+
+	public void testRowsPastShardEndDropped() throws IOException {
+		ShardedSampleOutput output = new ShardedSampleOutput(folder, "test", 1 << 20, 1);
+		output.write("first.png", new byte[3000]);
+		output.write("second.png", new byte[3000]);
+		List<String> rows = readIndex();
+		String[] second = rows.get(2).split(",");
+		try (RandomAccessFile file = new RandomAccessFile(new File(folder, second[1]), "rw")) {
+			file.setLength(Long.parseLong(second[2]) + 100);
+		}
+		Files.write(new File(folder, "test.index.csv").toPath(), "third.png,test-0000".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+		ShardedSampleOutput reopened = new ShardedSampleOutput(folder, "test", 1 << 20, 1);
+		assertTrue(reopened.contains("first.png"));
+		assertFalse(reopened.contains("second.png"));
+		assertFalse(reopened.contains("third.png"));
+		reopened.write("second.png", new byte[3000]);
+		reopened.close();
+		rows = readIndex();
+		assertEquals(3, rows.size());
+		assertEquals(3000, readEntry(rows, "second.png").length);
+	}
+	
+	public void testRowsWrittenAfterSync() throws IOException {
+		ShardedSampleOutput output = new ShardedSampleOutput(folder, "test", 1 << 20, 10);
+		for (int i = 0; i < 25; i++) {
+			output.write("sample" + i + ".png", new byte[1000]);
+			assertTrue(output.contains("sample" + i + ".png"));
+		}
+		// rows of samples written after last sync are not indexed yet
+		assertEquals(21, readIndex().size());
+		ShardedSampleOutput reopened = new ShardedSampleOutput(folder, "test", 1 << 20, 10);
+		assertTrue(reopened.contains("sample19.png"));
+		assertFalse(reopened.contains("sample20.png"));
+		reopened.close();
+		output.close();
+		List<String> rows = readIndex();
+		assertEquals(26, rows.size());
+		assertEquals(1000, readEntry(rows, "sample24.png").length);
+	}
+
+	public void testRowsWrittenOnShardRoll() throws IOException {
+		ShardedSampleOutput output = new ShardedSampleOutput(folder, "test", 10 * 1024, 100);
+		for (int i = 0; i < 5; i++) {
+			output.write("sample" + i + ".png", new byte[3000]);
+		}
+		// first shard is full after 3 samples
+		List<String> rows = readIndex();
+		assertEquals(4, rows.size());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(3000, readEntry(rows, "sample" + i + ".png").length);
+		}
+		output.close();
+		assertEquals(6, readIndex().size());
+	}
+
+	private List<String> readIndex() throws IOException {
+		return Files.readAllLines(new File(folder, "test.index.csv").toPath(), StandardCharsets.UTF_8);
+	}
+
+	private byte[] readEntry(List<String> rows, String name) throws IOException {
+		for (String row : rows) {
+			String[] parts = row.split(",");
+			if (parts[0].equals(name)) {
+				byte[] data = new byte[Integer.parseInt(parts[3])];
+				try (RandomAccessFile file = new RandomAccessFile(new File(folder, parts[1]), "r")) {
+					file.seek(Long.parseLong(parts[2]));
+					file.readFully(data);
+				}
+				return data;
+			}
+		}
+		fail("No index row for " + name);
+		return null;
+	}
+
+}
@@ -0,0 +1,84 @@
+// License: GPL. For details, see Readme.txt file.
+package org.openstreetmap.gui.jmapviewer;
+
+import java.awt.image.BufferedImage;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.openstreetmap.gui.jmapviewer.interfaces.TileCache;
+import org.openstreetmap.gui.jmapviewer.tilesources.TMSTileSource;
+import org.openstreetmap.gui.jmapviewer.tilesources.TileSourceInfo;
+
+/**
+ * Compares throughput of {@link ConcurrentTileCache} and {@link MemoryTileCache} under concurrent
+ * {@code getTile}/{@code addTile} mix. Not a unit test, run with {@code main}: each thread looks up random tiles from
+ * twice the cache capacity, and adds the missing ones and every tenth looked up tile.
+ */
+public final class ConcurrentTileCacheBenchmark {
+
+    private static final int CAPACITY = 1000;
+    private static final int TILE_BYTES = 16 * 16 * 4;
+    private static final int OPS_PER_THREAD = 1_000_000;
+    private static final int ROUNDS = 6;
+
+    private ConcurrentTileCacheBenchmark() {
+        // Hide default constructor for utilities classes
+    }
+
+    /**
+     * Runs the benchmark
+     * @param args not used
+     * @throws InterruptedException if interrupted
+     */
+    public static void main(String[] args) throws InterruptedException {
+        TMSTileSource source = new TMSTileSource(new TileSourceInfo("test", "http://localhost/{zoom}/{x}/{y}.png", "test"));
+        BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+        Tile[] tiles = new Tile[CAPACITY * 2];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new Tile(source, i % 64, i / 64, 12, image);
+        }
+        for (int threads : new int[] {1, 4, 8}) {
+            for (int round = 0; round < ROUNDS; round++) {
+                // first half of the rounds is warm-up
+                boolean report = round >= ROUNDS / 2;
+                run("MemoryTileCache", new MemoryTileCache(CAPACITY), tiles, threads, report);
+                run("ConcurrentTileCache", new ConcurrentTileCache((long) CAPACITY * TILE_BYTES, TILE_BYTES), tiles, threads,
+                        report);
+            }
+        }
+    }
+
+    private static void run(String name, TileCache cache, Tile[] tiles, int threads, boolean report)
+            throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int op = 0; op < OPS_PER_THREAD; op++) {
+                    Tile tile = tiles[random.nextInt(tiles.length)];
+                    if (cache.getTile(tile.getSource(), tile.getXtile(), tile.getYtile(), tile.getZoom()) == null
+                            || random.nextInt(10) == 0) {
+                        cache.addTile(tile);
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long nanos = System.nanoTime() - begin;
+        if (report) {
+            System.out.println(String.format(Locale.ENGLISH, "%s, %d threads: %.1f M ops/s", name, threads,
+                    (double) OPS_PER_THREAD * threads / nanos * 1e3));
+        }
+    }
+}
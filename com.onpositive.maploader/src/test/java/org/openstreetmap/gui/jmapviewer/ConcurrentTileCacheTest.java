@@ -0,0 +1,168 @@
+// License: GPL. For details, see Readme.txt file.
+package org.openstreetmap.gui.jmapviewer;
+
+import java.awt.image.BufferedImage;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openstreetmap.gui.jmapviewer.tilesources.TMSTileSource;
+import org.openstreetmap.gui.jmapviewer.tilesources.TileSourceInfo;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests of {@link ConcurrentTileCache}
+ */
+public class ConcurrentTileCacheTest extends TestCase {
+
+    // 16x16 ARGB image
+    private static final int TILE_BYTES = 16 * 16 * 4;
+
+    private final TMSTileSource source = new TMSTileSource(new TileSourceInfo("test", "http://localhost/{zoom}/{x}/{y}.png", "test"));
+
+    private Tile tile(int x) {
+        return new Tile(source, x, 0, 10, new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB));
+    }
+
+    private boolean contains(ConcurrentTileCache cache, int x) {
+        return cache.getTile(source, x, 0, 10) != null;
+    }
+
+    public void testByteBudget() {
+        ConcurrentTileCache cache = new ConcurrentTileCache(10 * TILE_BYTES, TILE_BYTES, 1);
+        for (int x = 0; x < 10; x++) {
+            cache.addTile(tile(x));
+        }
+        assertEquals(10, cache.getTileCount());
+        assertEquals(10 * TILE_BYTES, cache.getUsedBytes());
+        assertEquals(0, cache.getEvictionCount());
+
+        // exceeding the budget evicts down to 90% of it
+        cache.addTile(tile(10));
+        assertEquals(9, cache.getTileCount());
+        assertEquals(9 * TILE_BYTES, cache.getUsedBytes());
+        assertEquals(2, cache.getEvictionCount());
+        assertEquals(2 * TILE_BYTES, cache.getEvictedBytes());
+
+        // replaced tile is not counted twice
+        cache.addTile(tile(10));
+        assertEquals(9 * TILE_BYTES, cache.getUsedBytes());
+
+        cache.setMaxBytes(5 * TILE_BYTES);
+        assertTrue(cache.getUsedBytes() <= 5 * TILE_BYTES);
+        assertEquals(cache.getTileCount() * TILE_BYTES, cache.getUsedBytes());
+
+        cache.clear();
+        assertEquals(0, cache.getTileCount());
+        assertEquals(0, cache.getUsedBytes());
+    }
+
+    public void testBudgetIsSplitBetweenSegments() {
+        ConcurrentTileCache cache = new ConcurrentTileCache(64 * TILE_BYTES, TILE_BYTES, 4);
+        for (int x = 0; x < 1000; x++) {
+            cache.addTile(tile(x));
+        }
+        assertTrue(cache.getUsedBytes() <= 64 * TILE_BYTES);
+        assertTrue(cache.getTileCount() > 32);
+        assertEquals(cache.getTileCount() * TILE_BYTES, cache.getUsedBytes());
+    }
+
+    public void testLruEviction() {
+        ConcurrentTileCache cache = new ConcurrentTileCache(10 * TILE_BYTES, TILE_BYTES, 1);
+        for (int x = 0; x < 10; x++) {
+            cache.addTile(tile(x));
+        }
+        for (int x = 0; x < 5; x++) {
+            assertTrue(contains(cache, x));
+        }
+        cache.addTile(tile(10));
+        // least recently used tiles 5 and 6 are evicted, accessed older tiles are kept
+        for (int x = 0; x <= 10; x++) {
+            assertEquals("tile " + x, x != 5 && x != 6, contains(cache, x));
+        }
+        assertEquals(2, cache.getMissCount());
+    }
+
+    public void testSizeUpdatedOnceTileIsLoaded() {
+        ConcurrentTileCache cache = new ConcurrentTileCache(10 * TILE_BYTES, 100, 1);
+        Tile loading = new Tile(source, 0, 0, 10);
+        cache.addTile(loading);
+        assertEquals(100, cache.getUsedBytes());
+        loading.setImage(new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB));
+        assertSame(loading, cache.getTile(source, 0, 0, 10));
+        assertEquals(TILE_BYTES, cache.getUsedBytes());
+    }
+
+    public void testInsertNotBlockedByEviction() throws Exception {
+        ConcurrentTileCache cache = new ConcurrentTileCache(10 * TILE_BYTES, TILE_BYTES, 1);
+        ReentrantLock lock = getSegmentLock(cache);
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // other thread evicting from the segment
+        CompletableFuture<Void> evicting = CompletableFuture.runAsync(() -> {
+            lock.lock();
+            try {
+                locked.countDown();
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                lock.unlock();
+            }
+        });
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Void> insert = CompletableFuture.runAsync(() -> {
+            for (int x = 0; x < 15; x++) {
+                cache.addTile(tile(x));
+            }
+        });
+        insert.get(5, TimeUnit.SECONDS);
+        // eviction is left to the thread holding the lock
+        assertEquals(15, cache.getTileCount());
+        assertEquals(0, cache.getEvictionCount());
+        release.countDown();
+        evicting.get(5, TimeUnit.SECONDS);
+
+        cache.addTile(tile(15));
+        assertEquals(9, cache.getTileCount());
+        assertEquals(9 * TILE_BYTES, cache.getUsedBytes());
+    }
+
+    public void testConcurrentAccess() throws Exception {
+        ConcurrentTileCache cache = new ConcurrentTileCache(100 * TILE_BYTES, TILE_BYTES, 4);
+        int threads = 8;
+        List<CompletableFuture<Void>> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            workers.add(CompletableFuture.runAsync(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int j = 0; j < 20000; j++) {
+                    int x = random.nextInt(500);
+                    if (random.nextInt(10) == 0 || !contains(cache, x)) {
+                        cache.addTile(tile(x));
+                    }
+                }
+            }));
+        }
+        for (CompletableFuture<Void> worker : workers) {
+            worker.get(60, TimeUnit.SECONDS);
+        }
+        // accounting stays consistent, and eviction skipped by racing threads is bounded by their count
+        assertEquals(cache.getTileCount() * TILE_BYTES, cache.getUsedBytes());
+        assertTrue(cache.getUsedBytes() <= (100 + threads) * TILE_BYTES);
+    }
+
+    private static ReentrantLock getSegmentLock(ConcurrentTileCache cache) throws ReflectiveOperationException {
+        Field segments = ConcurrentTileCache.class.getDeclaredField("segments");
+        segments.setAccessible(true);
+        Object segment = ((Object[]) segments.get(cache))[0];
+        Field lock = segment.getClass().getDeclaredField("lock");
+        lock.setAccessible(true);
+        return (ReentrantLock) lock.get(segment);
+    }
+}
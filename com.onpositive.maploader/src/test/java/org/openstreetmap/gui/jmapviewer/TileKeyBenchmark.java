@@ -0,0 +1,72 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.gui.jmapviewer;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+
+import org.openstreetmap.gui.jmapviewer.interfaces.TileSource;
+import org.openstreetmap.gui.jmapviewer.tilesources.TMSTileSource;
+import org.openstreetmap.gui.jmapviewer.tilesources.TileSourceInfo;
+
+/**
+ * Allocation and time per tile lookup in a map keyed by {@link TileKey}, compared to map keyed by
+ * {@link Tile#getTileKey(TileSource, int, int, int)} strings. Not a unit test, run with {@code main}. Allocated bytes
+ * are measured with {@code com.sun.management.ThreadMXBean}, which is available on HotSpot.
+ */
+public final class TileKeyBenchmark {
+
+    private static final int SIDE = 64;
+    private static final int LOOKUPS = 5_000_000;
+    private static final int ROUNDS = 6;
+
+    private TileKeyBenchmark() {
+        // Hide default constructor for utilities classes
+    }
+
+    /**
+     * Runs the benchmark
+     * @param args not used
+     */
+    public static void main(String[] args) {
+        TileSource source = new TMSTileSource(new TileSourceInfo("Benchmark imagery", "http://localhost/{zoom}/{x}/{y}.png",
+                "benchmark"));
+        Map<String, Object> strings = new HashMap<>();
+        Map<TileKey, Object> keys = new HashMap<>();
+        for (int x = 0; x < SIDE; x++) {
+            for (int y = 0; y < SIDE; y++) {
+                strings.put(Tile.getTileKey(source, x, y, 15), Boolean.TRUE);
+                keys.put(TileKey.of(source, x, y, 15), Boolean.TRUE);
+            }
+        }
+        for (int round = 0; round < ROUNDS; round++) {
+            // first half of the rounds is warm-up
+            boolean report = round >= ROUNDS / 2;
+            run("String key", i -> strings.get(Tile.getTileKey(source, i % SIDE, i / SIDE % SIDE, 15)) != null ? 1 : 0,
+                    report);
+            run("TileKey", i -> keys.get(TileKey.of(source, i % SIDE, i / SIDE % SIDE, 15)) != null ? 1 : 0, report);
+        }
+    }
+
+    private static void run(String name, IntUnaryOperator lookup, boolean report) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long bytes = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < LOOKUPS; i++) {
+            found += lookup.applyAsInt(i);
+        }
+        long nanos = System.nanoTime() - start;
+        bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+        if (found != LOOKUPS) {
+            throw new IllegalStateException("Not all tiles found: " + found);
+        }
+        if (report) {
+            System.out.println(String.format(Locale.ENGLISH, "%s: %.1f bytes/lookup, %.1f ns/lookup", name,
+                    (double) bytes / LOOKUPS, (double) nanos / LOOKUPS));
+        }
+    }
+}
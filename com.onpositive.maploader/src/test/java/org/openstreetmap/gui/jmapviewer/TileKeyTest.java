@@ -0,0 +1,103 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.gui.jmapviewer;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.openstreetmap.gui.jmapviewer.interfaces.TileSource;
+import org.openstreetmap.gui.jmapviewer.tilesources.TMSTileSource;
+import org.openstreetmap.gui.jmapviewer.tilesources.TileSourceInfo;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests of {@link TileKey}
+ */
+public class TileKeyTest extends TestCase {
+
+    private static final int MAX_COORD = (1 << 29) - 1;
+
+    private static TileSource source(String name) {
+        return new TMSTileSource(new TileSourceInfo(name, "http://localhost/{zoom}/{x}/{y}.png", name));
+    }
+
+    public void testPacking() {
+        TileSource source = source("packing");
+        int[][] positions = {{0, 0, 0}, {1, 2, 3}, {MAX_COORD, 0, 29}, {0, MAX_COORD, 29}, {MAX_COORD, MAX_COORD, 63},
+            {123456, 654321, 20}};
+        for (int[] p : positions) {
+            TileKey key = TileKey.of(source, p[0], p[1], p[2]);
+            assertEquals(p[0], key.getXtile());
+            assertEquals(p[1], key.getYtile());
+            assertEquals(p[2], key.getZoom());
+        }
+        // 6 zoom bits above 29 x bits above 29 y bits, fields don't overlap
+        assertEquals(1L, TileKey.pack(0, 1, 0));
+        assertEquals(1L << 29, TileKey.pack(1, 0, 0));
+        assertEquals(1L << 58, TileKey.pack(0, 0, 1));
+        assertEquals(TileKey.pack(MAX_COORD, 0, 0) | TileKey.pack(0, MAX_COORD, 0) | TileKey.pack(0, 0, 63),
+                TileKey.pack(MAX_COORD, MAX_COORD, 63));
+        assertEquals(-1L, TileKey.pack(MAX_COORD, MAX_COORD, 63));
+        // coordinates are masked, so they can't spill into other fields
+        assertEquals(TileKey.pack(0, 0, 5), TileKey.pack(1 << 29, 1 << 29, 5));
+    }
+
+    public void testSourceIds() {
+        TileSource a = source("source-a");
+        TileSource b = source("source-b");
+        assertEquals(TileKey.getSourceId(a), TileKey.getSourceId(a));
+        // sources are identified by name, the same way as string keys
+        assertEquals(TileKey.getSourceId(a), TileKey.getSourceId(source("source-a")));
+        assertFalse(TileKey.getSourceId(a) == TileKey.getSourceId(b));
+        assertEquals(TileKey.getSourceId(a), TileKey.of(a, 1, 2, 3).getSourceId());
+        assertEquals(TileKey.getSourceId(source(null)), TileKey.getSourceId(source(null)));
+    }
+
+    public void testEqualsAndHashCode() {
+        TileSource a = source("equals-a");
+        TileSource b = source("equals-b");
+        TileKey key = TileKey.of(a, 10, 20, 5);
+        assertEquals(key, TileKey.of(a, 10, 20, 5));
+        assertEquals(key.hashCode(), TileKey.of(a, 10, 20, 5).hashCode());
+        assertEquals(key, TileKey.of(source("equals-a"), 10, 20, 5));
+        assertEquals(key, new Tile(a, 10, 20, 5).getTileKey());
+        // the same position of other layer
+        assertFalse(key.equals(TileKey.of(b, 10, 20, 5)));
+        assertFalse(key.equals(TileKey.of(a, 20, 10, 5)));
+        assertFalse(key.equals(TileKey.of(a, 10, 20, 6)));
+        assertFalse(key.equals(null));
+        assertFalse(key.equals(Tile.getTileKey(a, 10, 20, 5)));
+    }
+
+    public void testConsistentWithStringKey() {
+        TileSource[] sources = {source("consistent-a"), source("consistent-b"), source("consistent-a")};
+        for (TileSource s1 : sources) {
+            for (TileSource s2 : sources) {
+                for (int i = 0; i < 8; i++) {
+                    for (int j = 0; j < 8; j++) {
+                        int x1 = i % 2;
+                        int y1 = i / 2 % 2;
+                        int z1 = i / 4 + 1;
+                        int x2 = j % 2;
+                        int y2 = j / 2 % 2;
+                        int z2 = j / 4 + 1;
+                        boolean stringEqual = Tile.getTileKey(s1, x1, y1, z1).equals(Tile.getTileKey(s2, x2, y2, z2));
+                        assertEquals(stringEqual, TileKey.of(s1, x1, y1, z1).equals(TileKey.of(s2, x2, y2, z2)));
+                    }
+                }
+            }
+        }
+    }
+
+    public void testHashSpread() {
+        TileSource source = source("hash");
+        Set<Integer> hashes = new HashSet<>();
+        for (int x = 0; x < 64; x++) {
+            for (int y = 0; y < 64; y++) {
+                hashes.add(TileKey.of(source, x, y, 12).hashCode() & 0xFF);
+            }
+        }
+        // neighbouring tiles spread over all the low bits used by hash maps of few hundred entries
+        assertEquals(256, hashes.size());
+    }
+}
@@ -0,0 +1,165 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.cache;
+
+import java.net.HttpURLConnection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests of {@link AdaptiveHostLimit}
+ */
+public class AdaptiveHostLimitTest extends TestCase {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * @return start time of a request sent after any decrease so far
+     */
+    private static long sent() {
+        return System.nanoTime() + 1;
+    }
+
+    private static void ok(AdaptiveHostLimit limit, long latencyMillis, int running) {
+        limit.onResponse(HttpURLConnection.HTTP_OK, false, sent(), latencyMillis * MS, 0, running);
+    }
+
+    public void testThrottlingHalvesLimit() {
+        AdaptiveHostLimit limit = new AdaptiveHostLimit(16, 1, 32);
+        limit.onResponse(JCSCachedTileLoaderJob.HTTP_TOO_MANY_REQUESTS, false, sent(), 10 * MS, 0, 16);
+        assertEquals(8, limit.getPermits());
+        limit.onResponse(HttpURLConnection.HTTP_UNAVAILABLE, false, sent(), 10 * MS, 0, 8);
+        assertEquals(4, limit.getPermits());
+        limit.onResponse(0, true, sent(), 0, 0, 4);
+        assertEquals(2, limit.getPermits());
+        assertEquals(3, limit.getRequestCount());
+        assertEquals(3, limit.getThrottledCount());
+        // other errors are not throttling
+        limit.onResponse(HttpURLConnection.HTTP_NOT_FOUND, false, sent(), 10 * MS, 0, 1);
+        limit.onResponse(HttpURLConnection.HTTP_INTERNAL_ERROR, false, sent(), 10 * MS, 0, 1);
+        assertEquals(2, limit.getPermits());
+        assertEquals(3, limit.getThrottledCount());
+    }
+
+    public void testDecreaseOncePerCongestionEvent() {
+        AdaptiveHostLimit limit = new AdaptiveHostLimit(16, 1, 32);
+        long start = sent();
+        limit.onResponse(JCSCachedTileLoaderJob.HTTP_TOO_MANY_REQUESTS, false, start, 10 * MS, 0, 16);
+        assertEquals(8, limit.getPermits());
+        // requests sent with the old limit, before the decrease
+        limit.onResponse(JCSCachedTileLoaderJob.HTTP_TOO_MANY_REQUESTS, false, start, 10 * MS, 0, 15);
+        limit.onResponse(0, true, start - MS, 0, 0, 14);
+        assertEquals(8, limit.getPermits());
+        assertEquals(3, limit.getThrottledCount());
+    }
+
+    public void testLatencyDecrease() {
+        AdaptiveHostLimit limit = new AdaptiveHostLimit(10, 1, 32);
+        for (int i = 0; i < 10; i++) {
+            ok(limit, 10, 1);
+        }
+        assertEquals(10, limit.getPermits());
+        assertEquals(10.0, limit.getLatencyMillis(), 0.01);
+        // smoothed latency 10 + (100 - 10) * 0.2 = 28ms is above twice the lowest latency
+        ok(limit, 100, 1);
+        assertEquals(9, limit.getPermits());
+        // latency is measured again with the new limit
+        ok(limit, 15, 1);
+        assertEquals(15.0, limit.getLatencyMillis(), 0.01);
+        assertEquals(9, limit.getPermits());
+    }
+
+    public void testGrowthOnlyWhenLimitUsed() {
+        AdaptiveHostLimit limit = new AdaptiveHostLimit(4, 1, 32);
+        for (int i = 0; i < 100; i++) {
+            ok(limit, 10, 3);
+        }
+        assertEquals(4, limit.getPermits());
+        // 4 + 1/4 + 1/4.25 + ... grows by one after a window of about limit responses
+        for (int i = 0; i < 4; i++) {
+            ok(limit, 10, 4);
+        }
+        assertEquals(4, limit.getPermits());
+        ok(limit, 10, 4);
+        assertEquals(5, limit.getPermits());
+    }
+
+    public void testClamp() {
+        assertEquals(8, new AdaptiveHostLimit(100, 1, 8).getPermits());
+        assertEquals(2, new AdaptiveHostLimit(0, 2, 8).getPermits());
+        assertEquals(1, new AdaptiveHostLimit(1, 0, 0).getPermits());
+
+        AdaptiveHostLimit limit = new AdaptiveHostLimit(7, 1, 8);
+        for (int i = 0; i < 100; i++) {
+            ok(limit, 10, 8);
+        }
+        assertEquals(8, limit.getPermits());
+        for (int i = 0; i < 10; i++) {
+            limit.onResponse(JCSCachedTileLoaderJob.HTTP_TOO_MANY_REQUESTS, false, sent(), 10 * MS, 0, 1);
+        }
+        assertEquals(1, limit.getPermits());
+    }
+
+    public void testRetryAfterPause() {
+        AdaptiveHostLimit limit = new AdaptiveHostLimit(4, 1, 8);
+        long now = System.nanoTime();
+        assertFalse(limit.isPaused(now));
+        assertEquals(0, limit.getPauseRemaining(now));
+        limit.onResponse(HttpURLConnection.HTTP_UNAVAILABLE, false, sent(), 10 * MS, 1000 * MS, 4);
+        now = System.nanoTime();
+        assertTrue(limit.isPaused(now));
+        long remaining = limit.getPauseRemaining(now);
+        assertTrue(remaining > 0 && remaining <= 1000 * MS);
+        // shorter Retry-After doesn't shorten the pause
+        limit.onResponse(HttpURLConnection.HTTP_UNAVAILABLE, false, sent(), 10 * MS, 10 * MS, 4);
+        assertTrue(limit.isPaused(now + 500 * MS));
+        assertFalse(limit.isPaused(now + 1001 * MS));
+        assertEquals(0, limit.getPauseRemaining(now + 1001 * MS));
+    }
+
+    public void testPausedHostQueue() throws Exception {
+        HostLimitQueue queue = new HostLimitQueue(2, 2, 10);
+        FakeLoaderJob first = new FakeLoaderJob("a", 0);
+        FakeLoaderJob second = new FakeLoaderJob("a", 1);
+        queue.offer(first);
+        queue.offer(second);
+        assertSame(first, queue.poll());
+        first.finish(JCSCachedTileLoaderJob.HTTP_TOO_MANY_REQUESTS, 10, 300);
+        assertEquals(Integer.valueOf(1), queue.getHostLimits().get("a"));
+        // other hosts are served while the host is paused
+        FakeLoaderJob other = new FakeLoaderJob("b", 0);
+        queue.offer(other);
+        assertSame(other, queue.poll());
+        assertNull(queue.poll());
+        assertNull(queue.poll(50, TimeUnit.MILLISECONDS));
+
+        long start = System.nanoTime();
+        assertSame(second, queue.poll(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start < 1000 * MS);
+    }
+
+    public void testPauseEndsWhileWaitingInTake() throws Exception {
+        HostLimitQueue queue = new HostLimitQueue(2, 2, 10);
+        FakeLoaderJob first = new FakeLoaderJob("a", 0);
+        FakeLoaderJob second = new FakeLoaderJob("a", 1);
+        queue.offer(first);
+        assertSame(first, queue.take());
+        long start = System.nanoTime();
+        CompletableFuture<Runnable> take = CompletableFuture.supplyAsync(() -> {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        first.finish(HttpURLConnection.HTTP_UNAVAILABLE, 10, 300);
+        // host with no tasks isn't tracked as paused, so the thread waits without timeout until the task is queued
+        Thread.sleep(50);
+        assertFalse(take.isDone());
+        queue.offer(second);
+        assertSame(second, take.get(5, TimeUnit.SECONDS));
+        long waited = System.nanoTime() - start;
+        assertTrue("waited " + waited / MS + "ms", waited >= 250 * MS && waited < 2000 * MS);
+    }
+}
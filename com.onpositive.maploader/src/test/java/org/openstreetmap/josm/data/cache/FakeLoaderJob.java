@@ -0,0 +1,109 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.cache;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.jcs.access.behavior.ICacheAccess;
+import org.openstreetmap.josm.data.imagery.TileJobOptions;
+
+/**
+ * Loader job for {@link HostLimitQueue} tests. It doesn't load anything, response of it's request is given by the
+ * test in {@link #finish(int, long, long)}
+ */
+class FakeLoaderJob extends JCSCachedTileLoaderJob<String, CacheEntry> {
+
+    @SuppressWarnings("unchecked")
+    private static final ICacheAccess<String, CacheEntry> NO_CACHE = (ICacheAccess<String, CacheEntry>) Proxy.newProxyInstance(
+            FakeLoaderJob.class.getClassLoader(), new Class<?>[] {ICacheAccess.class}, (proxy, method, args) -> null);
+
+    private final String host;
+    private final int id;
+    private volatile int responseCode;
+    private volatile boolean timedOut;
+    private volatile long start;
+    private volatile long latency;
+    private volatile long retryAfter;
+
+    FakeLoaderJob(String host, int id) {
+        super(NO_CACHE, new TileJobOptions(0, 0, Collections.emptyMap(), 0), null);
+        this.host = host;
+        this.id = id;
+    }
+
+    /**
+     * Finishes the job as if it's request got given response, releasing the host permit
+     * @param code response code
+     * @param latencyMillis response latency
+     * @param retryAfterMillis delay requested by server, 0 if none
+     */
+    void finish(int code, long latencyMillis, long retryAfterMillis) {
+        responseCode = code;
+        latency = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+        retryAfter = TimeUnit.MILLISECONDS.toNanos(retryAfterMillis);
+        start = System.nanoTime();
+        executionFinished();
+    }
+
+    /**
+     * Finishes the job as if it's request has timed out
+     */
+    void timeOut() {
+        timedOut = true;
+        start = System.nanoTime();
+        executionFinished();
+    }
+
+    @Override
+    public String getHost() {
+        return host;
+    }
+
+    @Override
+    public String getCacheKey() {
+        return host + '/' + id;
+    }
+
+    @Override
+    public URL getUrl() throws IOException {
+        return new URL("http://" + host + '/' + id);
+    }
+
+    @Override
+    protected CacheEntry createCacheEntry(byte[] content) {
+        return new CacheEntry(content);
+    }
+
+    @Override
+    int getRequestResponseCode() {
+        return responseCode;
+    }
+
+    @Override
+    boolean isRequestTimedOut() {
+        return timedOut;
+    }
+
+    @Override
+    long getRequestStart() {
+        return start;
+    }
+
+    @Override
+    long getRequestLatency() {
+        return latency;
+    }
+
+    @Override
+    long getRetryAfter() {
+        return retryAfter;
+    }
+
+    @Override
+    public String toString() {
+        return getCacheKey();
+    }
+}
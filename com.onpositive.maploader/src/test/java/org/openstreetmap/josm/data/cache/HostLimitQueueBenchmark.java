@@ -0,0 +1,93 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.cache;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of {@link HostLimitQueue} with large queues spread over many hosts. Not a unit test, run with
+ * {@code main}: each round queues given number of jobs round-robin over the hosts, and drains the queue, finishing a
+ * job as soon as it's taken, so host permits are released in order.
+ */
+public final class HostLimitQueueBenchmark {
+
+    private static final int JOBS = 100_000;
+    private static final int HOSTS = 50;
+    private static final int HOST_LIMIT = 3;
+    private static final int ROUNDS = 10;
+
+    private HostLimitQueueBenchmark() {
+        // Hide default constructor for utilities classes
+    }
+
+    /**
+     * Runs the benchmark
+     * @param args not used
+     * @throws InterruptedException if interrupted
+     */
+    public static void main(String[] args) throws InterruptedException {
+        List<FakeLoaderJob> jobs = new ArrayList<>(JOBS);
+        for (int i = 0; i < JOBS; i++) {
+            jobs.add(new FakeLoaderJob("host" + (i % HOSTS), i));
+        }
+        for (int round = 0; round < ROUNDS; round++) {
+            report("single thread", singleThread(jobs), round);
+        }
+        for (int round = 0; round < ROUNDS; round++) {
+            report("8 threads", multiThread(jobs, 8), round);
+        }
+    }
+
+    private static void report(String name, long nanos, int round) {
+        // first half of the rounds is warm-up
+        if (round >= ROUNDS / 2) {
+            System.out.println(String.format(Locale.ENGLISH, "%s: %d jobs over %d hosts drained in %.1f ms, %.0f ns/job",
+                    name, JOBS, HOSTS, nanos / 1e6, (double) nanos / JOBS));
+        }
+    }
+
+    private static long singleThread(List<FakeLoaderJob> jobs) {
+        HostLimitQueue queue = new HostLimitQueue(HOST_LIMIT);
+        long start = System.nanoTime();
+        jobs.forEach(queue::offer);
+        ArrayDeque<FakeLoaderJob> running = new ArrayDeque<>();
+        int taken = 0;
+        while (taken < jobs.size()) {
+            FakeLoaderJob job = (FakeLoaderJob) queue.poll();
+            if (job == null) {
+                running.pollFirst().finish(200, 0, 0);
+            } else {
+                running.addLast(job);
+                taken++;
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long multiThread(List<FakeLoaderJob> jobs, int threads) throws InterruptedException {
+        HostLimitQueue queue = new HostLimitQueue(HOST_LIMIT);
+        AtomicInteger remaining = new AtomicInteger(jobs.size());
+        CountDownLatch done = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        jobs.forEach(queue::offer);
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                while (remaining.getAndDecrement() > 0) {
+                    try {
+                        ((FakeLoaderJob) queue.take()).finish(200, 0, 0);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,206 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests of {@link HostLimitQueue}
+ */
+public class HostLimitQueueTest extends TestCase {
+
+    private static List<FakeLoaderJob> offer(HostLimitQueue queue, String host, int count) {
+        List<FakeLoaderJob> jobs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            FakeLoaderJob job = new FakeLoaderJob(host, i);
+            assertTrue(queue.offer(job));
+            jobs.add(job);
+        }
+        return jobs;
+    }
+
+    public void testHostLimitNotExceeded() {
+        HostLimitQueue queue = new HostLimitQueue(2);
+        offer(queue, "a", 5);
+        offer(queue, "b", 5);
+        Map<String, Integer> running = new HashMap<>();
+        List<FakeLoaderJob> taken = new ArrayList<>();
+        FakeLoaderJob job;
+        while ((job = (FakeLoaderJob) queue.poll()) != null) {
+            taken.add(job);
+            running.merge(job.getHost(), 1, Integer::sum);
+        }
+        assertEquals(4, taken.size());
+        assertEquals(Integer.valueOf(2), running.get("a"));
+        assertEquals(Integer.valueOf(2), running.get("b"));
+        assertEquals(6, queue.size());
+
+        // released permit is given to the next task of the same host
+        FakeLoaderJob a = taken.stream().filter(j -> "a".equals(j.getHost())).findFirst().get();
+        a.finish(200, 10, 0);
+        job = (FakeLoaderJob) queue.poll();
+        assertEquals("a", job.getHost());
+        assertNull(queue.poll());
+    }
+
+    public void testTasksWithoutHostAreNotLimited() {
+        HostLimitQueue queue = new HostLimitQueue(1);
+        for (int i = 0; i < 5; i++) {
+            queue.offer(() -> { });
+        }
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(queue.poll());
+        }
+        assertNull(queue.poll());
+        assertEquals(0, queue.size());
+    }
+
+    public void testRoundRobin() {
+        HostLimitQueue queue = new HostLimitQueue(10);
+        offer(queue, "a", 3);
+        offer(queue, "b", 3);
+        offer(queue, "c", 3);
+        StringBuilder order = new StringBuilder();
+        FakeLoaderJob job;
+        while ((job = (FakeLoaderJob) queue.poll()) != null) {
+            order.append(job.getHost());
+        }
+        assertEquals("abcabcabc", order.toString());
+    }
+
+    public void testFifoWithinHost() {
+        HostLimitQueue queue = new HostLimitQueue(10);
+        List<FakeLoaderJob> jobs = offer(queue, "a", 5);
+        for (FakeLoaderJob job : jobs) {
+            assertSame(job, queue.poll());
+        }
+    }
+
+    public void testRemove() {
+        HostLimitQueue queue = new HostLimitQueue(10, 3);
+        List<FakeLoaderJob> jobs = offer(queue, "a", 3);
+        assertFalse(queue.offer(new FakeLoaderJob("b", 0)));
+        assertEquals(0, queue.remainingCapacity());
+
+        assertTrue(queue.remove(jobs.get(1)));
+        assertFalse(queue.remove(jobs.get(1)));
+        assertFalse(queue.remove(new FakeLoaderJob("c", 0)));
+        assertEquals(2, queue.size());
+        assertEquals(1, queue.remainingCapacity());
+        assertTrue(queue.offer(new FakeLoaderJob("b", 0)));
+
+        List<Runnable> taken = new ArrayList<>();
+        Runnable task;
+        while ((task = queue.poll()) != null) {
+            taken.add(task);
+        }
+        assertEquals(3, taken.size());
+        assertFalse(taken.contains(jobs.get(1)));
+        assertEquals(0, queue.size());
+    }
+
+    public void testDrainTo() {
+        HostLimitQueue queue = new HostLimitQueue(1, 10);
+        offer(queue, "a", 4);
+        offer(queue, "b", 4);
+        // drain ignores host limits
+        List<Runnable> drained = new ArrayList<>();
+        assertEquals(3, queue.drainTo(drained, 3));
+        assertEquals(5, queue.size());
+        assertEquals(5, queue.drainTo(drained));
+        assertEquals(8, drained.size());
+        assertEquals(0, queue.size());
+        assertEquals(10, queue.remainingCapacity());
+        assertNull(queue.poll());
+        // drained hosts get tasks again
+        offer(queue, "a", 1);
+        assertNotNull(queue.poll());
+    }
+
+    public void testClearWakesUpProducer() throws Exception {
+        HostLimitQueue queue = new HostLimitQueue(10, 2);
+        offer(queue, "a", 2);
+        CompletableFuture<Void> put = CompletableFuture.runAsync(() -> {
+            try {
+                queue.put(new FakeLoaderJob("b", 0));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(put.isDone());
+        queue.clear();
+        put.get(5, TimeUnit.SECONDS);
+        assertEquals(1, queue.size());
+        assertEquals("b", ((FakeLoaderJob) queue.poll()).getHost());
+    }
+
+    public void testIterator() {
+        HostLimitQueue queue = new HostLimitQueue(10);
+        List<FakeLoaderJob> jobs = offer(queue, "a", 2);
+        jobs.addAll(offer(queue, "b", 2));
+        List<Runnable> iterated = new ArrayList<>();
+        queue.iterator().forEachRemaining(iterated::add);
+        assertTrue(iterated.containsAll(jobs) && jobs.containsAll(iterated));
+        queue.removeIf(job -> "a".equals(((FakeLoaderJob) job).getHost()));
+        assertEquals(2, queue.size());
+        assertEquals(Arrays.asList(jobs.get(2), jobs.get(3)), Arrays.asList(queue.poll(), queue.poll()));
+    }
+
+    public void testPollWakesUpOnRelease() throws Exception {
+        HostLimitQueue queue = new HostLimitQueue(1);
+        List<FakeLoaderJob> jobs = offer(queue, "a", 2);
+        assertSame(jobs.get(0), queue.poll());
+        assertNull(queue.poll(50, TimeUnit.MILLISECONDS));
+        CompletableFuture<Runnable> poll = CompletableFuture.supplyAsync(() -> {
+            try {
+                return queue.poll(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(poll.isDone());
+        jobs.get(0).finish(200, 10, 0);
+        assertSame(jobs.get(1), poll.get(5, TimeUnit.SECONDS));
+    }
+
+    public void testTakeWakesUpOnRelease() throws Exception {
+        HostLimitQueue queue = new HostLimitQueue(1);
+        List<FakeLoaderJob> jobs = offer(queue, "a", 2);
+        assertSame(jobs.get(0), queue.take());
+        CompletableFuture<Runnable> take = CompletableFuture.supplyAsync(() -> {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(take.isDone());
+        jobs.get(0).finish(200, 10, 0);
+        assertSame(jobs.get(1), take.get(5, TimeUnit.SECONDS));
+    }
+
+    public void testTakeWakesUpOnOffer() throws Exception {
+        HostLimitQueue queue = new HostLimitQueue(1);
+        CompletableFuture<Runnable> take = CompletableFuture.supplyAsync(() -> {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(take.isDone());
+        FakeLoaderJob job = offer(queue, "a", 1).get(0);
+        assertSame(job, take.get(5, TimeUnit.SECONDS));
+    }
+}
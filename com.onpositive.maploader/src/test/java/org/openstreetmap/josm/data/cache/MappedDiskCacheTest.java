@@ -0,0 +1,220 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.apache.commons.jcs.engine.CacheElement;
+import org.apache.commons.jcs.engine.behavior.ICacheElement;
+import org.apache.commons.jcs.utils.serialization.StandardSerializer;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests of {@link MappedDiskCache}
+ */
+public class MappedDiskCacheTest extends TestCase {
+
+    private File directory;
+    private final List<MappedDiskCache<String, CacheEntry>> caches = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("mapped").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (MappedDiskCache<String, CacheEntry> cache : caches) {
+            cache.processDispose();
+        }
+        try (Stream<Path> files = Files.walk(directory.toPath())) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    public void testPutGetRemove() throws IOException {
+        MappedDiskCache<String, CacheEntry> cache = open(1 << 20, 0, false);
+        put(cache, "a", 100);
+        put(cache, "b", 200);
+        put(cache, "a", 300);
+        assertContent(cache, "a", 300);
+        assertContent(cache, "b", 200);
+        assertNull(cache.processGet("c"));
+        assertEquals(2, cache.getSize());
+
+        assertTrue(cache.processRemove("a"));
+        assertFalse(cache.processRemove("a"));
+        assertNull(cache.processGet("a"));
+        assertEquals(1, cache.getSize());
+
+        close(cache);
+        cache = open(1 << 20, 0, false);
+        assertNull(cache.processGet("a"));
+        assertContent(cache, "b", 200);
+    }
+
+    public void testIndexRebuild() throws IOException {
+        MappedDiskCache<String, CacheEntry> cache = open(4096, 0, false);
+        for (int i = 0; i < 20; i++) {
+            put(cache, "key" + i, 1000 + i);
+        }
+        cache.processRemove("key3");
+        put(cache, "key5", 50);
+        close(cache);
+        deleteIndex();
+
+        cache = open(4096, 0, false);
+        assertEquals(19, cache.getSize());
+        assertNull(cache.processGet("key3"));
+        assertContent(cache, "key5", 50);
+        for (int i = 0; i < 20; i++) {
+            if (i != 3 && i != 5) {
+                assertContent(cache, "key" + i, 1000 + i);
+            }
+        }
+    }
+
+    public void testTruncatedTailRecord() throws IOException {
+        MappedDiskCache<String, CacheEntry> cache = open(1 << 20, 0, false);
+        put(cache, "a", 100);
+        put(cache, "b", 200);
+        put(cache, "c", 300);
+        close(cache);
+        // process killed while appending the last record, before it was indexed
+        File segment = segmentFiles()[0];
+        long fullLength = segment.length();
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(fullLength - 50);
+        }
+        deleteIndex();
+
+        cache = open(1 << 20, 0, false);
+        assertContent(cache, "a", 100);
+        assertContent(cache, "b", 200);
+        assertNull(cache.processGet("c"));
+        assertTrue(segment.length() < fullLength - 300);
+        put(cache, "d", 400);
+        close(cache);
+        cache = open(1 << 20, 0, false);
+        assertContent(cache, "d", 400);
+        assertContent(cache, "a", 100);
+    }
+
+    public void testSegmentEviction() throws IOException {
+        MappedDiskCache<String, CacheEntry> cache = open(4096, 16, false);
+        for (int i = 0; i < 40; i++) {
+            put(cache, "key" + i, 1500);
+            // read back, so both sealed and active segments are read
+            assertContent(cache, "key" + i, 1500);
+        }
+        assertNull(cache.processGet("key0"));
+        assertContent(cache, "key39", 1500);
+        long total = 0;
+        for (File file : segmentFiles()) {
+            total += file.length();
+        }
+        assertTrue(total <= 16 * 1024);
+        int live = 0;
+        for (int i = 0; i < 40; i++) {
+            if (cache.processGet("key" + i) != null) {
+                live++;
+            }
+        }
+        assertEquals(live, cache.getSize());
+        assertEquals(live, cache.getKeySet().size());
+    }
+
+    public void testStaleSegmentDropped() throws IOException {
+        MappedDiskCache<String, CacheEntry> cache = open(1 << 20, 0, false);
+        put(cache, "a", 100);
+        close(cache);
+        // evicted segment, which couldn't be deleted because other process had it mapped
+        File stale = new File(new File(directory, "test"), "00000005.seg");
+        Files.copy(segmentFiles()[0].toPath(), stale.toPath());
+
+        cache = open(1 << 20, 0, false);
+        assertFalse(stale.exists());
+        assertContent(cache, "a", 100);
+        assertEquals(1, cache.getSize());
+    }
+
+    public void testSharedRefresh() throws IOException {
+        MappedDiskCache<String, CacheEntry> first = open(64 * 1024, 0, true);
+        MappedDiskCache<String, CacheEntry> second = open(64 * 1024, 0, true);
+        put(first, "a", 100);
+        assertContent(second, "a", 100);
+        put(second, "b", 200);
+        assertContent(first, "b", 200);
+        assertTrue(second.processRemove("a"));
+        assertNull(first.processGet("a"));
+
+        // enough elements to grow the index and start new segments
+        for (int i = 0; i < 1000; i++) {
+            put(first, "key" + i, 100);
+        }
+        assertContent(second, "key0", 100);
+        assertContent(second, "key999", 100);
+        assertEquals(1001, second.getSize());
+
+        first.processRemoveAll();
+        assertNull(second.processGet("key0"));
+        put(second, "c", 300);
+        assertContent(first, "c", 300);
+    }
+
+    private MappedDiskCache<String, CacheEntry> open(int segmentSize, long maxSizeKB, boolean shared) throws IOException {
+        MappedDiskCacheAttributes attributes = new MappedDiskCacheAttributes();
+        attributes.setCacheName("test");
+        attributes.setDiskPath(directory.getAbsolutePath());
+        attributes.setSegmentSize(segmentSize);
+        attributes.setMaxSizeKB(maxSizeKB);
+        attributes.setShared(shared);
+        MappedDiskCache<String, CacheEntry> cache = new MappedDiskCache<>(attributes, new StandardSerializer());
+        caches.add(cache);
+        return cache;
+    }
+
+    private void close(MappedDiskCache<String, CacheEntry> cache) throws IOException {
+        caches.remove(cache);
+        cache.processDispose();
+    }
+
+    private File[] segmentFiles() {
+        File[] files = new File(directory, "test").listFiles((dir, name) -> name.endsWith(".seg"));
+        Arrays.sort(files);
+        return files;
+    }
+
+    private void deleteIndex() {
+        for (File file : new File(directory, "test").listFiles((dir, name) -> name.startsWith("index"))) {
+            assertTrue(file.delete());
+        }
+    }
+
+    private static void put(MappedDiskCache<String, CacheEntry> cache, String key, int size) throws IOException {
+        cache.processUpdate(new CacheElement<>("test", key, new CacheEntry(content(key, size)), new CacheEntryAttributes()));
+    }
+
+    private static void assertContent(MappedDiskCache<String, CacheEntry> cache, String key, int size) throws IOException {
+        ICacheElement<String, CacheEntry> element = cache.processGet(key);
+        assertNotNull(key, element);
+        assertTrue(key, Arrays.equals(content(key, size), element.getVal().getContent()));
+    }
+
+    private static byte[] content(String key, int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (key.hashCode() + i);
+        }
+        return content;
+    }
+}
@@ -0,0 +1,124 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests of {@link MappedHashIndex}
+ */
+public class MappedHashIndexTest extends TestCase {
+
+    private File directory;
+    private MappedHashIndex index;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("index").toFile();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (index != null) {
+            index.close();
+        }
+        try (Stream<Path> files = Files.walk(directory.toPath())) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    public void testPutGetRemove() throws IOException {
+        index = new MappedHashIndex(directory, "index", 16);
+        assertTrue(index.isNew());
+        index.put(42, new MappedHashIndex.Location(1, 100, 20));
+        index.put(43, new MappedHashIndex.Location(2, 200, 30));
+        index.put(42, new MappedHashIndex.Location(3, 300, 40));
+        assertEquals(2, index.size());
+        assertLocation(index.get(42), 3, 300, 40);
+        assertLocation(index.get(43), 2, 200, 30);
+        assertNull(index.get(44));
+
+        assertTrue(index.remove(42));
+        assertFalse(index.remove(42));
+        assertNull(index.get(42));
+        assertEquals(1, index.size());
+        // hashes equal to empty and removed slot markers are stored as well
+        index.put(0, new MappedHashIndex.Location(4, 0, 1));
+        index.put(1, new MappedHashIndex.Location(5, 0, 1));
+        assertLocation(index.get(0), 4, 0, 1);
+        assertLocation(index.get(1), 5, 0, 1);
+    }
+
+    public void testResizeWithTombstones() throws IOException {
+        index = new MappedHashIndex(directory, "index", 16);
+        for (int i = 0; i < 200; i++) {
+            index.put(i * 7919L, new MappedHashIndex.Location(i, i, i));
+        }
+        for (int i = 0; i < 200; i += 2) {
+            assertTrue(index.remove(i * 7919L));
+        }
+        // reuses tombstones and rehashes when there are too many of them
+        for (int i = 200; i < 400; i++) {
+            index.put(i * 7919L, new MappedHashIndex.Location(i, i, i));
+        }
+        assertEquals(300, index.size());
+        assertContents();
+        // only the latest generation is left
+        assertEquals(1, directory.list().length);
+
+        index.close();
+        index = new MappedHashIndex(directory, "index", 16);
+        assertFalse(index.isNew());
+        assertEquals(300, index.size());
+        assertContents();
+    }
+
+    public void testIncompleteGenerationIgnored() throws IOException {
+        index = new MappedHashIndex(directory, "index", 16);
+        index.put(42, new MappedHashIndex.Location(1, 2, 3));
+        index.close();
+        // left by process killed during resize
+        File incomplete = new File(directory, "index-00000007.dat");
+        Files.write(incomplete.toPath(), new byte[4096]);
+
+        index = new MappedHashIndex(directory, "index", 16);
+        assertFalse(index.isNew());
+        assertLocation(index.get(42), 1, 2, 3);
+        assertFalse(incomplete.exists());
+    }
+
+    public void testClear() throws IOException {
+        index = new MappedHashIndex(directory, "index", 16);
+        index.put(42, new MappedHashIndex.Location(1, 2, 3));
+        index.setSegmentRange(1, 1);
+        index.clear();
+        assertEquals(0, index.size());
+        assertNull(index.get(42));
+        assertEquals(-1, index.getLastSegment());
+        assertEquals(1, directory.list().length);
+    }
+
+    private void assertContents() {
+        for (int i = 0; i < 400; i++) {
+            MappedHashIndex.Location location = index.get(i * 7919L);
+            if (i < 200 && i % 2 == 0) {
+                assertNull(location);
+            } else {
+                assertLocation(location, i, i, i);
+            }
+        }
+    }
+
+    private static void assertLocation(MappedHashIndex.Location location, int segment, int offset, int length) {
+        assertNotNull(location);
+        assertEquals(segment, location.segment);
+        assertEquals(offset, location.offset);
+        assertEquals(length, location.length);
+    }
+}
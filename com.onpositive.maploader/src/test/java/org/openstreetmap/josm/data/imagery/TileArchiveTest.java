@@ -0,0 +1,207 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.imagery;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openstreetmap.gui.jmapviewer.Tile;
+import org.openstreetmap.gui.jmapviewer.tilesources.TMSTileSource;
+import org.openstreetmap.gui.jmapviewer.tilesources.TileSourceInfo;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests of {@link TileArchive}, {@link TileArchiveWriter} and {@link TileArchiveLoader}
+ */
+public class TileArchiveTest extends TestCase {
+
+    private File directory;
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        directory = Files.createTempDirectory("archive").toFile();
+        file = new File(directory, "tiles" + TileArchive.EXTENSION);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try (Stream<Path> files = Files.walk(directory.toPath())) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private static byte[] content(int zoom, int x, int y) {
+        return (zoom + "/" + x + "/" + y).getBytes();
+    }
+
+    public void testTileId() {
+        assertEquals(0, TileArchive.getTileId(0, 0, 0));
+        // Z-order within zoom level, after all tiles of lower zoom levels
+        assertEquals(1, TileArchive.getTileId(1, 0, 0));
+        assertEquals(2, TileArchive.getTileId(1, 1, 0));
+        assertEquals(3, TileArchive.getTileId(1, 0, 1));
+        assertEquals(4, TileArchive.getTileId(1, 1, 1));
+        assertEquals(5, TileArchive.getTileId(2, 0, 0));
+        assertEquals(5 + 15, TileArchive.getTileId(2, 3, 3));
+        int max = (1 << TileArchive.MAX_ZOOM) - 1;
+        assertTrue(TileArchive.getTileId(TileArchive.MAX_ZOOM, max, max) > 0);
+        try {
+            TileArchive.getTileId(TileArchive.MAX_ZOOM + 1, 0, 0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testRoundTrip() throws IOException {
+        int count = 0;
+        try (TileArchiveWriter writer = new TileArchiveWriter(file)) {
+            for (int zoom = 0; zoom <= 4; zoom++) {
+                int size = 1 << zoom;
+                long[] ids = new long[size * size];
+                for (int x = 0; x < size; x++) {
+                    for (int y = 0; y < size; y++) {
+                        ids[x * size + y] = TileArchive.getTileId(zoom, x, y);
+                    }
+                }
+                Arrays.sort(ids);
+                for (long id : ids) {
+                    int[] xy = find(zoom, id);
+                    // every third tile is missing
+                    if ((xy[0] + xy[1]) % 3 != 0) {
+                        writer.addTile(zoom, xy[0], xy[1], content(zoom, xy[0], xy[1]));
+                        count++;
+                    }
+                }
+            }
+            assertEquals(count, writer.getTileCount());
+            assertEquals(count, writer.getUniqueTileCount());
+        }
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        try (TileArchive archive = new TileArchive(file)) {
+            assertEquals(count, archive.size());
+            for (int zoom = 0; zoom <= 4; zoom++) {
+                int size = 1 << zoom;
+                for (int x = 0; x < size; x++) {
+                    for (int y = 0; y < size; y++) {
+                        if ((x + y) % 3 != 0) {
+                            assertTrue(archive.contains(zoom, x, y));
+                            assertTrue(Arrays.equals(content(zoom, x, y), archive.getTile(zoom, x, y)));
+                        } else {
+                            assertFalse(archive.contains(zoom, x, y));
+                            assertNull(archive.getTile(zoom, x, y));
+                        }
+                    }
+                }
+            }
+            assertNull(archive.getTile(5, 1, 1));
+            assertNull(archive.getTile(2, -1, 0));
+            assertNull(archive.getTile(TileArchive.MAX_ZOOM + 1, 0, 0));
+        }
+    }
+
+    public void testDeduplication() throws IOException {
+        byte[] sea = new byte[1000];
+        Arrays.fill(sea, (byte) 7);
+        long distinctSize;
+        try (TileArchiveWriter writer = new TileArchiveWriter(file)) {
+            writer.addTile(2, 0, 0, sea);
+            writer.addTile(2, 1, 0, content(2, 1, 0));
+            writer.addTile(2, 0, 1, sea.clone());
+            writer.addTile(2, 1, 1, sea.clone());
+            assertEquals(4, writer.getTileCount());
+            assertEquals(2, writer.getUniqueTileCount());
+            distinctSize = TileArchive.HEADER_SIZE + sea.length + content(2, 1, 0).length + 4 * TileArchive.ENTRY_SIZE;
+        }
+        assertEquals(distinctSize, file.length());
+        try (TileArchive archive = new TileArchive(file)) {
+            assertTrue(Arrays.equals(sea, archive.getTile(2, 0, 0)));
+            assertTrue(Arrays.equals(sea, archive.getTile(2, 0, 1)));
+            assertTrue(Arrays.equals(sea, archive.getTile(2, 1, 1)));
+            assertTrue(Arrays.equals(content(2, 1, 0), archive.getTile(2, 1, 0)));
+        }
+    }
+
+    public void testOrderEnforced() throws IOException {
+        try (TileArchiveWriter writer = new TileArchiveWriter(file)) {
+            writer.addTile(2, 1, 1, content(2, 1, 1));
+            try {
+                writer.addTile(2, 1, 0, content(2, 1, 0));
+                fail();
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            try {
+                writer.addTile(2, 1, 1, content(2, 1, 1));
+                fail();
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testAbort() throws IOException {
+        TileArchiveWriter writer = new TileArchiveWriter(file);
+        writer.addTile(0, 0, 0, content(0, 0, 0));
+        writer.abort();
+        assertFalse(file.exists());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    public void testInvalidFile() throws IOException {
+        Files.write(file.toPath(), new byte[TileArchive.HEADER_SIZE]);
+        try {
+            new TileArchive(file).close();
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testLoaderNotifiesListenerOnError() throws Exception {
+        try (TileArchiveWriter writer = new TileArchiveWriter(file)) {
+            writer.addTile(1, 0, 0, content(1, 0, 0));
+            writer.addTile(1, 1, 0, content(1, 1, 0));
+        }
+        // corrupt length of the second tile, so reading it fails with runtime exception
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(file.length() - 4);
+            raf.writeInt(-1);
+        }
+        try (TileArchive archive = new TileArchive(file)) {
+            TMSTileSource source = new TMSTileSource(new TileSourceInfo("test", "http://localhost/{zoom}/{x}/{y}.png", "test"));
+            for (int x = 0; x < 3; x++) {
+                CompletableFuture<Boolean> result = new CompletableFuture<>();
+                TileArchiveLoader loader = new TileArchiveLoader((tile, success) -> result.complete(success), archive);
+                Tile tile = new Tile(source, x, 0, 1);
+                loader.createTileLoaderJob(tile).submit();
+                // first tile can't be decoded, second is corrupted, third is missing
+                assertFalse(result.get(10, TimeUnit.SECONDS));
+                assertTrue(tile.hasError());
+                assertFalse(tile.isLoading());
+            }
+        }
+    }
+
+    private static int[] find(int zoom, long id) {
+        int size = 1 << zoom;
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                if (TileArchive.getTileId(zoom, x, y) == id) {
+                    return new int[] {x, y};
+                }
+            }
+        }
+        throw new IllegalArgumentException();
+    }
+}
@@ -0,0 +1,130 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests of {@link BoundedSubmitter}
+ */
+public class BoundedSubmitterTest extends TestCase {
+
+    private ExecutorService executor;
+
+    @Override
+    protected void setUp() throws Exception {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    private static List<Integer> items(int count) {
+        return IntStream.range(0, count).boxed().collect(Collectors.toList());
+    }
+
+    public void testWindowIsNotExceeded() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        AtomicInteger done = new AtomicInteger();
+        AtomicReference<BoundedSubmitter<Integer>> submitter = new AtomicReference<>();
+        submitter.set(new BoundedSubmitter<>(items(500).iterator(), 8, item -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            executor.execute(() -> {
+                running.decrementAndGet();
+                done.incrementAndGet();
+                submitter.get().finished();
+            });
+            return true;
+        }));
+        submitter.get().start();
+        submitter.get().getCompletion().get(10, TimeUnit.SECONDS);
+        assertEquals(500, done.get());
+        assertTrue(maxRunning.get() <= 8);
+    }
+
+    public void testSynchronousFinishDoesNotRecurse() throws Exception {
+        AtomicInteger done = new AtomicInteger();
+        AtomicReference<BoundedSubmitter<Integer>> submitter = new AtomicReference<>();
+        submitter.set(new BoundedSubmitter<>(items(100000).iterator(), 4, item -> {
+            done.incrementAndGet();
+            submitter.get().finished();
+            return true;
+        }));
+        submitter.get().start();
+        assertTrue(submitter.get().getCompletion().isDone());
+        assertEquals(100000, done.get());
+    }
+
+    public void testSkippedAndFailedItemsReleasePermits() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        BoundedSubmitter<Integer> submitter = new BoundedSubmitter<>(items(100).iterator(), 2, item -> {
+            calls.incrementAndGet();
+            if (item % 2 == 0) {
+                throw new IllegalStateException("test failure");
+            }
+            return false;
+        });
+        submitter.start();
+        assertTrue(submitter.getCompletion().isDone());
+        assertEquals(100, calls.get());
+    }
+
+    public void testEmpty() {
+        BoundedSubmitter<Integer> submitter = new BoundedSubmitter<>(items(0).iterator(), 2, item -> true);
+        submitter.start();
+        assertTrue(submitter.getCompletion().isDone());
+    }
+
+    public void testCancelMidRun() throws Exception {
+        List<Integer> started = new ArrayList<>();
+        AtomicReference<BoundedSubmitter<Integer>> submitter = new AtomicReference<>();
+        submitter.set(new BoundedSubmitter<>(items(1000).iterator(), 4, item -> {
+            synchronized (started) {
+                started.add(item);
+            }
+            if (item == 10) {
+                submitter.get().cancel();
+            }
+            executor.execute(submitter.get()::finished);
+            return true;
+        }));
+        submitter.get().start();
+        submitter.get().getCompletion().get(10, TimeUnit.SECONDS);
+        synchronized (started) {
+            assertTrue(started.size() < 1000);
+        }
+    }
+
+    public void testCancelWithItemsInFlight() throws Exception {
+        List<Integer> pending = new ArrayList<>();
+        BoundedSubmitter<Integer> submitter = new BoundedSubmitter<>(items(1000).iterator(), 4, item -> {
+            pending.add(item);
+            return true;
+        });
+        submitter.start();
+        assertEquals(4, pending.size());
+        submitter.cancel();
+        // items already submitted are still awaited
+        assertFalse(submitter.getCompletion().isDone());
+        for (int i = 0; i < 3; i++) {
+            submitter.finished();
+        }
+        assertFalse(submitter.getCompletion().isDone());
+        submitter.finished();
+        assertTrue(submitter.getCompletion().isDone());
+        // nothing was submitted after cancellation
+        assertEquals(4, pending.size());
+    }
+}